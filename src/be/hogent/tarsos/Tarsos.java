@@ -49,11 +49,13 @@ import be.hogent.tarsos.cli.AudioToScala;
 import be.hogent.tarsos.cli.DetectPitch;
 import be.hogent.tarsos.cli.HistogramToScala;
 import be.hogent.tarsos.cli.MidiToWav;
+import be.hogent.tarsos.cli.PitchClassAggregate;
 import be.hogent.tarsos.cli.PitchTable;
 import be.hogent.tarsos.cli.PitchToMidi;
 import be.hogent.tarsos.cli.PitchToHistogram;
 import be.hogent.tarsos.cli.PowerExtractor;
 import be.hogent.tarsos.cli.Rank;
+import be.hogent.tarsos.cli.SimilarityMatrix;
 import be.hogent.tarsos.cli.TuneMidiSynth;
 import be.hogent.tarsos.ui.pitch.Frame;
 import be.hogent.tarsos.util.ConfKey;
@@ -302,6 +304,8 @@ public final class Tarsos {
 		applicationList.add(new PowerExtractor());
 		applicationList.add(new TuneMidiSynth());
 		applicationList.add(new Rank());
+		applicationList.add(new SimilarityMatrix());
+		applicationList.add(new PitchClassAggregate());
 		applicationList.add(new PitchToMidi());
 		applicationList.add(new PitchToHistogram());
 		applicationList.add(new HistogramToScala());
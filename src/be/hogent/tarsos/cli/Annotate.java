@@ -27,26 +27,25 @@
 package be.hogent.tarsos.cli;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.sound.sampled.UnsupportedAudioFileException;
-
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
-import be.hogent.tarsos.sampled.pitch.Annotation;
 import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
 import be.hogent.tarsos.sampled.pitch.PitchDetector;
 import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
 import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.BatchExecutor;
 import be.hogent.tarsos.util.ConfKey;
 import be.hogent.tarsos.util.Configuration;
 import be.hogent.tarsos.util.FileUtils;
 import be.hogent.tarsos.util.SignalPowerExtractor;
 import be.hogent.tarsos.util.SimplePlot;
+import be.hogent.tarsos.util.TranscodingService;
 import be.hogent.tarsos.util.histogram.HistogramFactory;
 import be.hogent.tarsos.util.histogram.PitchHistogram;
 import be.hogent.tarsos.util.histogram.Histogram;
@@ -65,31 +64,77 @@ public final class Annotate extends AbstractTarsosApp {
 	private static final Logger LOG = Logger.getLogger(AbstractTarsosApp.class.getName());
 
 	/**
-	 * Annotates an input file.
+	 * The result of the analysis of one input file: the (transcoded) audio
+	 * file, the pitch detector that processed it and the pitch histogram of the
+	 * detected pitches.
+	 */
+	private static final class AnalyzedFile {
+		private final AudioFile audioFile;
+		private final PitchDetector pitchDetector;
+		private final PitchHistogram pitchHistogram;
+
+		private AnalyzedFile(final AudioFile file, final PitchDetector detector, final PitchHistogram histogram) {
+			this.audioFile = file;
+			this.pitchDetector = detector;
+			this.pitchHistogram = histogram;
+		}
+	}
+
+	/**
+	 * Transcodes an input file, detects pitch and extracts signal power. This
+	 * is the expensive part of the annotation and is executed on a worker
+	 * thread.
 	 * 
 	 * @param inputFile
 	 *            The file to annotate.
-	 * @param detector
+	 * @param detectionMode
 	 *            The detector to use.
-	 * @throws UnsupportedAudioFileException
+	 * @param transcoder
+	 *            Transcodes the input files ahead of the analysis.
+	 * @return The analyzed file.
 	 * @throws EncoderException
 	 */
-	private void annotateInputFile(final String inputFile, final PitchDetectionMode detectionMode)
-			throws UnsupportedAudioFileException, EncoderException {
+	private static AnalyzedFile analyzeInputFile(final String inputFile, final PitchDetectionMode detectionMode,
+			final TranscodingService transcoder) throws EncoderException {
 
-		final AudioFile audioFile = new AudioFile(inputFile);
+		final AudioFile audioFile = transcoder.get(inputFile);
 
 		final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
 
-		pitchDetector.executePitchDetection();
+		final PitchHistogram pitchHistogram = new PitchHistogram();
+		pitchDetector.executePitchDetection(HistogramFactory.createPitchHistogramHandler(pitchHistogram));
 		final String baseName = audioFile.originalBasename();
 		final String directory = FileUtils.combine("annotations", baseName);
 		FileUtils.mkdirs(directory);
 
+		final String prefix = baseName + "_" + pitchDetector.getName();
+		try {
+			final SignalPowerExtractor powerExtractor = new SignalPowerExtractor(audioFile);
+			powerExtractor.saveTextFile(FileUtils.combine(directory, prefix + "_power.txt"), true);
+			// powerExtractor.saveWaveFormPlot(FileUtils.combine(directory,
+			// prefix + "_wave.png"));
+		} catch (final ArrayIndexOutOfBoundsException e) {
+			LOG.log(Level.SEVERE, "Index out of bounds while extracting power.", e);
+		}
+		return new AnalyzedFile(audioFile, pitchDetector, pitchHistogram);
+	}
+
+	/**
+	 * Stores the histograms, plots and scala file of an analyzed file. The
+	 * plots are drawn on the thread that started the batch.
+	 * 
+	 * @param analyzedFile
+	 *            The analyzed file.
+	 */
+	private static void annotateAnalyzedFile(final AnalyzedFile analyzedFile) {
+		final AudioFile audioFile = analyzedFile.audioFile;
+		final PitchDetector pitchDetector = analyzedFile.pitchDetector;
+		final String baseName = audioFile.originalBasename();
+		final String directory = FileUtils.combine("annotations", baseName);
+
 		final String prefix = baseName + "_" + pitchDetector.getName();
 
-		final List<Annotation> samples = pitchDetector.getAnnotations();
-		final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(samples);
+		final PitchHistogram pitchHistogram = analyzedFile.pitchHistogram;
 		final String ambitusTXT = FileUtils.combine(directory, prefix + "_ambitus.txt");
 		final String ambitusPNG = FileUtils.combine(directory, prefix + "_ambitus.png");
 		final String toneScaleColor = prefix + "_tone_scale_colored.png";
@@ -112,15 +157,6 @@ public final class Annotate extends AbstractTarsosApp {
 		plot.save(FileUtils.combine(directory, peaksTitle + ".png"));
 		PitchClassHistogram.exportPeaksToScalaFileFormat(FileUtils.combine(directory, peaksTitle + ".scl"),
 				peaksTitle, peaks);
-
-		try {
-			final SignalPowerExtractor powerExtractor = new SignalPowerExtractor(audioFile);
-			powerExtractor.saveTextFile(FileUtils.combine(directory, prefix + "_power.txt"), true);
-			// powerExtractor.saveWaveFormPlot(FileUtils.combine(directory,
-			// prefix + "_wave.png"));
-		} catch (final ArrayIndexOutOfBoundsException e) {
-			LOG.log(Level.SEVERE, "Index out of bounds while extracting power.", e);
-		}
 	}
 
 	@Override
@@ -147,21 +183,30 @@ public final class Annotate extends AbstractTarsosApp {
 				} else if (inputFile.matches(audioPattern)) {
 					inputFiles.add(inputFile);
 				}
-				Collections.reverse(inputFiles);
-				for(int i = 0; i < 1000; i++){
-					inputFiles.remove(0);
-				}
-				for (final String file : inputFiles) {
-					try {
-						annotateInputFile(file, detectionMode);
-					} catch (EncoderException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (UnsupportedAudioFileException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
+			}
+
+			final TranscodingService transcoder = new TranscodingService();
+			transcoder.submitAll(inputFiles);
+			final List<Callable<AnalyzedFile>> tasks = new ArrayList<Callable<AnalyzedFile>>();
+			for (final String file : inputFiles) {
+				tasks.add(new Callable<AnalyzedFile>() {
+					public AnalyzedFile call() throws EncoderException {
+						return analyzeInputFile(file, detectionMode, transcoder);
 					}
-				}
+				});
+			}
+			try {
+				new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<AnalyzedFile>() {
+					public void handleResult(final int index, final AnalyzedFile analyzedFile) {
+						annotateAnalyzedFile(analyzedFile);
+					}
+
+					public void handleFailure(final int index, final Throwable cause) {
+						LOG.log(Level.SEVERE, "Failed to annotate " + inputFiles.get(index), cause);
+					}
+				});
+			} finally {
+				transcoder.shutdown();
 			}
 		}
 	}
@@ -26,23 +26,43 @@
 
 package be.hogent.tarsos.cli;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.util.HashSet;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.hogent.tarsos.Tarsos;
 import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationHandler;
+import be.hogent.tarsos.sampled.pitch.BinaryAnnotationFile;
+import be.hogent.tarsos.sampled.pitch.CachingDetector;
 import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
 import be.hogent.tarsos.sampled.pitch.PitchDetector;
+import be.hogent.tarsos.sampled.pitch.TarsosPitchDetection;
 import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
 import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.AudioTranscoder;
+import be.hogent.tarsos.util.BatchExecutor;
 import be.hogent.tarsos.util.ConfKey;
 import be.hogent.tarsos.util.Configuration;
 import be.hogent.tarsos.util.FileUtils;
+import be.hogent.tarsos.util.StreamingDecoder;
+import be.hogent.tarsos.util.TranscodingService;
 
 /**
  * Detects pitch for an input file using a pitch detector. Outputs two columns,
@@ -52,6 +72,8 @@ import be.hogent.tarsos.util.FileUtils;
  */
 public final class DetectPitch extends AbstractTarsosApp {
 
+	private static final Logger LOG = Logger.getLogger(DetectPitch.class.getName());
+
 	@Override
 	public String description() {
 		return "Detects pitch for one or more input audio files using a pitch detector. If a directory is given it traverses the directory _recursively_. "
@@ -63,11 +85,26 @@ public final class DetectPitch extends AbstractTarsosApp {
 	public String synopsis(){
 		return "[option] input_file..."; 
 	}
+	
+	/**
+	 * Decode the audio straight into the pitch detector.
+	 */
+	private static final String STREAM_OPTION = "stream";
+	
+	/**
+	 * Do not write the transcoded file while streaming.
+	 */
+	private static final String NO_TRANSCODED_FILE_OPTION = "no-transcoded-file";
 
 	@Override
 	public void run(final String... args) {
 		final OptionParser parser = new OptionParser();
 		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		parser.accepts(STREAM_OPTION, "Decode the audio with ffmpeg straight into the pitch detector, "
+				+ "pitch is detected while the audio is decoded. The transcoded file is written at the same time. "
+				+ "Only for the pure Java pitch detectors, files that are already transcoded are analysed as usual.");
+		parser.accepts(NO_TRANSCODED_FILE_OPTION, "Do not write the transcoded file while streaming. "
+				+ "The annotations are then not cached either.");
 		final OptionSet options = parse(args, parser, this);
 		List<String> arguments = options.nonOptionArguments();
 		
@@ -82,37 +119,207 @@ public final class DetectPitch extends AbstractTarsosApp {
 			}
 		}
 		
+		final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
+		final boolean stream = options.has(STREAM_OPTION);
+		if (stream && !detectionMode.isTarsosMode()) {
+			errorMessage = "Streaming is only supported by the pure Java pitch detectors, not by "
+					+ detectionMode.getParametername() + ".\n";
+		}
+		
 		if (isHelpOptionSet(options) || arguments.size() == 0) {
 			printHelp(parser);
 		} else if(errorMessage !="") {
 			printError(parser, errorMessage);
 		} else {
-			final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
-			executeApplication(arguments,detectionMode);
+			executeApplication(arguments, detectionMode, stream, !options.has(NO_TRANSCODED_FILE_OPTION));
 		}
 	}
 	
 	public void executeApplication(List<String> arguments,final PitchDetectionMode detectionMode){
-		Set<File> files = getAudioFileListFromArguments(arguments);
+		executeApplication(arguments, detectionMode, false, true);
+	}
+	
+	/**
+	 * Detects pitch for the audio files and writes the annotations to standard
+	 * out.
+	 * 
+	 * @param arguments
+	 *            Audio files and directories.
+	 * @param detectionMode
+	 *            The pitch detector to use.
+	 * @param stream
+	 *            If true the audio is decoded straight into the pitch detector
+	 *            instead of being transcoded first, see
+	 *            {@link StreamingDecoder}. Requires a pure Java pitch detector.
+	 * @param writeTranscodedFile
+	 *            If true the transcoded file is written while streaming.
+	 */
+	public void executeApplication(List<String> arguments, final PitchDetectionMode detectionMode,
+			final boolean stream, final boolean writeTranscodedFile) {
+		final List<File> files = new ArrayList<File>(getAudioFileListFromArguments(arguments));
+		// Each file is analysed on a worker thread which writes the csv lines
+		// to a temporary file while pitch is detected. The temporary files are
+		// copied to standard out in order.
+		final TranscodingService transcoder = new TranscodingService();
+		if (!stream) {
+			for(final File inputFile : files){
+				transcoder.submit(inputFile.getAbsolutePath());
+			}
+		}
+		final List<Callable<File>> tasks = new ArrayList<Callable<File>>();
+		for(final File inputFile : files){
+			tasks.add(new Callable<File>() {
+				public File call() throws EncoderException, IOException, UnsupportedAudioFileException {
+					final File csvFile = File.createTempFile("tarsos_pitch_", ".csv");
+					final Writer writer = new BufferedWriter(new FileWriter(csvFile));
+					boolean detected = false;
+					try {
+						final String path = inputFile.getAbsolutePath();
+						final AnnotationHandler handler = new AnnotationHandler() {
+							public void handleAnnotation(final Annotation sample) {
+								try {
+									writer.write(sample.toString() + "," + path + "\n");
+								} catch (final IOException e) {
+									throw new IllegalStateException("Could not write to " + csvFile, e);
+								}
+							}
+						};
+						if (stream) {
+							detectStreaming(path, detectionMode, handler, writeTranscodedFile);
+						} else {
+							final AudioFile audioFile = transcoder.get(path);
+							final PitchDetector detector = detectionMode.getPitchDetector(audioFile);
+							detector.executePitchDetection(handler);
+						}
+						detected = true;
+					} finally {
+						writer.close();
+						if (!detected) {
+							csvFile.delete();
+						}
+					}
+					return csvFile;
+				}
+			});
+		}
 		Tarsos.println("Start(s),Frequency(Hz),Probability,Source,file");
-		for(File inputFile : files){
-			AudioFile audioFile;
+		try {
+			executeTasks(tasks, files);
+		} finally {
+			transcoder.shutdown();
+		}
+	}
+
+	/**
+	 * Detects pitch while the audio file is decoded. A file that is already
+	 * transcoded is analysed as usual, its annotations may be cached. If ffmpeg
+	 * can not be started the file is transcoded first. The streamed
+	 * annotations are written to a temporary cache file while they are
+	 * detected, it is kept together with the transcoded file; without the
+	 * transcoded file (<code>--no-transcoded-file</code>) they are not cached.
+	 */
+	private static void detectStreaming(final String path, final PitchDetectionMode detectionMode,
+			final AnnotationHandler handler, final boolean writeTranscodedFile) throws EncoderException,
+			IOException, UnsupportedAudioFileException {
+		final String transcodedPath = AudioFile.transcodedPathOf(path);
+		if (!AudioTranscoder.transcodingRequired(transcodedPath)) {
+			detectionMode.getPitchDetector(new AudioFile(path)).executePitchDetection(handler);
+			return;
+		}
+		final boolean tee = writeTranscodedFile && Configuration.getBoolean(ConfKey.transcode_audio);
+		final StreamingDecoder decoder;
+		try {
+			decoder = new StreamingDecoder(path, tee ? transcodedPath : null);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not start " + Configuration.get(ConfKey.ffmpeg_executable)
+					+ ", transcoding " + path + " before detecting pitch.", e);
+			detectionMode.getPitchDetector(new AudioFile(path)).executePitchDetection(handler);
+			return;
+		}
+		if (!tee) {
 			try {
-				audioFile = new AudioFile(inputFile.getAbsolutePath());
-				final PitchDetector detector = detectionMode.getPitchDetector(audioFile);
-				detector.executePitchDetection();
-				for (final Annotation sample : detector.getAnnotations()) {
-					Tarsos.println(sample.toString() + "," + inputFile.getAbsolutePath());
+				TarsosPitchDetection.executePitchDetection(decoder.getStream(), detectionMode, handler);
+			} finally {
+				decoder.finish();
+			}
+			return;
+		}
+		// the annotations go to a cache file while they are detected, it is
+		// only kept if the whole file was decoded and transcoded
+		File partialCache = null;
+		try {
+			final File directory = new File(transcodedPath).getParentFile();
+			partialCache = File.createTempFile(FileUtils.basename(transcodedPath) + "_", ".part", directory);
+			final BinaryAnnotationFile.Appender appender = new BinaryAnnotationFile.Appender(partialCache);
+			boolean cached = false;
+			try {
+				TarsosPitchDetection.executePitchDetection(decoder.getStream(), detectionMode,
+						new AnnotationHandler() {
+							public void handleAnnotation(final Annotation annotation) {
+								appender.handleAnnotation(annotation);
+								handler.handleAnnotation(annotation);
+							}
+						});
+			} finally {
+				try {
+					appender.close();
+					cached = true;
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Could not cache the annotations of " + path, e);
 				}
-			} catch (EncoderException e) {
-				//log message
+			}
+			if (decoder.finish() && cached) {
+				// registers the transcoded file in the data directory manifest
+				// and caches the annotations, as a detector of the file would
+				final AudioFile audioFile = new AudioFile(path);
+				((CachingDetector) detectionMode.getPitchDetector(audioFile)).cacheAnnotations(partialCache);
+			}
+		} finally {
+			// stops ffmpeg if the detection failed
+			decoder.finish();
+			if (partialCache != null && partialCache.exists() && !partialCache.delete()) {
+				partialCache.deleteOnExit();
 			}
 		}
-		
+	}
+
+	/**
+	 * Executes the pitch detection tasks and copies the csv lines of each file
+	 * to standard out, in order.
+	 */
+	private void executeTasks(final List<Callable<File>> tasks, final List<File> files) {
+		new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<File>() {
+			public void handleResult(final int index, final File csvFile) {
+				BufferedReader reader = null;
+				try {
+					reader = new BufferedReader(new FileReader(csvFile));
+					String line = reader.readLine();
+					while (line != null) {
+						Tarsos.println(line);
+						line = reader.readLine();
+					}
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Could not read " + csvFile, e);
+				} finally {
+					try {
+						if (reader != null) {
+							reader.close();
+						}
+					} catch (final IOException e) {
+						LOG.log(Level.WARNING, "Could not close " + csvFile, e);
+					}
+					csvFile.delete();
+				}
+			}
+
+			public void handleFailure(final int index, final Throwable cause) {
+				LOG.log(Level.WARNING, "Pitch detection failed for " + files.get(index).getAbsolutePath(), cause);
+			}
+		});
 	}
 	
 	private Set<File> getAudioFileListFromArguments(List<String> arguments){
-		Set<File> files = new HashSet<File>();
+		Set<File> files = new LinkedHashSet<File>();
 		for(int i = 0 ; i < arguments.size() ; i++){
 			File file = new File(arguments.get(i));
 			//Recursively traverse directory
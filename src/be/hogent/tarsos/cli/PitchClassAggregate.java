@@ -0,0 +1,248 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.cli;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationHandler;
+import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
+import be.hogent.tarsos.sampled.pitch.PitchDetector;
+import be.hogent.tarsos.sampled.pitch.PitchUnit;
+import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
+import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.ConfKey;
+import be.hogent.tarsos.util.Configuration;
+import be.hogent.tarsos.util.FileUtils;
+import be.hogent.tarsos.util.KernelDensityEstimate;
+import be.hogent.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.hogent.tarsos.util.TranscodingService;
+import be.hogent.tarsos.util.histogram.HistogramAggregate;
+
+/**
+ * Builds or updates the aggregate pitch class distribution of a collection of
+ * audio files, e.g. all recordings of a region or an instrument. For each file
+ * a pitch class kernel density estimate with an area of one is created, the
+ * aggregate holds the mean, variance and maximum of each bin over all files.
+ * <p>
+ * If the aggregate file exists, the files are added to it: files that are
+ * already part of the aggregate are skipped. Files are identified by their
+ * contents, see {@link AudioFile#contentId()}, so a copy or a moved file is
+ * not counted twice. Aggregates of other collections
+ * can be merged in, e.g. the aggregates of each region in the aggregate of a
+ * whole archive. See {@link HistogramAggregate}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class PitchClassAggregate extends AbstractTarsosApp {
+
+	private static final Logger LOG = Logger.getLogger(PitchClassAggregate.class.getName());
+
+	/**
+	 * The number of bins of each estimate, one per cent.
+	 */
+	private static final int SIZE = 1200;
+
+	@Override
+	public String description() {
+		return "Builds or updates the aggregate pitch class distribution (mean, variance and maximum per cent) "
+				+ "of a collection of audio files, optionally merged with other aggregates.";
+	}
+
+	@Override
+	public String synopsis() {
+		return "[options] aggregate_file [input_file_or_directory...]";
+	}
+
+	@Override
+	public void run(final String... args) {
+		final OptionParser parser = new OptionParser();
+		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		final OptionSpec<Double> widthSpec = parser
+				.accepts("kernel-width", "The width of the Gaussian kernel of the estimates, in cents.")
+				.withRequiredArg().ofType(Double.class).defaultsTo(6.0);
+		final OptionSpec<File> mergeSpec = parser
+				.accepts("merge", "Merge an aggregate file in the aggregate, can be repeated.").withRequiredArg()
+				.ofType(File.class);
+		final OptionSpec<File> csvSpec = parser
+				.accepts("csv", "Also export the mean, variance and maximum of each bin to a CSV file.")
+				.withRequiredArg().ofType(File.class);
+
+		final OptionSet options = parse(args, parser, this);
+
+		if (isHelpOptionSet(options) || options.nonOptionArguments().isEmpty()) {
+			printHelp(parser);
+			return;
+		}
+
+		final List<String> arguments = options.nonOptionArguments();
+		final File aggregateFile = new File(arguments.get(0));
+		HistogramAggregate aggregate;
+		try {
+			if (aggregateFile.exists()) {
+				aggregate = HistogramAggregate.read(aggregateFile);
+				if (aggregate.size() != SIZE) {
+					printError(parser, aggregateFile + " is not a pitch class aggregate.");
+					return;
+				}
+			} else {
+				aggregate = new HistogramAggregate(SIZE);
+			}
+		} catch (final IOException e) {
+			printError(parser, e.getMessage());
+			return;
+		}
+		final long initialCount = aggregate.getCount();
+
+		for (final File mergeFile : options.valuesOf(mergeSpec)) {
+			merge(aggregate, mergeFile);
+		}
+
+		final String audioPattern = Configuration.get(ConfKey.audio_file_name_pattern);
+		final List<String> inputFiles = new ArrayList<String>();
+		final Set<String> inputIds = new HashSet<String>();
+		for (final String inputFile : arguments.subList(1, arguments.size())) {
+			final List<String> files = new ArrayList<String>();
+			if (FileUtils.isDirectory(inputFile)) {
+				files.addAll(FileUtils.glob(inputFile, audioPattern, true));
+			} else if (inputFile.matches(audioPattern)) {
+				files.add(inputFile);
+			}
+			for (final String file : files) {
+				final String contentId = AudioFile.contentIdOf(file);
+				if (aggregate.contains(contentId)) {
+					LOG.fine("Skipped " + file + ", it is part of the aggregate.");
+				} else if (!inputIds.add(contentId)) {
+					LOG.fine("Skipped " + file + ", it has the same contents as another input file.");
+				} else {
+					inputFiles.add(file);
+				}
+			}
+		}
+		aggregate.merge(createAggregate(inputFiles, options.valueOf(detectionModeSpec), options.valueOf(widthSpec)));
+
+		try {
+			aggregate.write(aggregateFile);
+			LOG.info(String.format("Added %s profiles to %s, it now aggregates %s profiles.", aggregate.getCount()
+					- initialCount, aggregateFile, aggregate.getCount()));
+			if (options.has(csvSpec)) {
+				exportCSV(aggregate, options.valueOf(csvSpec));
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write the aggregate to " + aggregateFile, e);
+		}
+	}
+
+	/**
+	 * Merges an aggregate file in the aggregate, unless both share a source:
+	 * the profiles of the source would be counted twice.
+	 */
+	private void merge(final HistogramAggregate aggregate, final File mergeFile) {
+		try {
+			final HistogramAggregate other = HistogramAggregate.read(mergeFile);
+			for (final String source : other.getSources()) {
+				if (aggregate.contains(source)) {
+					LOG.warning(String.format("Did not merge %s: %s is already part of the aggregate.", mergeFile,
+							source));
+					return;
+				}
+			}
+			aggregate.merge(other);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not merge " + mergeFile, e);
+		} catch (final IllegalArgumentException e) {
+			LOG.log(Level.WARNING, "Could not merge " + mergeFile, e);
+		}
+	}
+
+	/**
+	 * Detects pitch in each file, in parallel, and aggregates the pitch class
+	 * estimates. Files that fail are skipped.
+	 */
+	private HistogramAggregate createAggregate(final List<String> inputFiles,
+			final PitchDetectionMode detectionMode, final double width) {
+		final TranscodingService transcoder = new TranscodingService();
+		transcoder.submitAll(inputFiles);
+		final List<Callable<HistogramAggregate>> tasks = new ArrayList<Callable<HistogramAggregate>>();
+		for (final String file : inputFiles) {
+			tasks.add(new Callable<HistogramAggregate>() {
+				public HistogramAggregate call() throws EncoderException {
+					final AudioFile audioFile = transcoder.get(file);
+					final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
+					final KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width), SIZE);
+					pitchDetector.executePitchDetection(new AnnotationHandler() {
+						public void handleAnnotation(final Annotation annotation) {
+							kde.add(annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+						}
+					});
+					kde.pdfify();
+					final HistogramAggregate part = new HistogramAggregate(SIZE);
+					part.add(audioFile.contentId(), kde);
+					return part;
+				}
+			});
+		}
+		try {
+			return HistogramAggregate.reduce(tasks, SIZE);
+		} finally {
+			transcoder.shutdown();
+		}
+	}
+
+	/**
+	 * Exports the statistics of each bin, separated by semicolons.
+	 */
+	private void exportCSV(final HistogramAggregate aggregate, final File csvFile) throws IOException {
+		final Writer writer = new BufferedWriter(new FileWriter(csvFile));
+		try {
+			writer.write("Pitch class (cents);Mean;Variance;Maximum\n");
+			for (int i = 0; i < aggregate.size(); i++) {
+				writer.write(String.format(Locale.US, "%d;%.8f;%.8f;%.8f\n", i, aggregate.getMean(i),
+						aggregate.getVariance(i), aggregate.getMaximum(i)));
+			}
+		} finally {
+			writer.close();
+		}
+		LOG.info("Exported the aggregate to " + csvFile);
+	}
+}
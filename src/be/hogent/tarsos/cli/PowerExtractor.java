@@ -35,6 +35,7 @@ import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
 import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.TranscodingService;
 import be.hogent.tarsos.util.SignalPowerExtractor;
 
 /**
@@ -67,14 +68,19 @@ public final class PowerExtractor extends AbstractTarsosApp {
 			printHelp(parser);
 		} else {
 			final List<AudioFile> audioFiles = new ArrayList<AudioFile>();
+			final TranscodingService transcoder = new TranscodingService();
+			for (final File inputFile : options.valuesOf(inputSpec)) {
+				transcoder.submit(inputFile.getAbsolutePath());
+			}
 			for (final File inputFile : options.valuesOf(inputSpec)) {
 				try {
-					audioFiles.add(new AudioFile(inputFile.getAbsolutePath()));
+					audioFiles.add(transcoder.get(inputFile.getAbsolutePath()));
 				} catch (EncoderException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
 			}
+			transcoder.shutdown();
 			SignalPowerExtractor spex;
 			for (final AudioFile file : audioFiles) {
 				spex = new SignalPowerExtractor(file);
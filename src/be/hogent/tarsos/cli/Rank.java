@@ -27,23 +27,28 @@
 package be.hogent.tarsos.cli;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.hogent.tarsos.Tarsos;
-import be.hogent.tarsos.sampled.pitch.Annotation;
 import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
 import be.hogent.tarsos.sampled.pitch.PitchDetector;
 import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
 import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.BatchExecutor;
 import be.hogent.tarsos.util.ConfKey;
 import be.hogent.tarsos.util.Configuration;
 import be.hogent.tarsos.util.FileUtils;
 import be.hogent.tarsos.util.ScalaFile;
+import be.hogent.tarsos.util.ToneScaleIndex;
 import be.hogent.tarsos.util.histogram.HistogramFactory;
 import be.hogent.tarsos.util.histogram.PitchHistogram;
 import be.hogent.tarsos.util.histogram.CorrelationMeasure;
@@ -60,6 +65,8 @@ import be.hogent.tarsos.util.histogram.peaks.PeakDetector;
  */
 public final class Rank extends AbstractTarsosApp {
 
+	private static final Logger LOG = Logger.getLogger(Rank.class.getName());
+
 	@Override
 	public String description() {
 		return "Ranks a list of audio files on tone scale similarity "
@@ -82,20 +89,50 @@ public final class Rank extends AbstractTarsosApp {
 								+ " directory it is traversed recursively.").withRequiredArg()
 				.ofType(File.class).withValuesSeparatedBy(' ');
 
+		final OptionSpec<File> indexSpec = parser
+				.accepts(
+						"index",
+						"A tone scale index. The haystack, if any, is added to the index and the index is "
+								+ "written back. The needle is then searched in the index instead of comparing it "
+								+ "with each file.").withRequiredArg().ofType(File.class);
+
+		final OptionSpec<Integer> resultsSpec = parser
+				.accepts("results", "The number of results listed when an index is searched.").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(10);
+
+		final OptionSpec<Integer> candidatesSpec = parser
+				.accepts("candidates",
+						"The number of candidates in the index that are compared with the needle. "
+								+ "More candidates make a search slower and more reliable.").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(500);
+
+		final StringBuilder measures = new StringBuilder();
+		for (final CorrelationMeasure measure : CorrelationMeasure.values()) {
+			measures.append(measure.name()).append(" | ");
+		}
+		final OptionSpec<CorrelationMeasure> measureSpec = parser
+				.accepts("measure",
+						"The measure used to compare tone scales [" + measures.toString()
+								+ "]. An index is only searched by INTERSECTION.").withRequiredArg()
+				.ofType(CorrelationMeasure.class).defaultsTo(CorrelationMeasure.INTERSECTION);
+
 		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
 
 		final OptionSet options = parse(args, parser, this);
 
-		if (isHelpOptionSet(options) || !options.has(needleSpec) || !options.has(haystackSpec)) {
+		if (isHelpOptionSet(options) || !options.has(needleSpec)
+				|| !options.has(haystackSpec) && !options.has(indexSpec)) {
 			printHelp(parser);
 		} else {
 			final File needleFile = options.valueOf(needleSpec);
 			final List<File> hayStack = new ArrayList<File>();
-			for (final File hay : options.valuesOf(haystackSpec)) {
-				if (hay.isDirectory()) {
-					iterateDirectory(hay, hayStack);
-				} else {
-					hayStack.add(hay);
+			if (options.has(haystackSpec)) {
+				for (final File hay : options.valuesOf(haystackSpec)) {
+					if (hay.isDirectory()) {
+						iterateDirectory(hay, hayStack);
+					} else {
+						hayStack.add(hay);
+					}
 				}
 			}
 			for (final String nonArgumentOption : options.nonOptionArguments()) {
@@ -107,20 +144,53 @@ public final class Rank extends AbstractTarsosApp {
 				}
 			}
 			final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
+			final CorrelationMeasure measure = options.valueOf(measureSpec);
+			if (options.has(indexSpec) && measure != CorrelationMeasure.INTERSECTION) {
+				// the index ranks its candidates by their matching area
+				printError(parser, "A tone scale index can only be searched by INTERSECTION, not " + measure + ".");
+				return;
+			}
 
-			final PitchClassHistogram needleHisto = createHisto(needleFile, detectionMode);
+			final PitchClassHistogram needleHisto;
+			try {
+				needleHisto = createHisto(needleFile, detectionMode);
+			} catch (final EncoderException e) {
+				printError(parser, "Could not transcode " + needleFile.getAbsolutePath() + ": " + e.getMessage());
+				return;
+			}
+
+			if (options.has(indexSpec)) {
+				rankWithIndex(options.valueOf(indexSpec), needleHisto, hayStack, detectionMode,
+						options.valueOf(resultsSpec), options.valueOf(candidatesSpec));
+				return;
+			}
 
 			final TreeMap<Double, String> tree = new TreeMap<Double, String>();
 
+			final List<Callable<PitchClassHistogram>> tasks = new ArrayList<Callable<PitchClassHistogram>>();
 			for (final File hay : hayStack) {
-				final PitchClassHistogram hayHisto = createHisto(hay, detectionMode);
-				final int displacement = needleHisto.displacementForOptimalCorrelation(hayHisto);
-				final Double correlation = needleHisto.correlationWithDisplacement(displacement, hayHisto);
-				final String plotFileName = hay.getName() + "_" + needleFile.getName() + ".png";
-				final String title = correlation.toString();
-				needleHisto.plotCorrelation(hayHisto, CorrelationMeasure.INTERSECTION, plotFileName, title);
-				tree.put(correlation, hay.getName());
+				tasks.add(new Callable<PitchClassHistogram>() {
+					public PitchClassHistogram call() throws EncoderException {
+						return createHisto(hay, detectionMode);
+					}
+				});
 			}
+			new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<PitchClassHistogram>() {
+				public void handleResult(final int index, final PitchClassHistogram hayHisto) {
+					final File hay = hayStack.get(index);
+					final int displacement = needleHisto.displacementForOptimalCorrelation(hayHisto, measure);
+					final Double correlation = needleHisto.correlationWithDisplacement(displacement, hayHisto,
+							measure);
+					final String plotFileName = hay.getName() + "_" + needleFile.getName() + ".png";
+					final String title = correlation.toString();
+					needleHisto.plotCorrelation(hayHisto, measure, plotFileName, title);
+					tree.put(correlation, hay.getName());
+				}
+
+				public void handleFailure(final int index, final Throwable cause) {
+					LOG.log(Level.WARNING, "Could not create a tone scale for " + hayStack.get(index), cause);
+				}
+			});
 
 			for (final Double correlation : tree.keySet()) {
 				Tarsos.println(correlation + " " + tree.get(correlation));
@@ -128,6 +198,74 @@ public final class Rank extends AbstractTarsosApp {
 		}
 	}
 
+	/**
+	 * Adds the haystack to the index, writes the index and lists the files in
+	 * the index with a tone scale most similar to the needle. A file that is
+	 * already in the index replaces its tone scale.
+	 */
+	private void rankWithIndex(final File indexFile, final PitchClassHistogram needleHisto,
+			final List<File> hayStack, final PitchDetectionMode detectionMode, final int results,
+			final int candidates) {
+		final ToneScaleIndex toneScaleIndex;
+		try {
+			if (indexFile.exists()) {
+				toneScaleIndex = ToneScaleIndex.read(indexFile);
+			} else {
+				toneScaleIndex = new ToneScaleIndex(needleHisto.getNumberOfClasses());
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not read the tone scale index " + indexFile, e);
+			return;
+		}
+		if (toneScaleIndex.getProfileSize() != needleHisto.getNumberOfClasses()) {
+			LOG.severe(String.format("The tone scale index %s has %s bins per profile, the histograms have %s.",
+					indexFile, toneScaleIndex.getProfileSize(), needleHisto.getNumberOfClasses()));
+			return;
+		}
+
+		if (!hayStack.isEmpty()) {
+			final List<Callable<PitchClassHistogram>> tasks = new ArrayList<Callable<PitchClassHistogram>>();
+			for (final File hay : hayStack) {
+				tasks.add(new Callable<PitchClassHistogram>() {
+					public PitchClassHistogram call() throws EncoderException {
+						return createHisto(hay, detectionMode);
+					}
+				});
+			}
+			new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<PitchClassHistogram>() {
+				public void handleResult(final int index, final PitchClassHistogram hayHisto) {
+					toneScaleIndex.add(hayStack.get(index).getAbsolutePath(), profile(hayHisto));
+				}
+
+				public void handleFailure(final int index, final Throwable cause) {
+					LOG.log(Level.WARNING, "Could not create a tone scale for " + hayStack.get(index), cause);
+				}
+			});
+			try {
+				toneScaleIndex.write(indexFile);
+				LOG.info(String.format("Wrote %s tone scales to index %s", toneScaleIndex.size(), indexFile));
+			} catch (final IOException e) {
+				LOG.log(Level.SEVERE, "Could not write the tone scale index " + indexFile, e);
+			}
+		}
+
+		final List<ToneScaleIndex.Match> matches = toneScaleIndex.search(profile(needleHisto), results, candidates);
+		for (final ToneScaleIndex.Match match : matches) {
+			Tarsos.println(match.getSimilarity() + " " + match.getName());
+		}
+	}
+
+	/**
+	 * @return The counts of the histogram.
+	 */
+	private static double[] profile(final PitchClassHistogram histogram) {
+		final double[] profile = new double[histogram.getNumberOfClasses()];
+		for (int i = 0; i < profile.length; i++) {
+			profile[i] = histogram.getCountForClass(i);
+		}
+		return profile;
+	}
+
 	private void iterateDirectory(final File file, final List<File> files) {
 		if (file.isDirectory()) {
 			for (final String child : file.list()) {
@@ -145,38 +283,30 @@ public final class Rank extends AbstractTarsosApp {
 		}
 	}
 
-	private PitchClassHistogram createHisto(final File file, final PitchDetectionMode detectionMode) {
+	private PitchClassHistogram createHisto(final File file, final PitchDetectionMode detectionMode)
+			throws EncoderException {
 		PitchClassHistogram histo;
 		final String path = file.getAbsolutePath();
 		final String extension = FileUtils.extension(path);
 		if (extension.equalsIgnoreCase("scl")) {
 			histo = HistogramFactory.createPitchClassHistogram(new ScalaFile(path));
 		} else if (path.matches(Configuration.get(ConfKey.audio_file_name_pattern))) {
-			AudioFile audioFile;
-			try {
-				audioFile = new AudioFile(path);
-				final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
-				pitchDetector.executePitchDetection();
-				final List<Annotation> samples = pitchDetector.getAnnotations();
-				final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(samples);
-				final List<Peak> peakList = PeakDetector.detect(pitchHistogram.pitchClassHistogram()
-						.gaussianSmooth(0.8), 15,15);
-				final double[] peaks = new double[peakList.size()];
-				for (int i = 0; i < peaks.length; i++) {
-					peaks[i] = peakList.get(i).getPosition();
-				}
-				histo = PitchClassHistogram.createToneScale(peaks);
-				return histo;
-			} catch (EncoderException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			final AudioFile audioFile = new AudioFile(path);
+			final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
+			final PitchHistogram pitchHistogram = new PitchHistogram();
+			pitchDetector.executePitchDetection(HistogramFactory.createPitchHistogramHandler(pitchHistogram));
+			final List<Peak> peakList = PeakDetector.detect(pitchHistogram.pitchClassHistogram()
+					.gaussianSmooth(0.8), 15,15);
+			final double[] peaks = new double[peakList.size()];
+			for (int i = 0; i < peaks.length; i++) {
+				peaks[i] = peakList.get(i).getPosition();
 			}
-
+			histo = PitchClassHistogram.createToneScale(peaks);
 		} else {
 			throw new IllegalArgumentException("Tone scale creation failed: " + path
 					+ " should be a scala or audio file!");
 		}
-		return null;
+		return histo;
 	}
 
 }
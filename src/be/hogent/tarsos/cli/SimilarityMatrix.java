@@ -0,0 +1,404 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationHandler;
+import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
+import be.hogent.tarsos.sampled.pitch.PitchDetector;
+import be.hogent.tarsos.sampled.pitch.PitchUnit;
+import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
+import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.BatchExecutor;
+import be.hogent.tarsos.util.ConfKey;
+import be.hogent.tarsos.util.Configuration;
+import be.hogent.tarsos.util.FileUtils;
+import be.hogent.tarsos.util.KernelDensityEstimate;
+import be.hogent.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.hogent.tarsos.util.TranscodingService;
+import be.hogent.tarsos.util.KernelDensityEstimate.KDECorrelation;
+
+/**
+ * Computes the tone scale similarity of each pair of audio files. For each
+ * file a pitch class kernel density estimate is created once, the similarity
+ * of two files is the optimal correlation of their estimates.
+ * <p>
+ * The matrix is symmetric so only the upper triangle, including the diagonal,
+ * is computed. The rows are divided in bands which are computed in parallel,
+ * within a band the columns are visited in tiles so the estimates of a band
+ * stay in the cache while each column is compared with them. Bands are written
+ * as soon as they are ready, the matrix is never kept in memory.
+ * </p>
+ * <p>
+ * The binary file starts with the magic number <code>TSIM</code>, a format
+ * version, the number of files and the name of each file (as modified UTF-8).
+ * The upper triangle follows row by row as floats: for row <code>i</code> the
+ * similarity with files <code>i</code> up to the last file.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class SimilarityMatrix extends AbstractTarsosApp {
+
+	private static final Logger LOG = Logger.getLogger(SimilarityMatrix.class.getName());
+
+	/**
+	 * The magic number at the start of each file: TSIM in ASCII.
+	 */
+	private static final int MAGIC = 0x5453494D;
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	private static final short VERSION = 1;
+
+	/**
+	 * The number of rows in one band, computed by one task.
+	 */
+	private static final int BAND_SIZE = 16;
+
+	/**
+	 * The number of columns in one tile.
+	 */
+	private static final int TILE_SIZE = 64;
+
+	/**
+	 * The number of values of the full matrix kept in memory while the CSV
+	 * export is written.
+	 */
+	private static final int CSV_BUFFER_SIZE = 1 << 24;
+
+	@Override
+	public String description() {
+		return "Computes the tone scale similarity of each pair of audio files "
+				+ "and writes the symmetric similarity matrix to a binary file, optionally also to a CSV file.";
+	}
+
+	@Override
+	public String synopsis() {
+		return "[options] output_file input_file_or_directory...";
+	}
+
+	@Override
+	public void run(final String... args) {
+		final OptionParser parser = new OptionParser();
+		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		final OptionSpec<Double> widthSpec = parser
+				.accepts("kernel-width", "The width of the Gaussian kernel of the estimates, in cents.")
+				.withRequiredArg().ofType(Double.class).defaultsTo(6.0);
+		final OptionSpec<String> correlationSpec = parser
+				.accepts("correlation", "The correlation measure [overlap | cosine].").withRequiredArg()
+				.ofType(String.class).defaultsTo("overlap");
+		final OptionSpec<File> csvSpec = parser
+				.accepts("csv", "Also export the full matrix to a CSV file, separated by semicolons.")
+				.withRequiredArg().ofType(File.class);
+
+		final OptionSet options = parse(args, parser, this);
+
+		if (isHelpOptionSet(options) || options.nonOptionArguments().size() < 2) {
+			printHelp(parser);
+			return;
+		}
+
+		final String correlationName = options.valueOf(correlationSpec);
+		final KDECorrelation correlationMeasure;
+		if ("overlap".equalsIgnoreCase(correlationName)) {
+			correlationMeasure = new KernelDensityEstimate.Overlap();
+		} else if ("cosine".equalsIgnoreCase(correlationName)) {
+			correlationMeasure = new KernelDensityEstimate.Cosine();
+		} else {
+			printError(parser, "Unknown correlation measure: " + correlationName);
+			return;
+		}
+
+		final List<String> arguments = options.nonOptionArguments();
+		final File outputFile = new File(arguments.get(0));
+		final String audioPattern = Configuration.get(ConfKey.audio_file_name_pattern);
+		final List<String> inputFiles = new ArrayList<String>();
+		for (final String inputFile : arguments.subList(1, arguments.size())) {
+			if (FileUtils.isDirectory(inputFile)) {
+				inputFiles.addAll(FileUtils.glob(inputFile, audioPattern, true));
+			} else if (inputFile.matches(audioPattern)) {
+				inputFiles.add(inputFile);
+			}
+		}
+
+		final List<String> names = new ArrayList<String>();
+		final List<KernelDensityEstimate> estimates = createEstimates(inputFiles,
+				options.valueOf(detectionModeSpec), options.valueOf(widthSpec), names);
+
+		try {
+			writeMatrix(outputFile, names, estimates, correlationMeasure);
+			LOG.info(String.format("Wrote the similarity matrix of %s files to %s", names.size(), outputFile));
+			if (options.has(csvSpec)) {
+				exportCSV(outputFile, options.valueOf(csvSpec));
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write the similarity matrix to " + outputFile, e);
+		}
+	}
+
+	/**
+	 * Detects pitch in each file, in parallel, and creates a pitch class
+	 * estimate with an area of one for it. Files that fail are skipped.
+	 * 
+	 * @param names
+	 *            Receives the name of each file an estimate is created for.
+	 * @return The estimates in the order of the names.
+	 */
+	private List<KernelDensityEstimate> createEstimates(final List<String> inputFiles,
+			final PitchDetectionMode detectionMode, final double width, final List<String> names) {
+		final TranscodingService transcoder = new TranscodingService();
+		transcoder.submitAll(inputFiles);
+		final List<Callable<KernelDensityEstimate>> tasks = new ArrayList<Callable<KernelDensityEstimate>>();
+		for (final String file : inputFiles) {
+			tasks.add(new Callable<KernelDensityEstimate>() {
+				public KernelDensityEstimate call() throws EncoderException {
+					final AudioFile audioFile = transcoder.get(file);
+					final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
+					final KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width), 1200);
+					pitchDetector.executePitchDetection(new AnnotationHandler() {
+						public void handleAnnotation(final Annotation annotation) {
+							kde.add(annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+						}
+					});
+					kde.pdfify();
+					return kde;
+				}
+			});
+		}
+		final List<KernelDensityEstimate> estimates = new ArrayList<KernelDensityEstimate>();
+		try {
+			new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<KernelDensityEstimate>() {
+				public void handleResult(final int index, final KernelDensityEstimate kde) {
+					names.add(FileUtils.basename(inputFiles.get(index)));
+					estimates.add(kde);
+				}
+
+				public void handleFailure(final int index, final Throwable cause) {
+					LOG.log(Level.WARNING, "Skipped " + inputFiles.get(index) + " in the similarity matrix", cause);
+				}
+			});
+		} finally {
+			transcoder.shutdown();
+		}
+		return estimates;
+	}
+
+	/**
+	 * Computes the upper triangle band by band and writes each band as soon as
+	 * it is ready.
+	 */
+	private void writeMatrix(final File outputFile, final List<String> names,
+			final List<KernelDensityEstimate> estimates, final KDECorrelation correlationMeasure)
+			throws IOException {
+		final int size = estimates.size();
+		final KernelDensityEstimate[] kdes = estimates.toArray(new KernelDensityEstimate[size]);
+		// fills the values the estimates cache for a correlation before they
+		// are shared with the workers
+		for (final KernelDensityEstimate kde : kdes) {
+			kde.shiftForOptimalCorrelation(correlationMeasure, kde);
+		}
+
+		final List<Callable<float[]>> tasks = new ArrayList<Callable<float[]>>();
+		for (int bandStart = 0; bandStart < size; bandStart += BAND_SIZE) {
+			final int firstRow = bandStart;
+			final int lastRow = Math.min(size, bandStart + BAND_SIZE);
+			tasks.add(new Callable<float[]>() {
+				public float[] call() {
+					return computeBand(kdes, firstRow, lastRow, correlationMeasure);
+				}
+			});
+		}
+
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+				outputFile)));
+		final IOException[] failure = new IOException[1];
+		try {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeInt(size);
+			for (final String name : names) {
+				output.writeUTF(name);
+			}
+			new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<float[]>() {
+				public void handleResult(final int index, final float[] band) {
+					try {
+						for (final float value : band) {
+							output.writeFloat(value);
+						}
+					} catch (final IOException e) {
+						failure[0] = e;
+					}
+				}
+
+				public void handleFailure(final int index, final Throwable cause) {
+					failure[0] = new IOException("Could not compute band " + index + " of the matrix: " + cause);
+				}
+			});
+		} finally {
+			output.close();
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Computes the rows of the upper triangle from the first row (inclusive)
+	 * up to the last row (exclusive).
+	 * 
+	 * @return The rows one after the other, row <code>i</code> holds the
+	 *         similarity with files <code>i</code> up to the last file.
+	 */
+	private static float[] computeBand(final KernelDensityEstimate[] kdes, final int firstRow, final int lastRow,
+			final KDECorrelation correlationMeasure) {
+		final int size = kdes.length;
+		final int[] rowOffsets = new int[lastRow - firstRow];
+		int bandLength = 0;
+		for (int row = firstRow; row < lastRow; row++) {
+			rowOffsets[row - firstRow] = bandLength;
+			bandLength += size - row;
+		}
+		final float[] band = new float[bandLength];
+		for (int tileStart = firstRow; tileStart < size; tileStart += TILE_SIZE) {
+			final int tileStop = Math.min(size, tileStart + TILE_SIZE);
+			for (int column = tileStart; column < tileStop; column++) {
+				final KernelDensityEstimate other = kdes[column];
+				for (int row = firstRow; row < lastRow && row <= column; row++) {
+					final double similarity = kdes[row].optimalCorrelation(correlationMeasure, other);
+					band[rowOffsets[row - firstRow] + column - row] = (float) similarity;
+				}
+			}
+		}
+		return band;
+	}
+
+	/**
+	 * Exports the full matrix, with the names as header row and column. The
+	 * lower triangle is read from the columns of the rows written before, the
+	 * binary file is read once for each group of rows that fits in memory.
+	 */
+	private void exportCSV(final File matrixFile, final File csvFile) throws IOException {
+		final List<String> names = new ArrayList<String>();
+		final Writer writer = new BufferedWriter(new FileWriter(csvFile));
+		try {
+			openMatrix(matrixFile, names).close();
+			final int size = names.size();
+			writer.write(";");
+			for (final String name : names) {
+				writer.write(name);
+				writer.write(";");
+			}
+			final int rowsPerPass = Math.max(1, CSV_BUFFER_SIZE / Math.max(1, size));
+			for (int firstRow = 0; firstRow < size; firstRow += rowsPerPass) {
+				final int lastRow = Math.min(size, firstRow + rowsPerPass);
+				final float[][] rows = new float[lastRow - firstRow][size];
+				final DataInputStream input = openMatrix(matrixFile, new ArrayList<String>());
+				try {
+					for (int i = 0; i < lastRow; i++) {
+						for (int j = i; j < size; j++) {
+							final float value = input.readFloat();
+							if (i >= firstRow) {
+								rows[i - firstRow][j] = value;
+							}
+							if (j >= firstRow && j < lastRow) {
+								rows[j - firstRow][i] = value;
+							}
+						}
+					}
+				} finally {
+					input.close();
+				}
+				for (int i = firstRow; i < lastRow; i++) {
+					writer.write("\n");
+					writer.write(names.get(i));
+					writer.write(";");
+					for (final float value : rows[i - firstRow]) {
+						writer.write(String.format(Locale.US, "%.5f;", value));
+					}
+				}
+			}
+			writer.write("\n");
+		} finally {
+			writer.close();
+		}
+		LOG.info("Exported the similarity matrix to " + csvFile);
+	}
+
+	/**
+	 * Opens a matrix file and reads the header.
+	 * 
+	 * @param names
+	 *            Receives the names of the files.
+	 * @return The stream, positioned at the first value of the upper triangle.
+	 */
+	private static DataInputStream openMatrix(final File matrixFile, final List<String> names) throws IOException {
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(matrixFile)));
+		boolean valid = false;
+		try {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(matrixFile + " is not a similarity matrix file.");
+			}
+			final short version = input.readShort();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of similarity matrix file " + matrixFile);
+			}
+			final int size = input.readInt();
+			for (int i = 0; i < size; i++) {
+				names.add(input.readUTF());
+			}
+			valid = true;
+		} finally {
+			if (!valid) {
+				input.close();
+			}
+		}
+		return input;
+	}
+}
@@ -58,6 +58,7 @@ import be.hogent.tarsos.dsp.GainProcessor;
 import be.hogent.tarsos.dsp.StopAudioProcessor;
 import be.hogent.tarsos.dsp.WaveformSimilarityBasedOverlapAdd;
 import be.hogent.tarsos.dsp.WaveformSimilarityBasedOverlapAdd.Parameters;
+import be.hogent.tarsos.util.MappedPcmFile;
 
 /**
  * Player plays audio. 
@@ -199,7 +200,7 @@ public class Player implements AudioProcessor {
 			wsola = new WaveformSimilarityBasedOverlapAdd(
 					Parameters.slowdownDefaults(tempo, format.getSampleRate()));
 
-			dispatcher = AudioDispatcher.fromFile(loadedFile,
+			dispatcher = MappedPcmFile.dispatcher(loadedFile,
 					wsola.getInputBufferSize(), wsola.getOverlap());
 
 			wsola.setDispatcher(dispatcher);
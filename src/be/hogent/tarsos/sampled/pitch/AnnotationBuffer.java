@@ -0,0 +1,363 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.sampled.pitch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A growable, column oriented container for annotations. Instead of an
+ * {@link Annotation} object per row it stores time, pitch (in Hz) and
+ * probability in parallel arrays of primitives and the source as a byte. That
+ * is 25 bytes per annotation instead of about a hundred. Pitch is converted to
+ * other units on demand.
+ * <p>
+ * The buffer is an {@link AnnotationHandler} so a pitch detector can fill it
+ * directly. Annotation objects are only created when requested with
+ * {@link #getAnnotation(int)} or {@link #toList()}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationBuffer implements AnnotationHandler {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private static final PitchDetectionMode[] SOURCES = PitchDetectionMode.values();
+
+	private double[] times;
+	private double[] pitches;
+	private double[] probabilities;
+	private byte[] sources;
+	private int size;
+
+	/**
+	 * Create an empty buffer.
+	 */
+	public AnnotationBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty buffer with room for a number of annotations.
+	 * 
+	 * @param initialCapacity
+	 *            The number of annotations that can be added before the
+	 *            columns grow.
+	 */
+	public AnnotationBuffer(final int initialCapacity) {
+		final int capacity = Math.max(1, initialCapacity);
+		times = new double[capacity];
+		pitches = new double[capacity];
+		probabilities = new double[capacity];
+		sources = new byte[capacity];
+	}
+
+	/**
+	 * Create a buffer with the data of a list of annotations.
+	 * 
+	 * @param annotations
+	 *            The annotations to copy.
+	 */
+	public AnnotationBuffer(final List<Annotation> annotations) {
+		this(annotations.size());
+		addAll(annotations);
+	}
+
+	/**
+	 * Adds an annotation. The same sanity checks as in the constructor of
+	 * {@link Annotation} are done.
+	 * 
+	 * @param timeStamp
+	 *            The starting time (in seconds).
+	 * @param pitchInHz
+	 *            The pitch in Hz.
+	 * @param source
+	 *            The source of the annotation.
+	 * @param probability
+	 *            A probability between zero and one (inclusive).
+	 */
+	public void add(final double timeStamp, final double pitchInHz, final PitchDetectionMode source,
+			final double probability) {
+		if (probability > 1.0 || 0.0 > probability) {
+			throw new IllegalArgumentException(
+					"The salience should be a value between zero and one (inclusive): " + probability);
+		}
+		if (pitchInHz <= 0) {
+			throw new IllegalArgumentException("The pitch in Hz should be a value above zero, it is: "
+					+ pitchInHz);
+		}
+		if (timeStamp < 0) {
+			throw new IllegalArgumentException(
+					"The timestamp in seconds should be equal or above zero, it is: " + timeStamp);
+		}
+		ensureCapacity(size + 1);
+		times[size] = timeStamp;
+		pitches[size] = pitchInHz;
+		probabilities[size] = probability;
+		sources[size] = (byte) source.ordinal();
+		size++;
+	}
+
+	/**
+	 * Adds an annotation.
+	 * 
+	 * @param annotation
+	 *            The annotation to add.
+	 */
+	public void add(final Annotation annotation) {
+		ensureCapacity(size + 1);
+		times[size] = annotation.getStart();
+		pitches[size] = annotation.getPitch(PitchUnit.HERTZ);
+		probabilities[size] = annotation.getProbability();
+		sources[size] = (byte) annotation.getSource().ordinal();
+		size++;
+	}
+
+	/**
+	 * Adds one annotation of another buffer.
+	 * 
+	 * @param other
+	 *            The buffer with the annotation to add.
+	 * @param index
+	 *            The index of the annotation in the other buffer.
+	 */
+	public void add(final AnnotationBuffer other, final int index) {
+		ensureCapacity(size + 1);
+		times[size] = other.times[index];
+		pitches[size] = other.pitches[index];
+		probabilities[size] = other.probabilities[index];
+		sources[size] = other.sources[index];
+		size++;
+	}
+
+	/**
+	 * Adds a list of annotations.
+	 * 
+	 * @param annotations
+	 *            The annotations to add.
+	 */
+	public void addAll(final List<Annotation> annotations) {
+		ensureCapacity(size + annotations.size());
+		for (final Annotation annotation : annotations) {
+			add(annotation);
+		}
+	}
+
+	/**
+	 * Adds the annotations of another buffer.
+	 * 
+	 * @param other
+	 *            The buffer with annotations to add.
+	 */
+	public void addAll(final AnnotationBuffer other) {
+		addRange(other, 0, other.size);
+	}
+
+	/**
+	 * Adds a range of the annotations of another buffer.
+	 * 
+	 * @param other
+	 *            The buffer with annotations to add.
+	 * @param from
+	 *            The index of the first annotation to add.
+	 * @param to
+	 *            The index after the last annotation to add.
+	 */
+	public void addRange(final AnnotationBuffer other, final int from, final int to) {
+		final int length = to - from;
+		ensureCapacity(size + length);
+		System.arraycopy(other.times, from, times, size, length);
+		System.arraycopy(other.pitches, from, pitches, size, length);
+		System.arraycopy(other.probabilities, from, probabilities, size, length);
+		System.arraycopy(other.sources, from, sources, size, length);
+		size += length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * be.hogent.tarsos.sampled.pitch.AnnotationHandler#handleAnnotation(be.
+	 * hogent.tarsos.sampled.pitch.Annotation)
+	 */
+	public void handleAnnotation(final Annotation annotation) {
+		add(annotation);
+	}
+
+	/**
+	 * @return The number of annotations in the buffer.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The starting time of the annotation in seconds.
+	 */
+	public double getStart(final int index) {
+		return times[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @param unit
+	 *            The unit requested.
+	 * @return The pitch of the annotation, converted to the requested unit.
+	 */
+	public double getPitch(final int index, final PitchUnit unit) {
+		final double pitch;
+		if (unit == PitchUnit.HERTZ) {
+			pitch = pitches[index];
+		} else {
+			pitch = unit.convert(pitches[index], PitchUnit.HERTZ);
+		}
+		return pitch;
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The probability of the annotation.
+	 */
+	public double getProbability(final int index) {
+		return probabilities[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The source of the annotation.
+	 */
+	public PitchDetectionMode getSource(final int index) {
+		return SOURCES[sources[index]];
+	}
+
+	/**
+	 * Creates an annotation object for one row.
+	 * 
+	 * @param index
+	 *            The index of the annotation.
+	 * @return A new annotation with the data of the row.
+	 */
+	public Annotation getAnnotation(final int index) {
+		return new Annotation(times[index], pitches[index], getSource(index), probabilities[index]);
+	}
+
+	/**
+	 * @return A list with an annotation object for each row.
+	 */
+	public List<Annotation> toList() {
+		final List<Annotation> annotations = new ArrayList<Annotation>(size);
+		for (int i = 0; i < size; i++) {
+			annotations.add(getAnnotation(i));
+		}
+		return annotations;
+	}
+
+	/**
+	 * Hands an annotation object for each row to a handler.
+	 * 
+	 * @param handler
+	 *            The handler.
+	 */
+	public void publish(final AnnotationHandler handler) {
+		for (int i = 0; i < size; i++) {
+			handler.handleAnnotation(getAnnotation(i));
+		}
+	}
+
+	/**
+	 * Keeps only the annotations that are marked, the others are removed. The
+	 * order of the kept annotations does not change.
+	 * 
+	 * @param keep
+	 *            For each annotation, true if it should be kept.
+	 */
+	public void retain(final boolean[] keep) {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (keep[i]) {
+				times[kept] = times[i];
+				pitches[kept] = pitches[i];
+				probabilities[kept] = probabilities[i];
+				sources[kept] = sources[i];
+				kept++;
+			}
+		}
+		size = kept;
+	}
+
+	/**
+	 * @return A copy of this buffer, trimmed to its size.
+	 */
+	public AnnotationBuffer copy() {
+		final AnnotationBuffer copy = new AnnotationBuffer(size);
+		copy.addAll(this);
+		return copy;
+	}
+
+	/**
+	 * Removes all annotations.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Shrinks the columns to the number of annotations.
+	 */
+	public void trimToSize() {
+		if (times.length > size) {
+			resize(Math.max(1, size));
+		}
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > times.length) {
+			resize(Math.max(capacity, times.length + (times.length >> 1)));
+		}
+	}
+
+	private void resize(final int capacity) {
+		times = copyOf(times, capacity);
+		pitches = copyOf(pitches, capacity);
+		probabilities = copyOf(probabilities, capacity);
+		final byte[] newSources = new byte[capacity];
+		System.arraycopy(sources, 0, newSources, 0, size);
+		sources = newSources;
+	}
+
+	private double[] copyOf(final double[] column, final int capacity) {
+		final double[] copy = new double[capacity];
+		System.arraycopy(column, 0, copy, 0, size);
+		return copy;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.sampled.pitch;
+
+import java.util.logging.Logger;
+
+import be.hogent.tarsos.sampled.pitch.AnnotationPublisher.AnnotationFilter;
+import be.hogent.tarsos.util.StopWatch;
+
+/**
+ * A fixed number of filter stages applied one after the other to a buffer of
+ * annotations. The output of each stage is cached: changing the filter of a
+ * stage only recomputes that stage and the stages after it. A stage without a
+ * filter passes its input through without copying.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationFilterChain {
+
+	private static final Logger LOG = Logger.getLogger(AnnotationFilterChain.class.getName());
+
+	private final AnnotationBuffer input;
+	private final AnnotationFilter[] filters;
+	/**
+	 * The cached output of each stage, null if it needs to be recomputed.
+	 */
+	private final AnnotationBuffer[] outputs;
+
+	/**
+	 * Create a chain without filters.
+	 * 
+	 * @param numberOfStages
+	 *            The number of filter stages.
+	 */
+	public AnnotationFilterChain(final int numberOfStages) {
+		input = new AnnotationBuffer();
+		filters = new AnnotationFilter[numberOfStages];
+		outputs = new AnnotationBuffer[numberOfStages];
+	}
+
+	/**
+	 * Sets the filter of a stage. The stage and the stages after it are
+	 * recomputed on the next call to {@link #getOutput()}.
+	 * 
+	 * @param stage
+	 *            The index of the stage.
+	 * @param filter
+	 *            The new filter, or null to pass annotations through.
+	 */
+	public synchronized void setFilter(final int stage, final AnnotationFilter filter) {
+		filters[stage] = filter;
+		invalidate(stage);
+	}
+
+	/**
+	 * Adds annotations to the input of the chain.
+	 * 
+	 * @param annotations
+	 *            The annotations to add.
+	 */
+	public synchronized void addInput(final AnnotationBuffer annotations) {
+		input.addAll(annotations);
+		invalidate(0);
+	}
+
+	/**
+	 * Removes the input and all filters.
+	 */
+	public synchronized void clear() {
+		input.clear();
+		for (int stage = 0; stage < filters.length; stage++) {
+			filters[stage] = null;
+		}
+		invalidate(0);
+	}
+
+	/**
+	 * @return True if at least one stage has a filter.
+	 */
+	public synchronized boolean isFiltering() {
+		boolean filtering = false;
+		for (final AnnotationFilter filter : filters) {
+			filtering = filtering || filter != null;
+		}
+		return filtering;
+	}
+
+	/**
+	 * Returns the output of the last stage. The returned buffer is shared:
+	 * do not modify it.
+	 * 
+	 * @return The annotations that pass all the filters.
+	 */
+	public synchronized AnnotationBuffer getOutput() {
+		AnnotationBuffer stageInput = input;
+		for (int stage = 0; stage < filters.length; stage++) {
+			if (outputs[stage] == null) {
+				if (filters[stage] == null) {
+					outputs[stage] = stageInput;
+				} else {
+					final StopWatch watch = new StopWatch();
+					outputs[stage] = new AnnotationBuffer(stageInput.size());
+					filters[stage].filter(stageInput, outputs[stage]);
+					outputs[stage].trimToSize();
+					LOG.fine(String.format("Filter stage %s kept %s of %s annotations in %s.", stage,
+							outputs[stage].size(), stageInput.size(), watch));
+				}
+			}
+			stageInput = outputs[stage];
+		}
+		return stageInput;
+	}
+
+	private void invalidate(final int firstStage) {
+		for (int stage = firstStage; stage < outputs.length; stage++) {
+			outputs[stage] = null;
+		}
+	}
+}
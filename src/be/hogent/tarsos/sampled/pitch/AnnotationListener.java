@@ -46,13 +46,23 @@ public interface AnnotationListener {
 	 */
 	void addAnnotation(Annotation annotation);
 
+	/**
+	 * Remove an annotation that was added before from the element. When the
+	 * probability threshold changes only the annotations that cross the
+	 * threshold are added or removed, without clearing all annotations first.
+	 * 
+	 * @param annotation
+	 *            The annotation to remove.
+	 */
+	void removeAnnotation(Annotation annotation);
+
 	/**
 	 * Clears all annotations.
 	 */
 	void clearAnnotations();
 
 	/**
-	 * Is called after a list of annotations is added.
+	 * Is called after a list of annotations is added or removed.
 	 */
 	void annotationsAdded();
 	
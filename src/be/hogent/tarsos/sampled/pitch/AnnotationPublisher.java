@@ -43,7 +43,13 @@ public final class AnnotationPublisher{
 	private AnnotationTree tree;
 	private final List<AnnotationListener> listeners;
 	private final AnnotationSelection selection;
-	private final List<Annotation> originalAnnotationList;
+	/**
+	 * Filters the unfiltered annotations: first the steady state filter, then
+	 * the pitch class filter.
+	 */
+	private final AnnotationFilterChain filterChain;
+	private static final int STEADY_STATE_STAGE = 0;
+	private static final int PITCH_CLASS_STAGE = 1;
 	private final PitchUnit unit;
 
 	/**
@@ -57,7 +63,7 @@ public final class AnnotationPublisher{
 	private AnnotationPublisher() {
 		listeners = new ArrayList<AnnotationListener>();
 		selection = new AnnotationSelection();
-		originalAnnotationList = new ArrayList<Annotation>();
+		filterChain = new AnnotationFilterChain(2);
 		unit = PitchUnit.valueOf(Configuration.get(ConfKey.pitch_contour_unit));
 		tree = new AnnotationTree(unit);
 	}
@@ -76,19 +82,45 @@ public final class AnnotationPublisher{
 	 * @param annotations
 	 */
 	public void addAnnotations(final List<Annotation> annotations) {
-		int beforeSize = tree.size();
-		tree.add(annotations);
-		originalAnnotationList.addAll(annotations);
-		assert tree.size() == beforeSize+annotations.size();
+		addAnnotations(new AnnotationBuffer(annotations));
+	}
+
+	/**
+	 * Adds annotations to the tree without creating an annotation object for
+	 * each one.
+	 * 
+	 * @param annotations
+	 *            The annotations to add.
+	 */
+	public synchronized void addAnnotations(final AnnotationBuffer annotations) {
+		filterChain.addInput(annotations);
+		if (filterChain.isFiltering()) {
+			tree = new AnnotationTree(unit);
+			tree.add(filterChain.getOutput());
+		} else {
+			int beforeSize = tree.size();
+			tree.add(annotations);
+			assert tree.size() == beforeSize+annotations.size();
+		}
 	}
 	
 	
+	/**
+	 * Applies the steady state filter. The pitch class filter, if any, is
+	 * applied to its result.
+	 */
 	public void applySteadyStateFilter(final double maxCentsDifference, final double minDuration){
-		rebuildTree(new SteadyStateFilter(maxCentsDifference, minDuration));
+		filterChain.setFilter(STEADY_STATE_STAGE, new SteadyStateFilter(maxCentsDifference, minDuration));
+		rebuildTree();
 	}
 	
+	/**
+	 * Applies the pitch class filter to the result of the steady state filter,
+	 * which is not recomputed.
+	 */
 	public void applyPitchClassFilter(final double pitchClasses[],final double maxCentsDifference){
-		rebuildTree(new PitchClassFilter(pitchClasses, maxCentsDifference));
+		filterChain.setFilter(PITCH_CLASS_STAGE, new PitchClassFilter(pitchClasses, maxCentsDifference));
+		rebuildTree();
 	}
 	
 	
@@ -108,14 +140,11 @@ public final class AnnotationPublisher{
 
 	
 	/**
-	 * Rebuilds the tree with the filtered annotations.
-	 * @param filter The filter to apply on the original list of annotations to filter.
+	 * Rebuilds the tree with the output of the filter chain.
 	 */
-	private void rebuildTree(AnnotationFilter filter){
+	private synchronized void rebuildTree(){
 		tree = new AnnotationTree(unit);
-		List<Annotation> listToFilter = new ArrayList<Annotation>(originalAnnotationList);
-		filter.filter(listToFilter);
-		tree.add(listToFilter);
+		tree.add(filterChain.getOutput());
 		//clear the current state
 		clear();
 		//add annotations
@@ -146,9 +175,9 @@ public final class AnnotationPublisher{
 		}
 	}
 	
-	public void clearTree(){
+	public synchronized void clearTree(){
 		tree = new AnnotationTree(unit);
-		originalAnnotationList.clear();
+		filterChain.clear();
 	}
 
 	/**
@@ -175,6 +204,37 @@ public final class AnnotationPublisher{
 		}
 	}
 
+	/**
+	 * Adds the annotations in a selection to listeners. An
+	 * {@link AnnotationSelectionListener} receives the selection itself, the
+	 * other listeners receive each selected annotation.
+	 * 
+	 * @param newSelection
+	 *            The selection to add.
+	 */
+	private void delegateAddAnnotations(final AnnotationSelection newSelection) {
+		final AnnotationTree selectionTree = tree;
+		List<Annotation> annotations = null;
+		for (AnnotationListener listener : listeners) {
+			StopWatch watch = new StopWatch();
+			if (listener instanceof AnnotationSelectionListener) {
+				((AnnotationSelectionListener) listener).addSelection(selectionTree, newSelection);
+			} else {
+				if (annotations == null) {
+					annotations = selectionTree.select(newSelection);
+				}
+				for (Annotation annotation : annotations) {
+					listener.addAnnotation(annotation);
+				}
+			}
+			LOG.finer(String.format("Adding %s to %s took %s.", newSelection,
+					listener.getClass().toString(), watch.formattedToString()));
+		}
+		for (AnnotationListener listener : listeners) {
+			listener.annotationsAdded();
+		}
+	}
+
 	/**
 	 * Adds annotations to listeners. The annotations are defined by a search on
 	 * time.
@@ -188,8 +248,7 @@ public final class AnnotationPublisher{
 		//create a new selection based on the current one:
 		AnnotationSelection newSelection = new AnnotationSelection(selection);
 		newSelection.setTimeSelection(startTime, stopTime);
-		List<Annotation> annotations = tree.select(newSelection);
-		delegateAddAnnotations(annotations);
+		delegateAddAnnotations(newSelection);
 	}
 
 	/**
@@ -210,16 +269,14 @@ public final class AnnotationPublisher{
 		AnnotationSelection newSelection = new AnnotationSelection(selection);
 		newSelection.setTimeSelection(startTime, stopTime);
 		newSelection.setPitchSelection(startPitch, stopPitch);
-		List<Annotation> annotations = tree.select(newSelection);
-		delegateAddAnnotations(annotations);
+		delegateAddAnnotations(newSelection);
 		
 	}
 
 	public void delegateAddAnnotations(final double newMinProbability) {
 		AnnotationSelection newSelection = new AnnotationSelection(selection);
 		newSelection.setMinProbability(newMinProbability);
-		List<Annotation> annotations = tree.select(newSelection);
-		delegateAddAnnotations(annotations);
+		delegateAddAnnotations(newSelection);
 	}
 	
 	public void alterSelection(final double startTime, final double stopTime,
@@ -234,6 +291,46 @@ public final class AnnotationPublisher{
 		LOG.finer("New selection: " + selection.toString());
 	}
 	
+	/**
+	 * Changes the minimum probability of the current selection. Listeners are
+	 * not cleared: only the annotations that cross the threshold are removed
+	 * from or added to them.
+	 * 
+	 * @param newMinProbability
+	 *            The new minimum probability.
+	 */
+	public void alterMinProbability(final double newMinProbability) {
+		final AnnotationSelection oldSelection = new AnnotationSelection(selection);
+		final double oldMinProbability = oldSelection.getMinProbability();
+		alterSelection(newMinProbability);
+		final StopWatch watch = new StopWatch();
+		final int[] changed = new int[1];
+		if (newMinProbability > oldMinProbability) {
+			tree.selectProbabilityRange(oldSelection, oldMinProbability, newMinProbability, new AnnotationHandler() {
+				public void handleAnnotation(final Annotation annotation) {
+					changed[0]++;
+					for (AnnotationListener listener : listeners) {
+						listener.removeAnnotation(annotation);
+					}
+				}
+			});
+		} else if (newMinProbability < oldMinProbability) {
+			tree.selectProbabilityRange(oldSelection, newMinProbability, oldMinProbability, new AnnotationHandler() {
+				public void handleAnnotation(final Annotation annotation) {
+					changed[0]++;
+					for (AnnotationListener listener : listeners) {
+						listener.addAnnotation(annotation);
+					}
+				}
+			});
+		}
+		LOG.fine(String.format("Probability threshold %s -> %s changed %s annotations in %s.", oldMinProbability,
+				newMinProbability, changed[0], watch));
+		for (AnnotationListener listener : listeners) {
+			listener.annotationsAdded();
+		}
+	}
+	
 	public void alterSelection(final double newMinProbability){
 		selection.setMinProbability(newMinProbability);
 		LOG.finer("New selection: " + selection.toString());
@@ -276,12 +373,25 @@ public final class AnnotationPublisher{
 	
 	/************FILTERS***************/
 	
+	/**
+	 * A filter reads its input once, front to back, and keeps a constant
+	 * amount of state per annotation.
+	 */
 	public interface AnnotationFilter{
-		void filter(List<Annotation> listToFilter);
+		/**
+		 * Adds the annotations that pass the filter to the output, in the
+		 * order of the input.
+		 * 
+		 * @param input
+		 *            The annotations to filter.
+		 * @param output
+		 *            Receives the annotations that pass.
+		 */
+		void filter(AnnotationBuffer input, AnnotationBuffer output);
 	}
 	
 	
-	public class PitchClassFilter implements AnnotationFilter {
+	public static class PitchClassFilter implements AnnotationFilter {
 		private final double[] pitchClasses;
 		private final double maxCentsDifference;
 
@@ -292,13 +402,11 @@ public final class AnnotationPublisher{
 		}
 
 		
-		public void filter(final List<Annotation> listToFilter) {
-			for (int i = 0; i < listToFilter.size(); i++) {
-				double annotationPitchClass = listToFilter.get(i).getPitch(
-						PitchUnit.RELATIVE_CENTS);
-				// delete all annotations (except those that are close to a
-				// pitch class)
-				boolean delete = true;
+		public void filter(final AnnotationBuffer input, final AnnotationBuffer output) {
+			for (int i = 0; i < input.size(); i++) {
+				double annotationPitchClass = input.getPitch(i, PitchUnit.RELATIVE_CENTS);
+				// keep an annotation if it is close to a pitch class
+				boolean keep = false;
 				for (double scalePitchClass : pitchClasses) {
 					// Calculate the difference e.g. between 3 and 1193 there is
 					// 1190 cents
@@ -311,25 +419,26 @@ public final class AnnotationPublisher{
 									+ 1200),
 							Math.abs(scalePitchClass - annotationPitchClass
 									- 1200));
-					// Do not delete an annotation if it is close to a pitch
-					// class
 					if (normalDiff < maxCentsDifference
 							|| wrappedDiff < maxCentsDifference) {
-						delete = false;
+						keep = true;
 					}
 				}
-				// delete marked annotations
-				if (delete) {
-					listToFilter.remove(i);
-					// do not forget to evaluate the new annotation
-					// on the current place
-					i--;
+				if (keep) {
+					output.add(input, i);
 				}
 			}
 		}
 	}
 	
-	public class SteadyStateFilter implements AnnotationFilter{
+	/**
+	 * Keeps runs of annotations that stay within a number of cents of the
+	 * first annotation of the run for longer than a minimum duration. A run
+	 * ends at the first annotation that differs too much, that annotation
+	 * starts the next run. The annotations of a run are kept as soon as the
+	 * run is long enough, so only the start of the current run is remembered.
+	 */
+	public static class SteadyStateFilter implements AnnotationFilter{
 		final double maxCentsDifference;
 		final double minDuration;
 		
@@ -339,28 +448,26 @@ public final class AnnotationPublisher{
 		}
 
 		
-		public void filter(final List<Annotation> listToFilter) {
-			for(int i = 0 ; i < listToFilter.size(); i++){
-				double iCentsValue = listToFilter.get(i).getPitch(PitchUnit.ABSOLUTE_CENTS);
-				double iStart = listToFilter.get(i).getStart();
-				boolean stable = false;
-				int j = i+1;
-				for( ; j  < listToFilter.size() ; j++){
-					double jCentsValue = listToFilter.get(j).getPitch(PitchUnit.ABSOLUTE_CENTS);
-					double jStart = listToFilter.get(j).getStart();
-					double centsDifference = Math.abs(iCentsValue - jCentsValue);
-					double timeDifference = jStart-iStart;
-					if(centsDifference > maxCentsDifference)
-						break;
-					if(timeDifference > minDuration){
-						stable = true;
-					}
+		public void filter(final AnnotationBuffer input, final AnnotationBuffer output) {
+			int runStart = 0;
+			double runCents = 0;
+			double runTime = 0;
+			boolean stable = false;
+			for (int i = 0; i < input.size(); i++) {
+				double centsValue = input.getPitch(i, PitchUnit.ABSOLUTE_CENTS);
+				double start = input.getStart(i);
+				if (i == 0 || Math.abs(centsValue - runCents) > maxCentsDifference) {
+					// start a new run
+					runStart = i;
+					runCents = centsValue;
+					runTime = start;
+					stable = false;
 				}
-				if(stable){
-					i = j;
-				}else{
-					listToFilter.remove(i);
-					i--;
+				if (stable) {
+					output.add(input, i);
+				} else if (start - runTime > minDuration) {
+					stable = true;
+					output.addRange(input, runStart, i + 1);
 				}
 			}
 		}
@@ -0,0 +1,45 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.sampled.pitch;
+
+/**
+ * An annotation listener that can process a whole selection at once, e.g. by
+ * querying precomputed summaries of the annotation tree. The publisher then
+ * calls {@link #addSelection(AnnotationTree, AnnotationSelection)} instead of
+ * {@link #addAnnotation(Annotation)} for each selected annotation.
+ */
+public interface AnnotationSelectionListener extends AnnotationListener {
+	/**
+	 * Add all annotations in the tree that are within the selection.
+	 * 
+	 * @param tree
+	 *            The tree with annotations.
+	 * @param selection
+	 *            The selection to add.
+	 */
+	void addSelection(AnnotationTree tree, AnnotationSelection selection);
+}
@@ -26,30 +26,79 @@
 
 package be.hogent.tarsos.sampled.pitch;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import be.hogent.tarsos.util.StopWatch;
-import edu.wlu.cs.levy.CG.KDTree;
-import edu.wlu.cs.levy.CG.KeyDuplicateException;
-import edu.wlu.cs.levy.CG.KeySizeException;
 
 /**
  * Annotation tree can be used for range selection on a list of annotations. To
- * make the range search efficient it backed by a KD-tree. One dimension is
- * time, the second dimension pitch and the third dimension is salience. 
- * The unit of pitch is defined during the construction phase.
+ * make the range search efficient the annotations are kept sorted by time in
+ * blocks of {@link #BLOCK_SIZE} annotations. For each block the minimum and
+ * maximum time, pitch and salience are kept. A range search skips the blocks
+ * that fall outside of the range, reports blocks that are completely inside
+ * the range without looking at each annotation and only checks the
+ * annotations in the other blocks. The unit of pitch is defined during the
+ * construction phase.
+ * <p>
+ * Added annotations are collected and indexed on the next selection: appended
+ * when they follow the indexed annotations in time, merged otherwise.
+ * </p>
  */
 public final class AnnotationTree {
 
 	private static final Logger LOG = Logger.getLogger(AnnotationTree.class.getName());
 
 	/**
-	 * The backing kd-tree.
+	 * The number of annotations in one block.
 	 */
-	private final KDTree<Annotation> tree;
+	public static final int BLOCK_SIZE = 256;
+
 	private final PitchUnit unit;
 
+	/**
+	 * The indexed annotations, sorted by time.
+	 */
+	private AnnotationBuffer annotations;
+
+	/**
+	 * The pitch of each indexed annotation in the unit of this tree.
+	 */
+	private double[] pitches;
+
+	/**
+	 * Annotations added since the last selection.
+	 */
+	private final AnnotationBuffer pending;
+
+	/**
+	 * Per block summaries (zone maps).
+	 */
+	private double[] minTime, maxTime, minPitch, maxPitch, minProbability, maxProbability;
+
+	/**
+	 * The indexed annotations sorted by probability, built when needed.
+	 */
+	private long[] probabilityOrder;
+
+	/**
+	 * The duration, in seconds, of the time blocks of the pitch class count
+	 * index. A power of two so time stamps divide exactly.
+	 */
+	private static final int COUNT_BLOCK_DURATION = 4;
+
+	/**
+	 * Per source: cumulative pitch class counts per time block, built when
+	 * needed for the parameters below.
+	 */
+	private final Map<PitchDetectionMode, int[]> pitchClassCounts;
+	private double countedMinProbability, countedLowCents, countedHighCents;
+
 	/**
 	 * Create a new annotation tree. 
 	 * @param pitchUnit
@@ -58,73 +107,520 @@ public final class AnnotationTree {
 	 *            
 	 */
 	public AnnotationTree(final PitchUnit pitchUnit) {
-		// Three dimensional tree
-		tree = new KDTree<Annotation>(3);
 		unit = pitchUnit;
+		annotations = new AnnotationBuffer();
+		pitches = new double[0];
+		pending = new AnnotationBuffer();
+		pitchClassCounts = new HashMap<PitchDetectionMode, int[]>();
+		minTime = new double[0];
+		maxTime = new double[0];
+		minPitch = new double[0];
+		maxPitch = new double[0];
+		minProbability = new double[0];
+		maxProbability = new double[0];
 	}
 	
 	/**
-	 * Add a list of annotations to the KD-tree.
-	 * @param annotations
+	 * Add a list of annotations to the tree.
+	 * @param annotationList
 	 *            The annotations to add to the tree.
 	 */
-	public void add(final List<Annotation> annotations){
-		StopWatch watch = new StopWatch();
-		for (Annotation annotation : annotations) {
-			add(annotation);
-		}
-		LOG.fine(String.format("Added %s annotations (new size %s) to KD Tree in %s.", annotations.size(),tree.size(), watch));
+	public synchronized void add(final List<Annotation> annotationList) {
+		pending.addAll(annotationList);
+	}
+
+	/**
+	 * Add the annotations in a buffer to the tree.
+	 * @param buffer
+	 *            The annotations to add to the tree.
+	 */
+	public synchronized void add(final AnnotationBuffer buffer) {
+		pending.addAll(buffer);
+	}
+
+	/**
+	 * Add one annotation to the tree.
+	 * @param annotation
+	 *            The annotation to add.
+	 */
+	public synchronized void add(final Annotation annotation) {
+		pending.add(annotation);
 	}
 
 	/**
 	 * Select a subset of all annotations within a pitch - time range.
 	 * @param selection A selection defines a pitch-time range.
 	 * 
-	 * @return A range selection of annotations.
+	 * @return A range selection of annotations, ordered by time.
 	 */
 	public List<Annotation> select(final AnnotationSelection selection) {
 		final StopWatch watch = new StopWatch();
-		double startTime = selection.getStartTime();
-		double stopTime = selection.getStopTime();
-		double startPitch = selection.getStartPitch();
-		double stopPitch = selection.getStopPitch();
-		double startProbability = selection.getMinProbability();
-		double stopProbability = AnnotationSelection.MAX_PROBABILITY;
-
-		double[] lowKey = { startTime, startPitch, startProbability };
-		double[] upperKey = { stopTime, stopPitch, stopProbability };
-
-		List<Annotation> selectedAnnotations = null;
-		try {
-			selectedAnnotations = tree.range(lowKey, upperKey);
-		} catch (KeySizeException e) {
-			new IllegalStateException("The dimenstion of the tree is two, the dimension of the key also.");
-		}
-		LOG.finer(String.format("Selected %s annotations from a KD-tree of %s annotations in %s.",
-				selectedAnnotations.size(), tree.size(), watch.formattedToString()));
+		final List<Annotation> selectedAnnotations = new ArrayList<Annotation>();
+		select(selection, new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				selectedAnnotations.add(annotation);
+			}
+		});
+		LOG.finer(String.format("Selected %s annotations from a tree of %s annotations in %s.",
+				selectedAnnotations.size(), size(), watch.formattedToString()));
 		return selectedAnnotations;
 	}
 
-	public int size() {
-		return tree.size();
+	/**
+	 * Hands each annotation within a pitch - time range to a handler, ordered
+	 * by time.
+	 * 
+	 * @param selection
+	 *            A selection defines a pitch-time range.
+	 * @param handler
+	 *            Receives the selected annotations.
+	 */
+	public synchronized void select(final AnnotationSelection selection, final AnnotationHandler handler) {
+		index();
+		scanBlocks(selection, selection.getMinProbability(), AnnotationSelection.MAX_PROBABILITY, handler);
 	}
-	
-	
 
 	/**
-	 * Add one annotation to the tree.
-	 * @param annotation
-	 *            The annotation to add.
+	 * Hands each annotation within the pitch - time range of a selection and
+	 * with a probability in a range to a handler. Use it to find the
+	 * annotations that cross a changed probability threshold. A secondary
+	 * index sorted by probability is used when the probability range is
+	 * narrower than the time range, otherwise the blocks in the time range are
+	 * scanned.
+	 * 
+	 * @param selection
+	 *            Defines the pitch-time range, its minimum probability is
+	 *            ignored.
+	 * @param minProbability
+	 *            The minimum probability (inclusive).
+	 * @param maxProbability
+	 *            The maximum probability (exclusive).
+	 * @param handler
+	 *            Receives the selected annotations.
+	 */
+	public synchronized void selectProbabilityRange(final AnnotationSelection selection,
+			final double minProbability, final double maxProbability, final AnnotationHandler handler) {
+		index();
+		final double stopProbability = Math.nextAfter(maxProbability, Double.NEGATIVE_INFINITY);
+		if (stopProbability < minProbability) {
+			return;
+		}
+		if (probabilityOrder == null) {
+			buildProbabilityOrder();
+		}
+		final int first = firstWithKeyAtLeast(probabilityKey(minProbability));
+		final int last = firstWithKeyAtLeast(probabilityKey(stopProbability) + 1);
+		final int firstBlock = firstBlockEndingAfter(selection.getStartTime());
+		final int lastBlock = firstBlockStartingAfter(selection.getStopTime());
+		if (last - first < (lastBlock - firstBlock) * BLOCK_SIZE) {
+			for (int k = first; k < last; k++) {
+				final int i = (int) probabilityOrder[k];
+				if (isSelected(i, selection.getStartTime(), selection.getStopTime(), selection.getStartPitch(),
+						selection.getStopPitch(), minProbability, stopProbability)) {
+					handler.handleAnnotation(annotations.getAnnotation(i));
+				}
+			}
+		} else {
+			scanBlocks(selection, minProbability, stopProbability, handler);
+		}
+	}
+
+	/**
+	 * Counts the annotations of one source in a selection per pitch class
+	 * bin: bin <code>i</code> counts the annotations with a pitch, in
+	 * absolute cents, of <code>i</code> up to <code>i + 1</code> modulo 1200.
+	 * Only pitches in the range <code>]lowCents,highCents]</code> are counted.
+	 * <p>
+	 * The counts for every {@value #COUNT_BLOCK_DURATION} seconds are
+	 * precomputed as a prefix sum, so when the selection contains all pitches
+	 * only the annotations at the edges of the time range are counted one by
+	 * one. The prefix sums are kept for the probability threshold and pitch
+	 * range of the last call.
+	 * </p>
+	 * 
+	 * @param selection
+	 *            The time, pitch and probability range.
+	 * @param source
+	 *            The source of the annotations to count.
+	 * @param lowCents
+	 *            Pitches (in absolute cents) at or below this value are not
+	 *            counted.
+	 * @param highCents
+	 *            Pitches (in absolute cents) above this value are not counted.
+	 * @return The number of annotations per pitch class bin, 1200 bins.
 	 */
-	public void add(final Annotation annotation) {
-		double[] key = { annotation.getStart(), annotation.getPitch(unit), annotation.getProbability() };
-		try {
-			tree.insert(key, annotation);
-		} catch (KeySizeException e) {
-			new IllegalStateException("The dimenstion of the tree is 3," + " the dimension of the key also.");
-		} catch (KeyDuplicateException e) {
-			new IllegalStateException("No two annotations with the same timestamp and starttime should be present!");
+	public synchronized int[] countPitchClasses(final AnnotationSelection selection,
+			final PitchDetectionMode source, final double lowCents, final double highCents) {
+		index();
+		final int[] counts = new int[1200];
+		final double startTime = selection.getStartTime();
+		final double stopTime = selection.getStopTime();
+		final double minProbability = selection.getMinProbability();
+		boolean allPitches = true;
+		for (int block = 0; block < minPitch.length && allPitches; block++) {
+			allPitches = minPitch[block] >= selection.getStartPitch() && maxPitch[block] <= selection.getStopPitch();
+		}
+		final int firstFullBlock = (int) Math.ceil(startTime / COUNT_BLOCK_DURATION);
+		int endFullBlock = (int) Math.floor(stopTime / COUNT_BLOCK_DURATION);
+		int[] cumulativeCounts = null;
+		if (allPitches && endFullBlock > firstFullBlock) {
+			cumulativeCounts = cumulativePitchClassCounts(source, minProbability, lowCents, highCents);
+			endFullBlock = Math.min(endFullBlock, cumulativeCounts.length / 1200 - 1);
+		}
+		if (cumulativeCounts != null && endFullBlock > firstFullBlock) {
+			for (int bin = 0; bin < 1200; bin++) {
+				counts[bin] = cumulativeCounts[endFullBlock * 1200 + bin]
+						- cumulativeCounts[firstFullBlock * 1200 + bin];
+			}
+			countPitchClasses(firstAtOrAfter(startTime), firstAtOrAfter(firstFullBlock * COUNT_BLOCK_DURATION),
+					selection, source, lowCents, highCents, counts);
+			countPitchClasses(firstAtOrAfter(endFullBlock * COUNT_BLOCK_DURATION), firstAfter(stopTime),
+					selection, source, lowCents, highCents, counts);
+		} else {
+			countPitchClasses(firstAtOrAfter(startTime), firstAfter(stopTime), selection, source, lowCents,
+					highCents, counts);
 		}
+		return counts;
+	}
+
+	/**
+	 * Counts the annotations in a range of rows that are within the pitch and
+	 * probability range of the selection.
+	 */
+	private void countPitchClasses(final int from, final int to, final AnnotationSelection selection,
+			final PitchDetectionMode source, final double lowCents, final double highCents, final int[] counts) {
+		for (int i = from; i < to; i++) {
+			if (annotations.getSource(i) == source && annotations.getProbability(i) >= selection.getMinProbability()
+					&& pitches[i] >= selection.getStartPitch() && pitches[i] <= selection.getStopPitch()) {
+				final double cents = absoluteCents(i);
+				if (cents > lowCents && cents <= highCents) {
+					counts[pitchClassBin(cents)]++;
+				}
+			}
+		}
+	}
 
+	private int[] cumulativePitchClassCounts(final PitchDetectionMode source, final double minProbability,
+			final double lowCents, final double highCents) {
+		if (countedMinProbability != minProbability || countedLowCents != lowCents
+				|| countedHighCents != highCents) {
+			pitchClassCounts.clear();
+			countedMinProbability = minProbability;
+			countedLowCents = lowCents;
+			countedHighCents = highCents;
+		}
+		int[] cumulativeCounts = pitchClassCounts.get(source);
+		if (cumulativeCounts == null) {
+			final StopWatch watch = new StopWatch();
+			final int size = annotations.size();
+			final int blocks = size == 0 ? 0 : (int) Math.floor(annotations.getStart(size - 1)
+					/ COUNT_BLOCK_DURATION) + 1;
+			cumulativeCounts = new int[(blocks + 1) * 1200];
+			for (int i = 0; i < size; i++) {
+				if (annotations.getSource(i) == source && annotations.getProbability(i) >= minProbability) {
+					final double cents = absoluteCents(i);
+					if (cents > lowCents && cents <= highCents) {
+						final int block = (int) Math.floor(annotations.getStart(i) / COUNT_BLOCK_DURATION);
+						cumulativeCounts[(block + 1) * 1200 + pitchClassBin(cents)]++;
+					}
+				}
+			}
+			for (int i = 1200; i < cumulativeCounts.length; i++) {
+				cumulativeCounts[i] += cumulativeCounts[i - 1200];
+			}
+			pitchClassCounts.put(source, cumulativeCounts);
+			LOG.fine(String.format("Counted pitch classes of %s in %s blocks in %s.", source, blocks, watch));
+		}
+		return cumulativeCounts;
+	}
+
+	private double absoluteCents(final int i) {
+		final double cents;
+		if (unit == PitchUnit.ABSOLUTE_CENTS) {
+			cents = pitches[i];
+		} else {
+			cents = annotations.getPitch(i, PitchUnit.ABSOLUTE_CENTS);
+		}
+		return cents;
+	}
+
+	private static int pitchClassBin(final double cents) {
+		return (int) (((long) Math.floor(cents) % 1200 + 1200) % 1200);
+	}
+
+	/**
+	 * @return The index of the first annotation at or after the time.
+	 */
+	private int firstAtOrAfter(final double time) {
+		int low = 0;
+		int high = annotations.size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (annotations.getStart(middle) < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return The index of the first annotation after the time.
+	 */
+	private int firstAfter(final double time) {
+		int low = 0;
+		int high = annotations.size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (annotations.getStart(middle) <= time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Scans the blocks in the time range of the selection.
+	 */
+	private void scanBlocks(final AnnotationSelection selection, final double startProbability,
+			final double stopProbability, final AnnotationHandler handler) {
+		final double startTime = selection.getStartTime();
+		final double stopTime = selection.getStopTime();
+		final double startPitch = selection.getStartPitch();
+		final double stopPitch = selection.getStopPitch();
+
+		final int blocks = minTime.length;
+		for (int block = firstBlockEndingAfter(startTime); block < blocks && minTime[block] <= stopTime; block++) {
+			if (maxPitch[block] < startPitch || minPitch[block] > stopPitch
+					|| maxProbability[block] < startProbability || minProbability[block] > stopProbability) {
+				continue;
+			}
+			final boolean inside = minTime[block] >= startTime && maxTime[block] <= stopTime
+					&& minPitch[block] >= startPitch && maxPitch[block] <= stopPitch
+					&& minProbability[block] >= startProbability && maxProbability[block] <= stopProbability;
+			final int to = Math.min((block + 1) * BLOCK_SIZE, annotations.size());
+			for (int i = block * BLOCK_SIZE; i < to; i++) {
+				if (inside || isSelected(i, startTime, stopTime, startPitch, stopPitch, startProbability,
+						stopProbability)) {
+					handler.handleAnnotation(annotations.getAnnotation(i));
+				}
+			}
+		}
+	}
+
+	private boolean isSelected(final int i, final double startTime, final double stopTime,
+			final double startPitch, final double stopPitch, final double startProbability,
+			final double stopProbability) {
+		final double time = annotations.getStart(i);
+		final double probability = annotations.getProbability(i);
+		return time >= startTime && time <= stopTime && pitches[i] >= startPitch && pitches[i] <= stopPitch
+				&& probability >= startProbability && probability <= stopProbability;
+	}
+
+	/**
+	 * Sorts the indexed annotations by probability. Each entry holds the
+	 * probability as a float in the high bits and the index of the annotation
+	 * in the low bits. The float bits of a non negative value sort like the
+	 * value itself, and rounding to float keeps the order, so a key range
+	 * contains at least the annotations in the probability range.
+	 */
+	private void buildProbabilityOrder() {
+		final StopWatch watch = new StopWatch();
+		probabilityOrder = new long[annotations.size()];
+		for (int i = 0; i < probabilityOrder.length; i++) {
+			probabilityOrder[i] = ((long) probabilityKey(annotations.getProbability(i)) << 32) | i;
+		}
+		Arrays.sort(probabilityOrder);
+		LOG.fine(String.format("Sorted %s annotations by probability in %s.", probabilityOrder.length, watch));
+	}
+
+	private static int probabilityKey(final double probability) {
+		// adding zero turns -0 into 0
+		return Float.floatToIntBits((float) probability + 0.0f);
+	}
+
+	private int firstWithKeyAtLeast(final int key) {
+		final long target = (long) key << 32;
+		int low = 0;
+		int high = probabilityOrder.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (probabilityOrder[middle] < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return The index of the first block with annotations after the time, or
+	 *         the number of blocks.
+	 */
+	private int firstBlockStartingAfter(final double time) {
+		int low = 0;
+		int high = minTime.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (minTime[middle] <= time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return The index of the first block with annotations at or after the
+	 *         time, or the number of blocks.
+	 */
+	private int firstBlockEndingAfter(final double time) {
+		int low = 0;
+		int high = maxTime.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (maxTime[middle] < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	public synchronized int size() {
+		return annotations.size() + pending.size();
+	}
+
+	/**
+	 * Adds the pending annotations to the index.
+	 */
+	private void index() {
+		if (pending.size() == 0) {
+			return;
+		}
+		final StopWatch watch = new StopWatch();
+		final AnnotationBuffer added = sortByTime(pending);
+		pending.clear();
+		final int indexed = annotations.size();
+		final int firstChangedBlock;
+		if (indexed == 0 || compare(annotations, indexed - 1, added, 0) <= 0) {
+			// Appending keeps the blocks before the last one.
+			firstChangedBlock = indexed / BLOCK_SIZE;
+			pitches = grow(pitches, indexed + added.size());
+			annotations.addAll(added);
+			for (int i = indexed; i < annotations.size(); i++) {
+				pitches[i] = annotations.getPitch(i, unit);
+			}
+		} else {
+			firstChangedBlock = 0;
+			merge(added);
+		}
+		summarizeBlocks(firstChangedBlock);
+		probabilityOrder = null;
+		pitchClassCounts.clear();
+		LOG.fine(String.format("Indexed %s annotations (new size %s) in %s.", added.size(),
+				annotations.size(), watch));
+	}
+
+	private void merge(final AnnotationBuffer added) {
+		final int size = annotations.size() + added.size();
+		final AnnotationBuffer merged = new AnnotationBuffer(size);
+		final double[] mergedPitches = new double[size];
+		int i = 0;
+		int j = 0;
+		while (i < annotations.size() || j < added.size()) {
+			if (j == added.size() || i < annotations.size() && compare(annotations, i, added, j) <= 0) {
+				mergedPitches[merged.size()] = pitches[i];
+				merged.add(annotations, i++);
+			} else {
+				mergedPitches[merged.size()] = added.getPitch(j, unit);
+				merged.add(added, j++);
+			}
+		}
+		annotations = merged;
+		pitches = mergedPitches;
+	}
+
+	private void summarizeBlocks(final int firstChangedBlock) {
+		final int blocks = (annotations.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		minTime = Arrays.copyOf(minTime, blocks);
+		maxTime = Arrays.copyOf(maxTime, blocks);
+		minPitch = Arrays.copyOf(minPitch, blocks);
+		maxPitch = Arrays.copyOf(maxPitch, blocks);
+		minProbability = Arrays.copyOf(minProbability, blocks);
+		maxProbability = Arrays.copyOf(maxProbability, blocks);
+		for (int block = firstChangedBlock; block < blocks; block++) {
+			final int from = block * BLOCK_SIZE;
+			final int to = Math.min(from + BLOCK_SIZE, annotations.size());
+			minTime[block] = annotations.getStart(from);
+			maxTime[block] = annotations.getStart(to - 1);
+			minPitch[block] = Double.POSITIVE_INFINITY;
+			maxPitch[block] = Double.NEGATIVE_INFINITY;
+			minProbability[block] = Double.POSITIVE_INFINITY;
+			maxProbability[block] = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				minPitch[block] = Math.min(minPitch[block], pitches[i]);
+				maxPitch[block] = Math.max(maxPitch[block], pitches[i]);
+				minProbability[block] = Math.min(minProbability[block], annotations.getProbability(i));
+				maxProbability[block] = Math.max(maxProbability[block], annotations.getProbability(i));
+			}
+		}
+	}
+
+	/**
+	 * Sorts annotations by time and then by source name, the order defined by
+	 * {@link Annotation#compareTo(Annotation)}. Annotations from a pitch
+	 * detector are already sorted, that case is detected and costs no copy.
+	 */
+	private static AnnotationBuffer sortByTime(final AnnotationBuffer buffer) {
+		boolean sorted = true;
+		for (int i = 1; i < buffer.size() && sorted; i++) {
+			sorted = compare(buffer, i - 1, buffer, i) <= 0;
+		}
+		if (sorted) {
+			return buffer.copy();
+		}
+		final Integer[] order = new Integer[buffer.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(final Integer first, final Integer second) {
+				return AnnotationTree.compare(buffer, first, buffer, second);
+			}
+		});
+		final AnnotationBuffer sortedBuffer = new AnnotationBuffer(order.length);
+		for (final Integer index : order) {
+			sortedBuffer.add(buffer, index);
+		}
+		return sortedBuffer;
+	}
+
+	private static int compare(final AnnotationBuffer first, final int i, final AnnotationBuffer second,
+			final int j) {
+		final int startCompare = Double.compare(first.getStart(i), second.getStart(j));
+		final int compareValue;
+		if (startCompare == 0) {
+			compareValue = first.getSource(i).toString().compareTo(second.getSource(j).toString());
+		} else {
+			compareValue = startCompare;
+		}
+		return compareValue;
+	}
+
+	private static double[] grow(final double[] column, final int capacity) {
+		final double[] grown;
+		if (capacity > column.length) {
+			grown = Arrays.copyOf(column, Math.max(capacity, column.length + (column.length >> 1)));
+		} else {
+			grown = column;
+		}
+		return grown;
 	}
 }
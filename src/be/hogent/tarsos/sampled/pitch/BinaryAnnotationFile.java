@@ -0,0 +1,391 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.sampled.pitch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes pitch annotations in a compact, versioned binary format.
+ * <p>
+ * The file starts with a header: the magic number <code>TANN</code>, a format
+ * version and the name of the unit the pitch column is stored in. The
+ * annotations follow in blocks of at most {@link #BLOCK_SIZE} rows. Each block
+ * stores its rows column by column:
+ * </p>
+ * <ol>
+ * <li>the number of rows,</li>
+ * <li>a table with the names of the sources used in the block,</li>
+ * <li>the time column: the differences between consecutive time stamps, in
+ * microseconds, as zig-zag encoded variable length integers, preceded by the
+ * length of the column in bytes,</li>
+ * <li>the pitch column as doubles,</li>
+ * <li>the probability column as doubles,</li>
+ * <li>the source column: one index in the source table per row.</li>
+ * </ol>
+ * <p>
+ * Pitch and probability are stored as they were detected. A row takes about
+ * 20 bytes, a text line about 40. The file is read in one go into a buffer;
+ * the columns are decoded from that buffer. The structure of each block is
+ * checked before the first annotation is decoded, so a truncated or corrupt
+ * file hands out no annotations at all.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class BinaryAnnotationFile {
+
+	/**
+	 * The magic number at the start of each file: TANN in ASCII.
+	 */
+	private static final int MAGIC = 0x54414E4E;
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	private static final short VERSION = 2;
+
+	/**
+	 * The maximum number of rows in one block.
+	 */
+	public static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * The number of time column ticks in one second: time is stored with
+	 * microsecond precision.
+	 */
+	private static final double TICKS_PER_SECOND = 1000000.0;
+
+	private BinaryAnnotationFile() {
+	}
+
+	/**
+	 * Reads a binary annotation file and hands each annotation, in the order
+	 * they were written, to the handler. The annotations are decoded one by
+	 * one, after the whole file is checked: if an exception is thrown the
+	 * handler did not receive any annotation.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @param handler
+	 *            Receives the annotations.
+	 * @return The number of annotations read.
+	 * @throws IOException
+	 *             If the file can not be read or is not a binary annotation
+	 *             file.
+	 */
+	public static int read(final String fileName, final AnnotationHandler handler) throws IOException {
+		final ByteBuffer buffer = readFully(fileName);
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException(fileName + " is not a binary annotation file.");
+			}
+			final short version = buffer.getShort();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of binary annotation file " + fileName);
+			}
+			final PitchUnit unit = PitchUnit.valueOf(readString(buffer));
+			final int firstBlock = buffer.position();
+			check(buffer, unit, fileName);
+			buffer.position(firstBlock);
+
+			int annotationCount = 0;
+			long ticks = 0;
+			while (buffer.hasRemaining()) {
+				final int rows = buffer.getInt();
+				final PitchDetectionMode[] sources = new PitchDetectionMode[buffer.get()];
+				for (int i = 0; i < sources.length; i++) {
+					sources[i] = PitchDetectionMode.valueOf(readString(buffer));
+				}
+				final int timeColumnLength = buffer.getInt();
+				final int timeColumn = buffer.position();
+				final int pitchColumn = timeColumn + timeColumnLength;
+				final int probabilityColumn = pitchColumn + rows * 8;
+				final int sourceColumn = probabilityColumn + rows * 8;
+				for (int row = 0; row < rows; row++) {
+					ticks += decodeZigZag(readVarLong(buffer));
+					double pitch = buffer.getDouble(pitchColumn + row * 8);
+					if (unit != PitchUnit.HERTZ) {
+						pitch = PitchUnit.HERTZ.convert(pitch, unit);
+					}
+					final double probability = buffer.getDouble(probabilityColumn + row * 8);
+					final PitchDetectionMode source = sources[buffer.get(sourceColumn + row)];
+					handler.handleAnnotation(new Annotation(ticks / TICKS_PER_SECOND, pitch, source, probability));
+				}
+				buffer.position(sourceColumn + rows);
+				annotationCount += rows;
+			}
+			return annotationCount;
+		} catch (final BufferUnderflowException e) {
+			throw new IOException("Binary annotation file " + fileName + " is truncated.");
+		} catch (final IndexOutOfBoundsException e) {
+			throw new IOException("Binary annotation file " + fileName + " is truncated.");
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Binary annotation file " + fileName + " is corrupt: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Walks the blocks from the current position of the buffer to its end and
+	 * checks that each block fits in the file, that the time column holds one
+	 * value per row and that each row is a valid annotation: a time stamp that
+	 * is not negative, a positive pitch, a probability between zero and one and
+	 * a source in the source table.
+	 */
+	private static void check(final ByteBuffer buffer, final PitchUnit unit, final String fileName)
+			throws IOException {
+		long ticks = 0;
+		while (buffer.hasRemaining()) {
+			final int rows = buffer.getInt();
+			final int sourceCount = buffer.get();
+			if (rows <= 0 || rows > BLOCK_SIZE || sourceCount <= 0) {
+				throw new IOException("Binary annotation file " + fileName + " is corrupt: invalid block header.");
+			}
+			for (int i = 0; i < sourceCount; i++) {
+				PitchDetectionMode.valueOf(readString(buffer));
+			}
+			final int timeColumnLength = buffer.getInt();
+			final int timeColumn = buffer.position();
+			final long sourceColumn = (long) timeColumn + timeColumnLength + rows * 16L;
+			if (timeColumnLength < rows || sourceColumn + rows > buffer.limit()) {
+				throw new IOException("Binary annotation file " + fileName + " is truncated.");
+			}
+			for (int row = 0; row < rows; row++) {
+				ticks += decodeZigZag(readVarLong(buffer));
+				if (ticks < 0) {
+					throw new IOException("Binary annotation file " + fileName + " is corrupt: invalid time.");
+				}
+			}
+			if (buffer.position() != timeColumn + timeColumnLength) {
+				throw new IOException("Binary annotation file " + fileName + " is corrupt: invalid time column.");
+			}
+			final int pitchColumn = buffer.position();
+			final int probabilityColumn = pitchColumn + rows * 8;
+			for (int row = 0; row < rows; row++) {
+				double pitch = buffer.getDouble(pitchColumn + row * 8);
+				if (unit != PitchUnit.HERTZ) {
+					pitch = PitchUnit.HERTZ.convert(pitch, unit);
+				}
+				final double probability = buffer.getDouble(probabilityColumn + row * 8);
+				final int sourceIndex = buffer.get((int) sourceColumn + row);
+				if (!(pitch > 0) || !(probability >= 0 && probability <= 1) || sourceIndex < 0
+						|| sourceIndex >= sourceCount) {
+					throw new IOException("Binary annotation file " + fileName + " is corrupt: invalid row.");
+				}
+			}
+			buffer.position((int) sourceColumn + rows);
+		}
+	}
+
+	/**
+	 * Reads a file into a buffer. The file is closed when this method returns,
+	 * so it can be replaced or deleted afterwards, also on Windows.
+	 */
+	private static ByteBuffer readFully(final String fileName) throws IOException {
+		final FileInputStream file = new FileInputStream(fileName);
+		try {
+			final FileChannel channel = file.getChannel();
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Binary annotation file " + fileName + " is too large.");
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// keep reading until the buffer is full or the file ends
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static String readString(final ByteBuffer buffer) throws IOException {
+		final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static long readVarLong(final ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static long decodeZigZag(final long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long encodeZigZag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Writes annotations to a binary annotation file as they are handed to it.
+	 * Rows are buffered until a block is full, so only one block is kept in
+	 * memory. Since an annotation handler can not throw checked exceptions, a
+	 * failure to write is remembered and thrown by {@link #close()}.
+	 */
+	public static final class Appender implements AnnotationHandler {
+		private final DataOutputStream output;
+		private final long[] ticks;
+		private final double[] pitches;
+		private final double[] probabilities;
+		private final byte[] sourceIndexes;
+		private final List<PitchDetectionMode> sources;
+		private int rows;
+		private long previousTicks;
+		private IOException failure;
+
+		/**
+		 * Creates the file and writes the header.
+		 * 
+		 * @param file
+		 *            The file to write to, an existing file is overwritten.
+		 * @throws IOException
+		 *             If the file can not be created.
+		 */
+		public Appender(final File file) throws IOException {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeUTF(PitchUnit.HERTZ.name());
+			ticks = new long[BLOCK_SIZE];
+			pitches = new double[BLOCK_SIZE];
+			probabilities = new double[BLOCK_SIZE];
+			sourceIndexes = new byte[BLOCK_SIZE];
+			sources = new ArrayList<PitchDetectionMode>();
+		}
+
+		public void handleAnnotation(final Annotation annotation) {
+			if (failure != null) {
+				return;
+			}
+			int sourceIndex = sources.indexOf(annotation.getSource());
+			if (sourceIndex == -1) {
+				sources.add(annotation.getSource());
+				sourceIndex = sources.size() - 1;
+			}
+			ticks[rows] = Math.round(annotation.getStart() * TICKS_PER_SECOND);
+			pitches[rows] = annotation.getPitch(PitchUnit.HERTZ);
+			probabilities[rows] = annotation.getProbability();
+			sourceIndexes[rows] = (byte) sourceIndex;
+			rows++;
+			if (rows == BLOCK_SIZE) {
+				try {
+					writeBlock();
+				} catch (final IOException e) {
+					failure = e;
+				}
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			final VarLongBuffer timeColumn = new VarLongBuffer(rows * 3);
+			for (int row = 0; row < rows; row++) {
+				timeColumn.write(encodeZigZag(ticks[row] - previousTicks));
+				previousTicks = ticks[row];
+			}
+			output.writeInt(rows);
+			output.writeByte(sources.size());
+			for (final PitchDetectionMode source : sources) {
+				output.writeUTF(source.name());
+			}
+			output.writeInt(timeColumn.size);
+			output.write(timeColumn.bytes, 0, timeColumn.size);
+			for (int row = 0; row < rows; row++) {
+				output.writeDouble(pitches[row]);
+			}
+			for (int row = 0; row < rows; row++) {
+				output.writeDouble(probabilities[row]);
+			}
+			output.write(sourceIndexes, 0, rows);
+			rows = 0;
+			sources.clear();
+		}
+
+		/**
+		 * Writes the last block and closes the file.
+		 * 
+		 * @throws IOException
+		 *             If writing one of the blocks failed.
+		 */
+		public void close() throws IOException {
+			try {
+				if (failure == null && rows > 0) {
+					writeBlock();
+				}
+			} finally {
+				output.close();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * A growable byte array holding variable length encoded longs.
+	 */
+	private static final class VarLongBuffer {
+		private byte[] bytes;
+		private int size;
+
+		private VarLongBuffer(final int initialCapacity) {
+			bytes = new byte[Math.max(16, initialCapacity)];
+		}
+
+		private void write(final long value) {
+			if (size + 10 > bytes.length) {
+				final byte[] grown = new byte[bytes.length * 2];
+				System.arraycopy(bytes, 0, grown, 0, size);
+				bytes = grown;
+			}
+			long remaining = value;
+			while ((remaining & ~0x7FL) != 0) {
+				bytes[size++] = (byte) ((remaining & 0x7F) | 0x80);
+				remaining >>>= 7;
+			}
+			bytes[size++] = (byte) remaining;
+		}
+	}
+}
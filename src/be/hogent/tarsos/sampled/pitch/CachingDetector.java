@@ -26,11 +26,20 @@
 
 package be.hogent.tarsos.sampled.pitch;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.ConfKey;
+import be.hogent.tarsos.util.Configuration;
+import be.hogent.tarsos.util.DataDirectoryManifest;
 import be.hogent.tarsos.util.FileUtils;
 
 /**
@@ -68,22 +77,264 @@ public final class CachingDetector implements PitchDetector {
 	 * @see be.hogent.tarsos.sampled.pitch.PitchDetector#executePitchDetection()
 	 */
 	public List<Annotation> executePitchDetection() {
-		String directory = file.transcodedDirectory();
-		String annotationsFileName = detector.getName() + "_" + file.originalBasename() + ".txt";
-		annotationsFileName = FileUtils.combine(directory, annotationsFileName);
-		if (FileUtils.exists(annotationsFileName)) {
-			annotations = FileUtils.readPitchAnnotations(annotationsFileName);
-			LOG.info(String.format("Read " + annotations.size() +  " cached annotations for %s from %s", detector.getName(),
-					annotationsFileName));
+		annotations = new ArrayList<Annotation>();
+		executePitchDetection(new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				annotations.add(annotation);
+			}
+		});
+		return annotations;
+	}
+
+	/**
+	 * Reads the cached annotations one by one or, if there is no cache yet,
+	 * writes each annotation to the cache as soon as it is detected. The cache
+	 * is a {@link BinaryAnnotationFile}, written to a temporary file first so
+	 * an interrupted detection does not leave an incomplete cache behind. A
+	 * text cache written by an older version is read and converted to the
+	 * binary format. When <code>annotation_cache_csv_export</code> is set, the
+	 * annotations are also exported as CSV.
+	 * 
+	 * @see be.hogent.tarsos.sampled.pitch.PitchDetector#executePitchDetection(AnnotationHandler)
+	 */
+	public void executePitchDetection(final AnnotationHandler handler) {
+		final String cacheFileName = cacheFileName();
+		final String textFileName = textFileName();
+		TextExport export = null;
+		if (Configuration.getBoolean(ConfKey.annotation_cache_csv_export) && !FileUtils.exists(textFileName)) {
+			try {
+				export = new TextExport(textFileName, handler);
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not export annotations to " + textFileName, e);
+			}
+		}
+		final AnnotationHandler target = export == null ? handler : export;
+		boolean complete = false;
+		try {
+			if (!FileUtils.exists(cacheFileName) || !readCache(cacheFileName, target)) {
+				writeCache(cacheFileName, textFileName, target);
+			}
+			complete = true;
+		} finally {
+			if (export != null) {
+				// an incomplete export would be read as a text cache
+				export.close(complete);
+			}
+		}
+	}
+
+	/**
+	 * Reads the binary cache and hands the annotations to the handler as they
+	 * are decoded. The cache is checked before the first annotation is handed
+	 * out, see {@link BinaryAnnotationFile#read(String, AnnotationHandler)}; a
+	 * truncated or corrupt cache is deleted.
+	 * 
+	 * @return False if the cache could not be read, the cache should then be
+	 *         rebuilt.
+	 */
+	private boolean readCache(final String cacheFileName, final AnnotationHandler handler) {
+		final int count;
+		try {
+			count = BinaryAnnotationFile.read(cacheFileName, handler);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read cached annotations for " + detector.getName() + " from "
+					+ cacheFileName + ", the cache is rebuilt.", e);
+			final File cacheFile = new File(cacheFileName);
+			if (!cacheFile.delete()) {
+				LOG.warning("Could not delete " + cacheFileName);
+			}
+			DataDirectoryManifest.getInstance().removeArtifact(file.contentId(), cacheFile.getName());
+			return false;
+		}
+		LOG.info(String.format("Read %s cached annotations for %s from %s", count, detector.getName(),
+				cacheFileName));
+		return true;
+	}
+
+	/**
+	 * Writes the binary cache while the annotations are handed to the handler.
+	 * The annotations are read from the text cache of an older version if it
+	 * exists, otherwise the detector is executed.
+	 */
+	private void writeCache(final String cacheFileName, final String textFileName,
+			final AnnotationHandler handler) {
+		File partialFile = null;
+		try {
+			partialFile = partialFile(cacheFileName);
+			final BinaryAnnotationFile.Appender appender = new BinaryAnnotationFile.Appender(partialFile);
+			final AnnotationHandler cacheWriter = new AnnotationHandler() {
+				public void handleAnnotation(final Annotation annotation) {
+					appender.handleAnnotation(annotation);
+					handler.handleAnnotation(annotation);
+				}
+			};
+			try {
+				if (FileUtils.exists(textFileName)) {
+					FileUtils.readPitchAnnotations(textFileName, cacheWriter);
+				} else {
+					detector.executePitchDetection(cacheWriter);
+				}
+			} finally {
+				appender.close();
+			}
+			publish(partialFile, cacheFileName);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not cache annotations for " + detector.getName() + " to "
+					+ cacheFileName, e);
+		} finally {
+			deletePartialFile(partialFile);
+		}
+	}
+
+	/**
+	 * Caches annotations that were detected without executing this detector,
+	 * e.g. while the audio was streamed straight into a pitch detector. The
+	 * annotations are written to a {@link BinaryAnnotationFile} by the caller,
+	 * the file is moved in place. An existing cache is kept, the file is then
+	 * left as is.
+	 * 
+	 * @param annotationFile
+	 *            A complete binary annotation file in the directory of the
+	 *            transcoded audio file, see {@link AudioFile#transcodedPathOf(String)}.
+	 */
+	public void cacheAnnotations(final File annotationFile) {
+		final String cacheFileName = cacheFileName();
+		if (!FileUtils.exists(cacheFileName)) {
+			publish(annotationFile, cacheFileName);
+		}
+	}
+
+	/**
+	 * Creates a unique temporary file next to a cache file. Byte-identical
+	 * audio files share their cache files and may be analysed concurrently.
+	 */
+	private static File partialFile(final String fileName) throws IOException {
+		final File target = new File(fileName);
+		return File.createTempFile(target.getName() + "_", ".part", target.getParentFile());
+	}
+
+	/**
+	 * Moves a cache in place and registers it in the
+	 * {@link DataDirectoryManifest}. If the move fails the cache is
+	 * unregistered, the previous version may have been removed already.
+	 */
+	private void publish(final File partialFile, final String fileName) {
+		final String artifact = new File(fileName).getName();
+		if (moveTo(partialFile, fileName)) {
+			DataDirectoryManifest.getInstance().addArtifact(file.contentId(), artifact);
 		} else {
-			detector.executePitchDetection();
-			// Do not copy the annotations, use the same list:
-			annotations = detector.getAnnotations();
-			FileUtils.writePitchAnnotations(annotationsFileName, annotations);
-			LOG.info(String.format("Cached annotation results for %s to %s", detector.getName(),
-					annotationsFileName));
+			DataDirectoryManifest.getInstance().removeArtifact(file.contentId(), artifact);
 		}
-		return annotations;
+	}
+
+	private static boolean moveTo(final File partialFile, final String fileName) {
+		final File target = new File(fileName);
+		if (target.exists() && !target.delete()) {
+			LOG.warning("Could not replace " + fileName);
+		}
+		final boolean moved = partialFile.renameTo(target);
+		if (moved) {
+			LOG.info("Wrote annotations to " + fileName);
+		} else {
+			LOG.warning("Could not move " + partialFile + " to " + fileName);
+		}
+		return moved;
+	}
+
+	private static void deletePartialFile(final File partialFile) {
+		if (partialFile != null && partialFile.exists() && !partialFile.delete()) {
+			partialFile.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Exports annotations as CSV text while passing them on to another
+	 * handler. Exporting is best effort: a failure is logged and the partial
+	 * export removed. The export of a detection that failed is removed too.
+	 */
+	private final class TextExport implements AnnotationHandler {
+		private final String fileName;
+		private final File partialFile;
+		private final Writer writer;
+		private final AnnotationHandler next;
+		private IOException failure;
+
+		private TextExport(final String textFileName, final AnnotationHandler nextHandler) throws IOException {
+			fileName = textFileName;
+			partialFile = partialFile(textFileName);
+			writer = new BufferedWriter(new FileWriter(partialFile));
+			writer.write(FileUtils.PITCH_ANNOTATIONS_HEADER);
+			next = nextHandler;
+		}
+
+		public void handleAnnotation(final Annotation annotation) {
+			if (failure == null) {
+				try {
+					writer.write(annotation.toString());
+					writer.write("\n");
+				} catch (final IOException e) {
+					failure = e;
+				}
+			}
+			next.handleAnnotation(annotation);
+		}
+
+		private void close(final boolean complete) {
+			try {
+				writer.close();
+			} catch (final IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+			if (failure == null && complete) {
+				publish(partialFile, fileName);
+			} else if (failure != null) {
+				LOG.log(Level.WARNING, "Could not export annotations to " + fileName, failure);
+			}
+			deletePartialFile(partialFile);
+		}
+	}
+
+	/**
+	 * @return The name of the file with the cached annotations.
+	 */
+	private String cacheFileName() {
+		return FileUtils.combine(file.transcodedDirectory(), detector.getName() + "_" + file.originalBasename()
+				+ ".annotations");
+	}
+
+	/**
+	 * @return The name of the CSV export of the annotations. Older versions
+	 *         used this file as cache.
+	 */
+	private String textFileName() {
+		return FileUtils.combine(file.transcodedDirectory(), detector.getName() + "_" + file.originalBasename()
+				+ ".txt");
+	}
+
+	/**
+	 * @return True if the annotations are cached, executing the detector then
+	 *         only reads the cached annotations. The
+	 *         {@link DataDirectoryManifest} is consulted first, only a cache
+	 *         file it lists is checked on disk. A listed cache that was
+	 *         removed without Tarsos knowing is removed from the manifest.
+	 */
+	public boolean isCached() {
+		return isCached(cacheFileName()) || isCached(textFileName());
+	}
+
+	private boolean isCached(final String fileName) {
+		final DataDirectoryManifest manifest = DataDirectoryManifest.getInstance();
+		final String artifact = new File(fileName).getName();
+		boolean cached = false;
+		if (manifest.hasArtifact(file.contentId(), artifact)) {
+			cached = FileUtils.exists(fileName);
+			if (!cached) {
+				manifest.removeArtifact(file.contentId(), artifact);
+			}
+		}
+		return cached;
 	}
 
 	public List<Annotation> getAnnotations() {
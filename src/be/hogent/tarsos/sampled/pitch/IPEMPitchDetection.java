@@ -112,10 +112,38 @@ public final class IPEMPitchDetection implements PitchDetector {
 		return paths;
 	}
 
+	/**
+	 * Executes the IPEM pitch tracker. The list of files and the script that
+	 * starts the tracker are temporary files, unique for each execution, so
+	 * files can be analysed concurrently.
+	 */
 	public List<Annotation> executePitchDetection() {
+		final File listFile;
+		final File scriptFile;
+		try {
+			listFile = File.createTempFile("lijst_", ".txt", new File(FileUtils.temporaryDirectory()));
+			scriptFile = File.createTempFile("ipem_", ".sh", new File(FileUtils.temporaryDirectory()));
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not create the temporary files for " + mode.name(), e);
+		}
+		try {
+			return executePitchDetection(listFile, scriptFile);
+		} finally {
+			deleteTemporaryFile(listFile);
+			deleteTemporaryFile(scriptFile);
+		}
+	}
+
+	private static void deleteTemporaryFile(final File temporaryFile) {
+		if (!temporaryFile.delete()) {
+			temporaryFile.deleteOnExit();
+		}
+	}
+
+	private List<Annotation> executePitchDetection(final File listFile, final File scriptFile) {
 
 		final String transcodedBaseName = FileUtils.basename(file.transcodedPath());
-		FileUtils.writeFile(transcodedBaseName + "\n", "lijst.txt");
+		FileUtils.writeFile(transcodedBaseName + "\n", listFile.getPath());
 		final String name = mode.getParametername();
 
 		String outputDirectory = FileUtils.combine(file.transcodedDirectory()) + "/";
@@ -137,7 +165,7 @@ public final class IPEMPitchDetection implements PitchDetector {
 			} else {
 				String cmd = FileUtils.combine(executableDirectory, name + ".exe  ");
 				command = new Command(cmd);
-				command.addArgument("lijst.txt");
+				command.addArgument(listFile.getPath());
 				command.addArgument(audioDirectory);
 				command.addArgument(outputDirectory);
 			}
@@ -155,14 +183,13 @@ public final class IPEMPitchDetection implements PitchDetector {
 				String outputFile = makeWinePath(csvFileName);
 				command = "wine " + executable  + " " + audioFile + " " + outputFile + " ";
 			}else{
-				String lijstFile = makeWinePath(FileUtils.combine(FileUtils.runtimeDirectory(),"lijst.txt"));
+				String lijstFile = makeWinePath(listFile.getAbsolutePath());
 				audioDirectory = makeWinePath(audioDirectory);
 				outputDirectory = makeWinePath(outputDirectory);
 				command = "wine " + executable  + " " + lijstFile + " " + audioDirectory + " " + outputDirectory + " ";	
 			}
-			String scriptFile = FileUtils.combine(FileUtils.runtimeDirectory(),"ipem.sh");
-			FileUtils.writeFile("#!/bin/bash\n"+command, scriptFile);
-			executeBashScript(new File(scriptFile));
+			FileUtils.writeFile("#!/bin/bash\n"+command, scriptFile.getPath());
+			executeBashScript(scriptFile);
 		}		
 
 		if (mode == PitchDetectionMode.IPEM_ONE) {
@@ -185,6 +212,19 @@ public final class IPEMPitchDetection implements PitchDetector {
 		return annotations;
 	}
 	
+	/**
+	 * The IPEM pitch trackers write their results to a file which is parsed
+	 * when they are finished. The annotations are handed to the handler after
+	 * parsing.
+	 */
+	public void executePitchDetection(final AnnotationHandler handler) {
+		final List<Annotation> detected = new ArrayList<Annotation>(executePitchDetection());
+		annotations.clear();
+		for (final Annotation annotation : detected) {
+			handler.handleAnnotation(annotation);
+		}
+	}
+	
 	private void executeBashScript(File bashScript){
 		Command cmd = new Command("bash");
 		cmd.addFileArgument(bashScript.getPath());
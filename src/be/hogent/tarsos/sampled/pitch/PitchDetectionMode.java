@@ -188,6 +188,49 @@ public enum PitchDetectionMode {
 		return new CachingDetector(audioFile, detector);
 	}
 
+	/**
+	 * Returns pitch detectors for an audio file, one for each mode. The pure
+	 * Java (Tarsos) modes without cached annotations share one decode of the
+	 * audio file: executing one of them detects pitch for all of them. The
+	 * results are still cached per mode.
+	 * 
+	 * @param audioFile
+	 *            the audioFile to detect pitch for.
+	 * @param modes
+	 *            The pitch detection modes.
+	 * @return A pitch detector for each mode, in the same order as the modes.
+	 */
+	public static List<PitchDetector> getPitchDetectors(final AudioFile audioFile,
+			final List<PitchDetectionMode> modes) {
+		final List<PitchDetector> detectors = new ArrayList<PitchDetector>();
+		final List<PitchDetectionMode> sharedModes = new ArrayList<PitchDetectionMode>();
+		for (final PitchDetectionMode mode : modes) {
+			final CachingDetector detector = (CachingDetector) mode.getPitchDetector(audioFile);
+			detectors.add(detector);
+			if (mode.isTarsosMode() && !detector.isCached()) {
+				sharedModes.add(mode);
+			}
+		}
+		if (sharedModes.size() > 1) {
+			final List<TarsosPitchDetection> sharedDetectors = TarsosPitchDetection.withSharedDecode(audioFile,
+					sharedModes);
+			for (int i = 0; i < sharedModes.size(); i++) {
+				final int index = modes.indexOf(sharedModes.get(i));
+				detectors.set(index, new CachingDetector(audioFile, sharedDetectors.get(i)));
+			}
+		}
+		return detectors;
+	}
+
+	/**
+	 * @return True if the mode is implemented by a pure Java pitch detector
+	 *         (TarsosDSP) that reads the transcoded audio file itself.
+	 */
+	public boolean isTarsosMode() {
+		return this == TARSOS_YIN || this == TARSOS_MPM || this == TARSOS_DYNAMIC_WAVELET
+				|| this == TARSOS_FFT_YIN;
+	}
+
 	public String getDetectionModeName() {
 		return detectionModeName;
 	}
@@ -41,6 +41,19 @@ public interface PitchDetector {
 	 */
 	List<Annotation> executePitchDetection();
 	
+	/**
+	 * Execute the pitch detection process and hand each annotation to a
+	 * handler as soon as it is available. The annotations are not collected,
+	 * so long files can be processed with bounded memory:
+	 * {@link #getAnnotations()} does not return the annotations handed to the
+	 * handler.
+	 * 
+	 * @param handler
+	 *            Receives the detected pitches, encapsulated in an annotation
+	 *            object, in the order they are detected.
+	 */
+	void executePitchDetection(AnnotationHandler handler);
+	
 	/**
 	 * Calculate and return an indicator for progress.
 	 * @return A value between 0.0 and 100. Indicating the progress made in
@@ -40,6 +40,7 @@ import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 
 import ptolemy.plot.Plot;
 import be.hogent.tarsos.util.FileUtils;
+import be.hogent.tarsos.util.GaussianSmoother;
 import be.hogent.tarsos.util.histogram.Histogram;
 
 /**
@@ -256,69 +257,24 @@ public final class PitchFunctions {
 			return listToSmooth;
 		}
 
-		// Create a new, identical but empty Histogram.
-		final List<Double> smoothedList = new ArrayList<Double>();
-
-		// Determine the number of weights (must be odd).
-		int numWeights = (int) (2 * 2.58 * standardDeviation + 0.5);
-		if (numWeights % 2 == 0) {
-			numWeights++;
-		}
-
-		// Initialize the smoothing weights.
-		final double[] weights = new double[numWeights];
-		final int m = numWeights / 2;
-		final double var = standardDeviation * standardDeviation;
-		final double gain = 1.0 / Math.sqrt(2.0 * Math.PI * var);
-		final double exp = -1.0 / (2.0 * var);
-		for (int i = m; i < numWeights; i++) {
-			final double del = i - m;
-			weights[i] = gain * Math.exp(exp * del * del);
-			weights[numWeights - 1 - i] = weights[i];
+		final double[] values = new double[listToSmooth.size()];
+		double originalSum = 0;
+		for (int b = 0; b < values.length; b++) {
+			values[b] = listToSmooth.get(b);
+			originalSum += values[b];
 		}
-
-		// Clear the band total count for the smoothed histogram.
+		final double[] smoothedValues = new GaussianSmoother(standardDeviation, true).smooth(values, false);
 		double sum = 0;
-		double originalSum = 0;
-
-		final double[] smoothedValues = new double[listToSmooth.size()];
-
-		for (int b = 0; b < listToSmooth.size(); b++) {
-			// Determine clipped range.
-			final int min = Math.max(b - m, 0);
-			final int max = Math.min(b + m, listToSmooth.size());
-
-			// Calculate the offset into the weight array.
-			int offset;
-			if (m > b) {
-				offset = m - b;
-			} else {
-				offset = 0;
-			}
-
-			// Accumulate the total for the range.
-			double acc = 0;
-			double weightTotal = 0;
-			for (int i = min; i < max; i++) {
-				final double w = weights[offset++];
-				acc += listToSmooth.get(i) * w;
-				weightTotal += w;
-			}
-
-			// Round the accumulated value.
-			smoothedValues[b] = acc / weightTotal;
-
-			// Accumulate total for band.
-			sum += smoothedValues[b];
-			originalSum += listToSmooth.get(b);
+		for (final double smoothedValue : smoothedValues) {
+			sum += smoothedValue;
 		}
 
 		// Rescale the counts such that the band total is approximately
 		// the same as for the same band of the original histogram.
 		final double factor = originalSum / sum;
-		for (int b = 0; b < listToSmooth.size(); b++) {
-			final double smoothedValue = smoothedValues[b] * factor;
-			smoothedList.add(smoothedValue);
+		final List<Double> smoothedList = new ArrayList<Double>(smoothedValues.length);
+		for (final double smoothedValue : smoothedValues) {
+			smoothedList.add(smoothedValue * factor);
 		}
 
 		assert smoothedList.size() == listToSmooth.size();
@@ -52,29 +52,40 @@ public class Polyphon implements PitchDetector {
 	}
 
 	public List<Annotation> executePitchDetection() {
+		executePitchDetection(new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				annotations.add(annotation);
+			}
+		});
+		return annotations;
+	}
+
+	public void executePitchDetection(final AnnotationHandler handler) {
 		Command cmd = new Command("polyphon");
 		//Define the degree of polyphony
 		cmd.addArgument(String.valueOf(polyphony));
 		cmd.addFileArgument(file.transcodedPath());
 		try {
-			String output = cmd.execute();
-			String[] rows = output.split("\n");
-			for(String row : rows){
-				String[] data = row.split("\\s+");
-				double timeStamp = Double.valueOf(data[0]);
-				// 0        1           2            3          4            = 5   5/2 = 2
-				//timestamp frequency1 frequency2... salience1 salience2...
-				for(int i = 1 ; i < (data.length+1)/ 2 ; i++){
-					double pitchInHz = Double.valueOf(data[i]);
-					double salience = Double.valueOf(data[i+data.length/2]);
-					Annotation a = new Annotation(timeStamp, pitchInHz, mode,salience);
-					annotations.add(a);
+			cmd.execute(new Command.OutputLineHandler() {
+				public void handleLine(final String row) {
+					if (row.trim().length() == 0) {
+						return;
+					}
+					String[] data = row.trim().split("\\s+");
+					double timeStamp = Double.valueOf(data[0]);
+					// 0        1           2            3          4            = 5   5/2 = 2
+					//timestamp frequency1 frequency2... salience1 salience2...
+					for(int i = 1 ; i < (data.length+1)/ 2 ; i++){
+						double pitchInHz = Double.valueOf(data[i]);
+						double salience = Double.valueOf(data[i+data.length/2]);
+						Annotation a = new Annotation(timeStamp, pitchInHz, mode,salience);
+						handler.handleAnnotation(a);
+					}
 				}
-			}
+			});
 		} catch (IOException e) {
 			
 		}
-		return annotations;
 	}
 
 	public double progress() {
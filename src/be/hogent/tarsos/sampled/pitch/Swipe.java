@@ -49,29 +49,35 @@ public class Swipe implements PitchDetector {
 	}
 
 	public List<Annotation> executePitchDetection() {
+		executePitchDetection(new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				annotations.add(annotation);
+			}
+		});
+		return annotations;
+	}
+
+	public void executePitchDetection(final AnnotationHandler handler) {
 		Command cmd = new Command("swipe");
 		//Define the minimum and maximum pitch, in Hertz (30-8000Hz).
 		cmd.addArgument("-r").addArgument("30:8000");
 		cmd.addArgument("-i").addFileArgument(file.transcodedPath());
 		
 		try {
-			String output = cmd.execute();
-			String[] rows = output.split("\n");
-			for(String row : rows){
-				String[] data = row.split("\\s+");
-				if(!data[1].equals("nan")){
-					double timeStamp = Double.valueOf(data[0]);
-					double pitchInHz = Double.valueOf(data[1]);
-					Annotation a = new Annotation(timeStamp, pitchInHz, mode);
-					annotations.add(a);
+			cmd.execute(new Command.OutputLineHandler() {
+				public void handleLine(final String row) {
+					String[] data = row.trim().split("\\s+");
+					if(data.length > 1 && !data[1].equals("nan")){
+						double timeStamp = Double.valueOf(data[0]);
+						double pitchInHz = Double.valueOf(data[1]);
+						Annotation a = new Annotation(timeStamp, pitchInHz, mode);
+						handler.handleAnnotation(a);
+					}
 				}
-			}
+			});
 		} catch (IOException e) {
 			
 		}
-		
-		
-		return annotations;
 	}
 
 	public double progress() {
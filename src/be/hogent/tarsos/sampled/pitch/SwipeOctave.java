@@ -49,28 +49,34 @@ public class SwipeOctave implements PitchDetector {
 	}
 
 	public List<Annotation> executePitchDetection() {
+		executePitchDetection(new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				annotations.add(annotation);
+			}
+		});
+		return annotations;
+	}
+
+	public void executePitchDetection(final AnnotationHandler handler) {
 		Command cmd = new Command("swipe_octave");
 		cmd.addFileArgument(file.transcodedPath());
 		
 		try {
-			String output = cmd.execute();
-			String[] rows = output.split("\n");
-			for(String row : rows){
-				String[] data = row.split("\\s+");
-				if(!data[1].equals("NaN")){
-					double timeStamp = Double.valueOf(data[0]);
-					double pitchInHz = Double.valueOf(data[1]);
-					double strength = Double.valueOf(data[2]);
-					Annotation a = new Annotation(timeStamp, pitchInHz, mode,strength);
-					annotations.add(a);
+			cmd.execute(new Command.OutputLineHandler() {
+				public void handleLine(final String row) {
+					String[] data = row.trim().split("\\s+");
+					if(data.length > 2 && !data[1].equals("NaN")){
+						double timeStamp = Double.valueOf(data[0]);
+						double pitchInHz = Double.valueOf(data[1]);
+						double strength = Double.valueOf(data[2]);
+						Annotation a = new Annotation(timeStamp, pitchInHz, mode,strength);
+						handler.handleAnnotation(a);
+					}
 				}
-			}
+			});
 		} catch (IOException e) {
 			
 		}
-		
-		
-		return annotations;
 	}
 
 	public double progress() {
@@ -28,8 +28,14 @@ package be.hogent.tarsos.sampled.pitch;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import be.hogent.tarsos.dsp.AudioDispatcher;
@@ -40,6 +46,10 @@ import be.hogent.tarsos.dsp.pitch.PitchDetectionResult;
 import be.hogent.tarsos.dsp.pitch.PitchProcessor;
 import be.hogent.tarsos.dsp.pitch.PitchProcessor.PitchEstimationAlgorithm;
 import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.BatchExecutor;
+import be.hogent.tarsos.util.ConfKey;
+import be.hogent.tarsos.util.Configuration;
+import be.hogent.tarsos.util.MappedPcmFile;
 
 public class TarsosPitchDetection implements PitchDetector {
 	
@@ -48,33 +58,49 @@ public class TarsosPitchDetection implements PitchDetector {
 	private final List<Annotation> annotations;
 	private final PitchDetectionMode annotationSource;
 	
+	/**
+	 * The decode this detector takes part in, or null if the detector decodes
+	 * the audio file on its own.
+	 */
+	private SharedDecode sharedDecode;
+	
 	private double progress;
 	
+	/**
+	 * Adds annotations to the list of annotations.
+	 */
+	private final AnnotationHandler collector = new AnnotationHandler() {
+		public void handleAnnotation(final Annotation annotation) {
+			annotations.add(annotation);
+		}
+	};
+	
+	/**
+	 * Receives the annotations of the current pitch detection process.
+	 */
+	private AnnotationHandler sink = collector;
+	
 	private PitchDetectionHandler handler = new PitchDetectionHandler() {
 
 
 		public void handlePitch(PitchDetectionResult pitchDetectionResult,
 				AudioEvent audioEvent) {
 			if(pitchDetectionResult.isPitched()){
-				Annotation annotation = new Annotation(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), annotationSource,pitchDetectionResult.getProbability());
-				annotations.add(annotation);
+				Annotation annotation = new Annotation(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), annotationSource,probability(pitchDetectionResult));
+				sink.handleAnnotation(annotation);
 			}
 		}
 	};
 	
-	private AudioProcessor progressProcessor = new AudioProcessor() {
-		public void processingFinished() {
-		}		
-		public boolean process(AudioEvent audioEvent) {
-			progress = audioEvent.getProgress();
-			return true;
-		}
-	};
-	
 	public TarsosPitchDetection(AudioFile audioFile, PitchDetectionMode pitchDetectionMode) {
 		this.audioFile = audioFile;
 		annotationSource = pitchDetectionMode;
 		annotations = new ArrayList<Annotation>();
+		algorithm = algorithm(pitchDetectionMode);
+	}
+	
+	private static PitchEstimationAlgorithm algorithm(final PitchDetectionMode pitchDetectionMode) {
+		final PitchEstimationAlgorithm algorithm;
 		if(pitchDetectionMode == PitchDetectionMode.TARSOS_MPM){
 			algorithm = PitchEstimationAlgorithm.MPM;
 		} else if (pitchDetectionMode == PitchDetectionMode.TARSOS_YIN){
@@ -86,16 +112,102 @@ public class TarsosPitchDetection implements PitchDetector {
 		} else {
 			throw new IllegalArgumentException("Algorithm not recognized, should be MPM, YIN or Dynamic Wavelet, is " + pitchDetectionMode.name());
 		}
+		return algorithm;
+	}
+	
+	/**
+	 * Creates detectors for several modes that share one decode of the audio
+	 * file. Executing any of the detectors reads the audio once and hands every
+	 * buffer to the pitch processors of all the detectors. Executing the other
+	 * detectors afterwards only returns their annotations.
+	 * 
+	 * @param audioFile
+	 *            The audio file to detect pitch for.
+	 * @param modes
+	 *            The pure Java pitch detection modes.
+	 * @return A detector for each mode, in the same order as the modes.
+	 */
+	public static List<TarsosPitchDetection> withSharedDecode(final AudioFile audioFile,
+			final List<PitchDetectionMode> modes) {
+		final List<TarsosPitchDetection> detectors = new ArrayList<TarsosPitchDetection>();
+		for (final PitchDetectionMode mode : modes) {
+			detectors.add(new TarsosPitchDetection(audioFile, mode));
+		}
+		final SharedDecode decode = new SharedDecode(audioFile, detectors);
+		for (final TarsosPitchDetection detector : detectors) {
+			detector.sharedDecode = decode;
+		}
+		return detectors;
 	}
 
 	public List<Annotation> executePitchDetection() {
+		executePitchDetection(collector);
+		return annotations;
+	}
+	
+	public void executePitchDetection(final AnnotationHandler annotationHandler) {
+		if (sharedDecode == null) {
+			sink = annotationHandler;
+			decode(audioFile, Collections.singletonList(this));
+			sink = collector;
+		} else {
+			sharedDecode.execute(this, annotationHandler);
+		}
+	}
+	
+	/**
+	 * The number of samples in a buffer handed to the pitch estimators.
+	 */
+	private static final int BUFFER_SIZE = 2048;
+	
+	/**
+	 * The number of samples consecutive buffers overlap.
+	 */
+	private static final int OVERLAP = 1024;
+	
+	/**
+	 * Decodes an audio file once and fans out each buffer to the pitch
+	 * processors of a list of detectors. Long files are split into segments
+	 * that are analysed concurrently, see
+	 * {@link ConfKey#pitch_detection_segment_length}, unless the decode runs on
+	 * a worker of a batch of files: the other workers already keep every
+	 * processor busy.
+	 * 
+	 * @param audioFile
+	 *            The audio file to decode.
+	 * @param detectors
+	 *            The detectors that receive each buffer.
+	 */
+	private static void decode(final AudioFile audioFile, final List<TarsosPitchDetection> detectors) {
+		final AudioFileFormat fileFormat = audioFile.fileFormat();
+		final float sampleRate = fileFormat.getFormat().getSampleRate();
+		final long lengthInSamples = fileFormat.getFrameLength();
+		final int hopSize = BUFFER_SIZE - OVERLAP;
+		// segment boundaries fall on buffer boundaries
+		final long segmentLength = Math.round(Configuration.getInt(ConfKey.pitch_detection_segment_length)
+				* sampleRate / hopSize) * hopSize;
+		if (segmentLength > 0 && lengthInSamples != AudioSystem.NOT_SPECIFIED
+				&& lengthInSamples > 2 * segmentLength && !BatchExecutor.isWorkerThread()) {
+			decodeSegments(audioFile, detectors, segmentLength, lengthInSamples);
+			return;
+		}
 		try {
-			float sampleRate = audioFile.fileFormat().getFormat().getSampleRate();
-			int bufferSize = 2048;
-			int overlap = 1024;			
-			AudioDispatcher dispatcher = AudioDispatcher.fromFile(new File(audioFile.transcodedPath()), bufferSize, overlap);
-			dispatcher.addAudioProcessor(new PitchProcessor(algorithm, sampleRate, bufferSize, handler ));
-			dispatcher.addAudioProcessor(progressProcessor );
+			AudioDispatcher dispatcher = MappedPcmFile.dispatcher(new File(audioFile.transcodedPath()), BUFFER_SIZE, OVERLAP);
+			for (final TarsosPitchDetection detector : detectors) {
+				dispatcher.addAudioProcessor(new PitchProcessor(detector.algorithm, sampleRate, BUFFER_SIZE,
+						detector.handler));
+			}
+			dispatcher.addAudioProcessor(new AudioProcessor() {
+				public void processingFinished() {
+				}		
+				public boolean process(AudioEvent audioEvent) {
+					final double currentProgress = audioEvent.getProgress();
+					for (final TarsosPitchDetection detector : detectors) {
+						detector.progress = currentProgress;
+					}
+					return true;
+				}
+			});
 			dispatcher.run();
 		} catch (UnsupportedAudioFileException e) {
 			// TODO Auto-generated catch block
@@ -104,10 +216,206 @@ public class TarsosPitchDetection implements PitchDetector {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		return annotations;
 	}
 	
+	/**
+	 * Detects pitch in a stream of audio, e.g. audio decoded by a
+	 * {@link be.hogent.tarsos.util.StreamingDecoder}, while it arrives. The annotations are handed to
+	 * the handler as soon as they are detected. The stream is read until it
+	 * ends.
+	 * 
+	 * @param stream
+	 *            The audio to detect pitch for, its length does not need to be
+	 *            known.
+	 * @param pitchDetectionMode
+	 *            A pure Java pitch detection mode, see
+	 *            {@link PitchDetectionMode#isTarsosMode()}.
+	 * @param annotationHandler
+	 *            Receives each annotation.
+	 * @throws UnsupportedAudioFileException
+	 *             If the format of the stream is not supported.
+	 */
+	public static void executePitchDetection(final AudioInputStream stream,
+			final PitchDetectionMode pitchDetectionMode, final AnnotationHandler annotationHandler)
+			throws UnsupportedAudioFileException {
+		final float sampleRate = stream.getFormat().getSampleRate();
+		final AudioDispatcher dispatcher = new AudioDispatcher(stream, BUFFER_SIZE, OVERLAP);
+		dispatcher.addAudioProcessor(new PitchProcessor(algorithm(pitchDetectionMode), sampleRate, BUFFER_SIZE,
+				new PitchDetectionHandler() {
+					public void handlePitch(final PitchDetectionResult result, final AudioEvent audioEvent) {
+						if (result.isPitched()) {
+							annotationHandler.handleAnnotation(new Annotation(audioEvent.getTimeStamp(), result
+									.getPitch(), pitchDetectionMode, probability(result)));
+						}
+					}
+				}));
+		dispatcher.run();
+	}
+	
+	/**
+	 * Splits a long audio file into segments which are analysed concurrently.
+	 * The annotations of the segments are appended in order so the result is
+	 * the same as analysing the file front to back.
+	 * <p>
+	 * A buffer belongs to the segment that contains the sample the time stamp
+	 * of the buffer points to. The first buffer a dispatcher emits after
+	 * skipping has an earlier time stamp than the same buffer in a front to back
+	 * run. Therefore a segment starts decoding two hops before its first
+	 * sample and ignores the buffers that belong to the previous segment. A
+	 * segment stops decoding at the first buffer of the next segment.
+	 * </p>
+	 * 
+	 * @param audioFile
+	 *            The audio file to decode.
+	 * @param detectors
+	 *            The detectors that receive each buffer.
+	 * @param segmentLength
+	 *            The length of a segment in samples, a multiple of the hop
+	 *            size.
+	 * @param lengthInSamples
+	 *            The length of the audio file in samples.
+	 * @throws IllegalStateException
+	 *             If a segment fails. The annotations of the segments before
+	 *             it were handed out already.
+	 */
+	private static void decodeSegments(final AudioFile audioFile, final List<TarsosPitchDetection> detectors,
+			final long segmentLength, final long lengthInSamples) {
+		final float sampleRate = audioFile.fileFormat().getFormat().getSampleRate();
+		final int numberOfSegments = (int) ((lengthInSamples + segmentLength - 1) / segmentLength);
+		final AtomicLong samplesProcessed = new AtomicLong();
+		final int hopSize = BUFFER_SIZE - OVERLAP;
+		
+		final List<Callable<List<List<Annotation>>>> tasks = new ArrayList<Callable<List<List<Annotation>>>>();
+		for (int segment = 0; segment < numberOfSegments; segment++) {
+			final long firstSample = segment * segmentLength;
+			final long lastSample = segment == numberOfSegments - 1 ? Long.MAX_VALUE : firstSample
+					+ segmentLength;
+			tasks.add(new Callable<List<List<Annotation>>>() {
+				public List<List<Annotation>> call() throws UnsupportedAudioFileException, IOException {
+					final List<List<Annotation>> segmentAnnotations = new ArrayList<List<Annotation>>();
+					final AudioDispatcher dispatcher = MappedPcmFile.dispatcher(
+							new File(audioFile.transcodedPath()), BUFFER_SIZE, OVERLAP);
+					if (firstSample > 0) {
+						dispatcher.skip((firstSample - 2 * hopSize) / (double) sampleRate);
+					}
+					dispatcher.addAudioProcessor(new AudioProcessor() {
+						public void processingFinished() {
+						}
+
+						public boolean process(final AudioEvent audioEvent) {
+							// stop at the first buffer of the next segment
+							return audioEvent.getSamplesProcessed() < lastSample;
+						}
+					});
+					for (final TarsosPitchDetection detector : detectors) {
+						final List<Annotation> annotations = new ArrayList<Annotation>();
+						segmentAnnotations.add(annotations);
+						dispatcher.addAudioProcessor(new PitchProcessor(detector.algorithm, sampleRate, BUFFER_SIZE,
+								new PitchDetectionHandler() {
+									public void handlePitch(final PitchDetectionResult result,
+											final AudioEvent audioEvent) {
+										final boolean inSegment = audioEvent.getSamplesProcessed() >= firstSample;
+										if (inSegment && result.isPitched()) {
+											annotations.add(new Annotation(audioEvent.getTimeStamp(), result
+													.getPitch(), detector.annotationSource, probability(result)));
+										}
+									}
+								}));
+					}
+					dispatcher.addAudioProcessor(new AudioProcessor() {
+						public void processingFinished() {
+						}
+
+						public boolean process(final AudioEvent audioEvent) {
+							final double currentProgress = samplesProcessed.addAndGet(hopSize)
+									/ (double) lengthInSamples;
+							for (final TarsosPitchDetection detector : detectors) {
+								detector.progress = Math.min(1.0, currentProgress);
+							}
+							return true;
+						}
+					});
+					dispatcher.run();
+					return segmentAnnotations;
+				}
+			});
+		}
+		final IllegalStateException[] failure = new IllegalStateException[1];
+		new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<List<List<Annotation>>>() {
+			public void handleResult(final int index, final List<List<Annotation>> segmentAnnotations) {
+				// after a failed segment the annotations would have a gap
+				for (int i = 0; failure[0] == null && i < detectors.size(); i++) {
+					final AnnotationHandler detectorSink = detectors.get(i).sink;
+					for (final Annotation annotation : segmentAnnotations.get(i)) {
+						detectorSink.handleAnnotation(annotation);
+					}
+				}
+			}
+
+			public void handleFailure(final int index, final Throwable cause) {
+				if (failure[0] == null) {
+					failure[0] = new IllegalStateException("Pitch detection failed for segment " + index + " of "
+							+ audioFile.originalBasename(), cause);
+				}
+			}
+		});
+		if (failure[0] != null) {
+			// the caller, e.g. a CachingDetector, should not keep the
+			// incomplete annotations
+			throw failure[0];
+		}
+	}
+	
+	/**
+	 * Some estimators do not define a probability (-1) or return a value
+	 * slightly above one. Without a valid probability the default, 1.0, is
+	 * used so one estimator can not break a shared decode.
+	 * 
+	 * @param result
+	 *            The result of a pitch estimator.
+	 * @return The probability of the result, between zero and one.
+	 */
+	private static double probability(final PitchDetectionResult result) {
+		final double probability = result.getProbability();
+		if (probability < 0.0 || probability > 1.0) {
+			return 1.0;
+		}
+		return probability;
+	}
 	
+	/**
+	 * One decode of an audio file, shared by several detectors. The first
+	 * detector that is executed does the work, the others wait for it to finish.
+	 * The annotations of the detectors that were not executed are collected so
+	 * they can be handed out when these detectors are executed.
+	 */
+	private static final class SharedDecode {
+		private final AudioFile audioFile;
+		private final List<TarsosPitchDetection> detectors;
+		private boolean executed;
+
+		private SharedDecode(final AudioFile file, final List<TarsosPitchDetection> members) {
+			audioFile = file;
+			detectors = members;
+		}
+
+		private synchronized void execute(final TarsosPitchDetection executedDetector,
+				final AnnotationHandler annotationHandler) {
+			if (!executed) {
+				executedDetector.sink = annotationHandler;
+				try {
+					decode(audioFile, detectors);
+				} finally {
+					executedDetector.sink = executedDetector.collector;
+				}
+				executed = true;
+			} else if (annotationHandler != executedDetector.collector) {
+				for (final Annotation annotation : executedDetector.annotations) {
+					annotationHandler.handleAnnotation(annotation);
+				}
+			}
+		}
+	}
 
 	public double progress() {
 		return progress;
@@ -66,6 +66,15 @@ public final class VampPitchDetection implements PitchDetector {
 	}
 
 	public List<Annotation> executePitchDetection() {
+		executePitchDetection(new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				annotations.add(annotation);
+			}
+		});
+		return annotations;
+	}
+
+	public void executePitchDetection(final AnnotationHandler handler) {
 		String setting = mode.getParametername() + ".n3";
 		final String settingsFile = FileUtils.combine(FileUtils.temporaryDirectory(), setting);
 		final String csvFileDir = FileUtils.combine(file.transcodedDirectory(),mode.getParametername());
@@ -98,9 +107,16 @@ public final class VampPitchDetection implements PitchDetector {
 			assert FileUtils.exists(csvFile);
 			// parse CSV File
 			if(mode != PitchDetectionMode.VAMP_CONSTANT_Q_200 && mode != PitchDetectionMode.VAMP_CONSTANT_Q_400){				
-				parseVamp(csvFile);
+				parseVamp(csvFile, handler);
 			}else{
+				// the constant-Q annotations are synthesized from the
+				// complete spectrum, they can only be handed out at the end
 				parseConstantQFile(csvFile);
+				final List<Annotation> synthesized = new ArrayList<Annotation>(annotations);
+				annotations.clear();
+				for (final Annotation annotation : synthesized) {
+					handler.handleAnnotation(annotation);
+				}
 			}
 
 			// Is keeping the intermediate CSV file required?
@@ -116,7 +132,6 @@ public final class VampPitchDetection implements PitchDetector {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		return annotations;
 	}
 	public double[][] constantQValues;
 	
@@ -219,15 +234,18 @@ public final class VampPitchDetection implements PitchDetector {
 	 * 
 	 * @param csvFileName
 	 *            The (absolute) path to the CSV file.
+	 * @param handler
+	 *            Receives each annotation while the file is read.
 	 */
-	private void parseVamp(final String csvFileName) {
-		final List<String[]> csvData = FileUtils.readCSVFile(csvFileName, ",", 2);
-		for (final String[] row : csvData) {
-			double pitch = Double.parseDouble(row[1]);
-			double time = Double.parseDouble(row[0]);
-			final Annotation sample = new Annotation(time, pitch, mode);
-			annotations.add(sample);
-		}
+	private void parseVamp(final String csvFileName, final AnnotationHandler handler) {
+		FileUtils.readCSVFile(csvFileName, ",", 2, new FileUtils.RowHandler() {
+			public void handleRow(final String[] row) {
+				double pitch = Double.parseDouble(row[1]);
+				double time = Double.parseDouble(row[0]);
+				final Annotation sample = new Annotation(time, pitch, mode);
+				handler.handleAnnotation(sample);
+			}
+		});
 	}
 
 	public List<Annotation> getAnnotations() {
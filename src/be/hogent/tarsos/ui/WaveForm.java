@@ -61,6 +61,7 @@ import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
 import be.hogent.tarsos.ui.pitch.AudioFileChangedListener;
 import be.hogent.tarsos.ui.pitch.Frame;
 import be.hogent.tarsos.util.AudioFile;
+import be.hogent.tarsos.util.MappedPcmFile;
 import be.hogent.tarsos.util.StopWatch;
 
 public final class WaveForm extends JPanel implements AudioFileChangedListener  {
@@ -423,7 +424,7 @@ public final class WaveForm extends JPanel implements AudioFileChangedListener
 
 			final double secondsToX;
 			secondsToX = 1000 * waveFormWidth / (float) audioFile.getLengthInMilliSeconds();
-			AudioDispatcher adp = AudioDispatcher.fromFile(new File(audioFile.transcodedPath()),framesPerPixel,0);
+			AudioDispatcher adp = MappedPcmFile.dispatcher(new File(audioFile.transcodedPath()),framesPerPixel,0);
 			adp.addAudioProcessor(new AudioProcessor() {
 
 				private int frame = 0;
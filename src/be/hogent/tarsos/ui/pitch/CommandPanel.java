@@ -71,6 +71,13 @@ public class CommandPanel extends JPanel implements AudioFileChangedListener, Sc
 	private final JComboBox pitchDetectorSelection;
 	
 	private final List<JComponent> listOfComponentsToDisableOrEnable;
+	/**
+	 * The pitch class histogram used for peak detection, reused (together with
+	 * the peaks cached for it) while the KDE it was created from is unchanged.
+	 */
+	private PitchClassHistogram peakDetectionHistogram;
+	private KernelDensityEstimate peakDetectionKDE;
+	private long peakDetectionKDEModificationCount;
 	
 	public CommandPanel(){
 		pitchDetectors = new HashSet<PitchDetectionMode>();
@@ -88,9 +95,7 @@ public class CommandPanel extends JPanel implements AudioFileChangedListener, Sc
 			public void stateChanged(final ChangeEvent e) {
 				final JSlider source = (JSlider) e.getSource();
 				final double newMinProbability = source.getValue() / 100.0;
-				AnnotationPublisher.getInstance().clear();
-				AnnotationPublisher.getInstance().alterSelection(newMinProbability);
-				AnnotationPublisher.getInstance().delegateAddAnnotations(newMinProbability);
+				AnnotationPublisher.getInstance().alterMinProbability(newMinProbability);
 			}
 		});
 		listOfComponentsToDisableOrEnable.add(probabilitySlider);
@@ -209,8 +214,12 @@ public class CommandPanel extends JPanel implements AudioFileChangedListener, Sc
 		PitchDetectionMode selectedHistogram = (PitchDetectionMode) pitchDetectorSelection.getSelectedItem();
 		KernelDensityEstimate kde = KDEData.getInstance().getKDEs().get(selectedHistogram);
 		if(kde.getSumFreq()!=0){
-			PitchClassHistogram histo = HistogramFactory.createPitchClassHistogram(kde);
-			final List<Peak> peaks = PeakDetector.detect(histo, windowSizePeakDetection,thresholdPeakDetection);
+			if (peakDetectionKDE != kde || peakDetectionKDEModificationCount != kde.getModificationCount()) {
+				peakDetectionHistogram = HistogramFactory.createPitchClassHistogram(kde);
+				peakDetectionKDE = kde;
+				peakDetectionKDEModificationCount = kde.getModificationCount();
+			}
+			final List<Peak> peaks = PeakDetector.detect(peakDetectionHistogram, windowSizePeakDetection,thresholdPeakDetection);
 			final double[] peaksInCents = new double[peaks.size()];
 			int i = 0;
 			for (final Peak peak : peaks) {
@@ -236,6 +245,10 @@ public class CommandPanel extends JPanel implements AudioFileChangedListener, Sc
 		}
 	}
 	
+	public void removeAnnotation(Annotation annotation) {
+		// NO OP
+	}
+	
 	public void clearAnnotations() {
 		// TODO Auto-generated method stub
 		
@@ -259,6 +259,10 @@ public class ControlPanel extends JPanel implements AudioFileChangedListener, An
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// NO OP
+	}
+
 	public void annotationsAdded() {
 		AnnotationSelection selection = AnnotationPublisher.getInstance().getCurrentSelection();
 
@@ -43,7 +43,9 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,6 +73,7 @@ import org.noos.xing.mydoggy.plaf.ui.content.MyDoggyMultiSplitContentManagerUI;
 
 import be.hogent.tarsos.sampled.Player;
 import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationBuffer;
 import be.hogent.tarsos.sampled.pitch.AnnotationListener;
 import be.hogent.tarsos.sampled.pitch.AnnotationPublisher;
 import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
@@ -500,14 +503,17 @@ public final class Frame extends JFrame implements ScaleChangedListener, Annotat
 	
 	private List<BackgroundTask> createTasks(final File audioFile,final TranscodingTask transcodingTask){
 		final List<BackgroundTask> detectorTasks = new ArrayList<BackgroundTask>();
+		// filled with a detector for each mode once the file is transcoded
+		final Map<PitchDetectionMode, PitchDetector> detectors = new LinkedHashMap<PitchDetectionMode, PitchDetector>();
 		for (final String name : Configuration
 				.getList(ConfKey.pitch_tracker_list)) {
 			final PitchDetectionMode mode = PitchDetectionMode
 					.valueOf(name);
 			final boolean determinatedLength = (mode == PitchDetectionMode.TARSOS_MPM || PitchDetectionMode.TARSOS_YIN == mode || PitchDetectionMode.TARSOS_DYNAMIC_WAVELET == mode);
-			DetectorTask task = new DetectorTask(mode.getDetectionModeName() + " " + FileUtils.basename(audioFile.getAbsolutePath()), determinatedLength, mode);
+			DetectorTask task = new DetectorTask(mode.getDetectionModeName() + " " + FileUtils.basename(audioFile.getAbsolutePath()), determinatedLength, mode, detectors);
 			transcodingTask.addHandler(task);
 			detectorTasks.add(task);
+			detectors.put(mode, null);
 		}
 		return detectorTasks;
 	}
@@ -556,21 +562,39 @@ public final class Frame extends JFrame implements ScaleChangedListener, Annotat
 	private class DetectorTask extends BackgroundTask implements TaskHandler{
 		private AudioFile file;
 		private final PitchDetectionMode mode;
+		/**
+		 * The detectors for all the modes of this audio file, shared between
+		 * the detector tasks so pure Java detectors share one decode.
+		 */
+		private final Map<PitchDetectionMode, PitchDetector> detectors;
 		
-		protected DetectorTask(String name, boolean lengthDetermined, PitchDetectionMode detectionMode) {
+		protected DetectorTask(String name, boolean lengthDetermined, PitchDetectionMode detectionMode,
+				Map<PitchDetectionMode, PitchDetector> sharedDetectors) {
 			super(name, lengthDetermined);
 			mode = detectionMode;
+			detectors = sharedDetectors;
 		}
 
 		@Override
 		public Void doInBackground() {
-			final PitchDetector pitchDetector = mode
-					.getPitchDetector(file);
+			final PitchDetector pitchDetector;
+			synchronized (detectors) {
+				if (detectors.get(mode) == null) {
+					final List<PitchDetectionMode> modes = new ArrayList<PitchDetectionMode>(detectors.keySet());
+					final List<PitchDetector> created = PitchDetectionMode.getPitchDetectors(file, modes);
+					for (int i = 0; i < modes.size(); i++) {
+						detectors.put(modes.get(i), created.get(i));
+					}
+				}
+				pitchDetector = detectors.get(mode);
+			}
 			Runnable r = new Runnable() {
 				public void run() {
 					//Do pitch extraction
 					AnnotationPublisher publisher = AnnotationPublisher.getInstance();
-					List<Annotation> annotations = pitchDetector.executePitchDetection();
+					AnnotationBuffer annotations = new AnnotationBuffer();
+					pitchDetector.executePitchDetection(annotations);
+					annotations.trimToSize();
 					publisher.addAnnotations(annotations);
 				}
 			};
@@ -681,6 +705,10 @@ public final class Frame extends JFrame implements ScaleChangedListener, Annotat
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// NO OP
+	}
+
 	public void annotationsAdded() {
 		// TODO Auto-generated method stub
 
@@ -27,13 +27,16 @@
 package be.hogent.tarsos.ui.pitch;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.swing.JButton;
 import javax.swing.SwingUtilities;
 
 import ptolemy.plot.Plot;
+import ptolemy.plot.PlotPoint;
 import be.hogent.tarsos.Tarsos;
 import be.hogent.tarsos.sampled.pitch.Annotation;
 import be.hogent.tarsos.sampled.pitch.AnnotationListener;
@@ -63,9 +66,14 @@ public class PitchContour extends Plot implements AudioFileChangedListener, Scal
 	private PitchUnit pitchUnit;
 	private double[] scale;
 	private final WaveForm waveForm;
+	/**
+	 * Points to erase, per data set, by time.
+	 */
+	private final Map<Integer, Map<Double, List<Double>>> removedPoints;
 	
 	public PitchContour(WaveForm waveForm) {
 		this.waveForm = waveForm;
+		removedPoints = new HashMap<Integer, Map<Double, List<Double>>>();
 		pitchUnit = PitchUnit.valueOf(Configuration.get(ConfKey.pitch_contour_unit));
 		setColors(Tarsos.COLORS);
 	}
@@ -225,7 +233,83 @@ public class PitchContour extends Plot implements AudioFileChangedListener, Scal
 		}
 	}
 
+	/**
+	 * Removed annotations are collected and erased from the plot in one pass
+	 * when {@link #annotationsAdded()} is called.
+	 */
+	public void removeAnnotation(Annotation annotation) {
+		final int dataset = annotation.getSource().ordinal();
+		final double convertedPitch = annotation.getPitch(pitchUnit);
+		final double y = getYLog() ? convertToLog(convertedPitch) : convertedPitch;
+		synchronized (removedPoints) {
+			Map<Double, List<Double>> removedFromDataset = removedPoints.get(dataset);
+			if (removedFromDataset == null) {
+				removedFromDataset = new HashMap<Double, List<Double>>();
+				removedPoints.put(dataset, removedFromDataset);
+			}
+			List<Double> removedAtTime = removedFromDataset.get(annotation.getStart());
+			if (removedAtTime == null) {
+				removedAtTime = new ArrayList<Double>(1);
+				removedFromDataset.put(annotation.getStart(), removedAtTime);
+			}
+			removedAtTime.add(y);
+		}
+	}
+
+	/**
+	 * Erases the collected removed annotations from the plot, one pass over
+	 * the points of each data set.
+	 */
+	private void eraseRemovedPoints() {
+		synchronized (removedPoints) {
+			if (removedPoints.isEmpty()) {
+				return;
+			}
+			synchronized (this) {
+				for (Map.Entry<Integer, Map<Double, List<Double>>> entry : removedPoints.entrySet()) {
+					final int dataset = entry.getKey();
+					if (dataset >= _points.size()) {
+						continue;
+					}
+					final Map<Double, List<Double>> removedFromDataset = entry.getValue();
+					final List<PlotPoint> points = _points.get(dataset);
+					final ArrayList<PlotPoint> kept = new ArrayList<PlotPoint>(points.size());
+					for (PlotPoint point : points) {
+						final List<Double> removedAtTime = removedFromDataset.get(point.originalx);
+						if (removedAtTime == null || !removeClosest(removedAtTime, point.y)) {
+							kept.add(point);
+						}
+					}
+					_points.set(dataset, kept);
+				}
+			}
+			removedPoints.clear();
+		}
+		repaint();
+	}
+
+	/**
+	 * Removes the value closest to y from the list, if it is close enough.
+	 * Several annotations of one source can share a time stamp.
+	 */
+	private static boolean removeClosest(final List<Double> values, final double y) {
+		int closest = -1;
+		for (int i = 0; i < values.size(); i++) {
+			if (closest == -1 || Math.abs(values.get(i) - y) < Math.abs(values.get(closest) - y)) {
+				closest = i;
+			}
+		}
+		final boolean removed = closest != -1 && Math.abs(values.get(closest) - y) <= 1e-6 * (1 + Math.abs(y));
+		if (removed) {
+			values.remove(closest);
+		}
+		return removed;
+	}
+
 	public void clearAnnotations() {
+		synchronized (removedPoints) {
+			removedPoints.clear();
+		}
 		// clear all data sets
 		for (int i = 0; i < PitchDetectionMode.values().length; i++) {
 			clear(i);
@@ -273,6 +357,12 @@ public class PitchContour extends Plot implements AudioFileChangedListener, Scal
 	private static final int AMBITUS_STOP = Configuration.getInt(ConfKey.pitch_histogram_stop);
 
 	public void annotationsAdded() {
+		// Deferred like addPoint, so points are erased after they are added.
+		deferIfNecessary(new Runnable() {
+			public void run() {
+				eraseRemovedPoints();
+			}
+		});
 		AnnotationSelection selection = AnnotationPublisher.getInstance().getCurrentSelection();
 		if (selection.getStopTime() - selection.getStartTime() > 1) {
 
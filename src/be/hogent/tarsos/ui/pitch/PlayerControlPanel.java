@@ -408,6 +408,10 @@ public class PlayerControlPanel extends JPanel implements AudioFileChangedListen
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+
+	}
+
 	public void clearAnnotations() {
 		// TODO Auto-generated method stub
 		
@@ -333,6 +333,10 @@ public class TarsosLiveFrame extends JFrame implements PitchDetectionHandler, Sc
 		
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// NO OP
+	}
+
 	public void clearAnnotations() {
 		// TODO Auto-generated method stub
 		
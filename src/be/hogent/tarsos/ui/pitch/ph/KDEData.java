@@ -28,10 +28,13 @@ package be.hogent.tarsos.ui.pitch.ph;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import be.hogent.tarsos.sampled.pitch.Annotation;
-import be.hogent.tarsos.sampled.pitch.AnnotationListener;
+import be.hogent.tarsos.sampled.pitch.AnnotationSelection;
+import be.hogent.tarsos.sampled.pitch.AnnotationSelectionListener;
+import be.hogent.tarsos.sampled.pitch.AnnotationTree;
 import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
 import be.hogent.tarsos.sampled.pitch.PitchUnit;
 import be.hogent.tarsos.ui.pitch.AudioFileChangedListener;
@@ -41,7 +44,7 @@ import be.hogent.tarsos.util.Configuration;
 import be.hogent.tarsos.util.KernelDensityEstimate;
 import be.hogent.tarsos.util.KernelDensityEstimate.Kernel;
 
-public class KDEData  implements AudioFileChangedListener, AnnotationListener{
+public class KDEData  implements AudioFileChangedListener, AnnotationSelectionListener{
 
 	private static final int AMBITUS_STOP = Configuration.getInt(ConfKey.pitch_histogram_stop);
 	private static final int AMBITUS_START = Configuration.getInt(ConfKey.pitch_histogram_start);
@@ -89,6 +92,29 @@ public class KDEData  implements AudioFileChangedListener, AnnotationListener{
 		}
 	}
 	
+	/**
+	 * Adds the kernels of a selection using the pitch class counts of the
+	 * tree: one weighted kernel per pitch class instead of one kernel per
+	 * annotation.
+	 */
+	public void addSelection(AnnotationTree tree, AnnotationSelection selection) {
+		for (Map.Entry<PitchDetectionMode, KernelDensityEstimate> entry : kdes.entrySet()) {
+			int[] counts = tree.countPitchClasses(selection, entry.getKey(), AMBITUS_START, AMBITUS_STOP);
+			for (int pitchClass = 0; pitchClass < counts.length; pitchClass++) {
+				if (counts[pitchClass] > 0) {
+					entry.getValue().add(pitchClass, counts[pitchClass]);
+				}
+			}
+		}
+	}
+	
+	public void removeAnnotation(Annotation annotation) {
+		double pitchInAbsCents = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
+		if (pitchInAbsCents > AMBITUS_START && pitchInAbsCents <= AMBITUS_STOP) {
+			kdes.get(annotation.getSource()).remove(pitchInAbsCents);
+		}
+	}
+	
 	public HashMap<PitchDetectionMode, KernelDensityEstimate> getKDEs(){
 		return kdes;
 	}
@@ -200,6 +200,10 @@ public final class PitchClassKdePanel extends JPanel implements ScaleChangedList
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// NO OP
+	}
+
 	public void clearAnnotations() {
 		
 	}
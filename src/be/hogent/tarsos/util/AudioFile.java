@@ -27,13 +27,14 @@
 package be.hogent.tarsos.util;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,7 +52,6 @@ import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
 import be.hogent.tarsos.sampled.pitch.PitchDetector;
 import be.hogent.tarsos.sampled.pitch.PitchUnit;
 import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
-import be.hogent.tarsos.util.Configuration.ConfigChangeListener;
 
 /**
  * Represents an audio file. Facilitates transcoding, handling of originalPath
@@ -74,87 +74,106 @@ public final class AudioFile {
 	
 	
 	/**
-	 * Initializes and maintains a list of files that are transcoded and analysed. 
-	 * The md5 hash of each file is stored together with the file name corresponding with the
-	 * first occurrence of the hash. Binary duplicates are redirected using the md5 to the first file name. 
-	 * @author joren
+	 * Create and transcode an audio file.
+	 * 
+	 * @param filePath
+	 *            the originalPath for the audio file
+	 * @throws EncoderException
+	 *             If FFMPEG fails to transcode the audio an
+	 *             UnsupportedAudioFileException is generated.
 	 */
-	private static class AudioFileList implements ConfigChangeListener{
-		
-		private static AudioFileList instance;
-		/**
-		 * A hashmap with an MD5 hash as a key and the first detected name of the file as a value. 
-		 * A hash could look like this:
-		 * [53da1e8f42af35ca => MR.1964.1.1-28,0554af3e017912f0 => MR.1968.24.2-A2]
-		 */
-		private final Map<String, String> currentFiles;
-		
-		public static AudioFileList getInstance(){
-			if(instance==null){
-				instance = new AudioFileList();
-			}
-			return instance;
-		}
-		
-		private AudioFileList(){
-			currentFiles = new HashMap<String, String>();
-			initializeCurrentFiles();
-		}
+	public AudioFile(final String filePath) throws EncoderException {
+		this.originalPath = new File(filePath).getAbsolutePath();
+		md5 = contentIdOf(originalPath);
+		final DataDirectoryManifest manifest = DataDirectoryManifest.getInstance();
+		transcodedPath = transcodedPathOf(filePath);
+		transcodedDirectory = new File(transcodedPath).getParent();
+		final String fileName = new File(transcodedPath).getName();
 		
-		private void initializeCurrentFiles() {
-			String path = Configuration.get(ConfKey.data_directory);
-			File[] children = new File(path).listFiles(new FileFilter() {		
-				
-				public boolean accept(File pathname) {
-					return pathname.isDirectory() && pathname.getName().length() > 17;
+		boolean transcoded = false;
+		// byte-identical files share the transcoded file: only one of them
+		// transcodes it at a time
+		synchronized (transcodingLock(md5)) {
+			if (AudioTranscoder.transcodingRequired(transcodedPath())) {
+				try{
+					transcode(filePath, transcodedPath());
+					transcoded = true;
+				}catch(EncoderException e){
+					//try to continue if the transcoded file exists
+					LOG.warning("Transcoding probably failed: " + e.getMessage());
+					if(!FileUtils.exists(transcodedPath())){
+						throw e;
+					}
 				}
-			});
-			for(File child : children){
-				String childFileName = child.getName(); 
-				String md5 = childFileName.substring(childFileName.length()-16);
-				String name = childFileName.replace("_"+md5,"");
-				currentFiles.put(md5, name);
 			}
 		}
-		
-		public void configurationChanged(ConfKey key) {
-			if(key == ConfKey.data_directory){
-				initializeCurrentFiles();
-			}			
-		}
-		
-		public boolean containsFile(String md5){
-			return currentFiles.containsKey(md5);
+		// The length of a known transcoded file is read from the manifest.
+		final long knownLength = manifest.getLengthInMilliSeconds(md5);
+		if (transcoded || knownLength < 0) {
+			lengthInMilliSeconds = calculateLengthInMilliSeconds();
+			final AudioFileFormat format = fileFormat();
+			final float sampleRate = format == null ? -1 : format.getFormat().getSampleRate();
+			manifest.setAudioInfo(md5, lengthInMilliSeconds, sampleRate);
+			manifest.addArtifact(md5, fileName);
+		} else {
+			lengthInMilliSeconds = knownLength;
 		}
-		
-		public void addFile(String md5,AudioFile file){
-			currentFiles.put(md5, FileUtils.basename(file.transcodedPath()));
+	}
+
+	/**
+	 * One lock per content id, see {@link #contentId()}.
+	 */
+	private static final ConcurrentMap<String, Object> TRANSCODING_LOCKS = new ConcurrentHashMap<String, Object>();
+
+	private static Object transcodingLock(final String id) {
+		final Object lock = new Object();
+		final Object existingLock = TRANSCODING_LOCKS.putIfAbsent(id, lock);
+		return existingLock == null ? lock : existingLock;
+	}
+
+	/**
+	 * Transcodes to a temporary file in the target directory which is renamed
+	 * to the target when transcoding succeeded. The transcoded file is never
+	 * seen half written, and a failed transcoding leaves no file behind.
+	 */
+	private static void transcode(final String source, final String target) throws EncoderException {
+		final File targetFile = new File(target);
+		final File temporaryFile;
+		try {
+			temporaryFile = File.createTempFile(FileUtils.basename(target) + "_", "."
+					+ FileUtils.extension(target), targetFile.getParentFile());
+		} catch (final IOException e) {
+			throw new EncoderException(e);
 		}
-		
-		public String getBaseName(String md5){
-			return currentFiles.get(md5);
+		// only the unique name is needed, the transcoder creates the file
+		temporaryFile.delete();
+		try {
+			AudioTranscoder.transcode(source, temporaryFile.getPath());
+			if (targetFile.exists() && !targetFile.delete()) {
+				LOG.warning("Could not replace " + target);
+			}
+			if (!temporaryFile.renameTo(targetFile)) {
+				throw new EncoderException("Could not move " + temporaryFile + " to " + target);
+			}
+		} finally {
+			if (temporaryFile.exists() && !temporaryFile.delete()) {
+				temporaryFile.deleteOnExit();
+			}
 		}
 	}
 
-
 	/**
-	 * Create and transcode an audio file.
+	 * Determines where the transcoded version of an audio file goes, without
+	 * transcoding it. The sub folder of the data directory for the file is
+	 * created if it is not already there.
 	 * 
 	 * @param filePath
-	 *            the originalPath for the audio file
-	 * @throws EncoderException
-	 *             If FFMPEG fails to transcode the audio an
-	 *             UnsupportedAudioFileException is generated.
+	 *            The path of the original audio file.
+	 * @return The path of the transcoded audio file.
 	 */
-	public AudioFile(final String filePath) throws EncoderException {
-		this.originalPath = new File(filePath).getAbsolutePath();
-		try{
-			md5 = FileUtils.getMD5Checksum(originalPath).substring(16);
-		}catch(final StringIndexOutOfBoundsException e){
-			md5 = StringUtils.messageDigestFive(originalPath).substring(16);
-		}
-		AudioFileList list = AudioFileList.getInstance();
-		
+	public static String transcodedPathOf(final String filePath) {
+		final String originalPath = new File(filePath).getAbsolutePath();
+		final String md5 = contentIdOf(originalPath);
 
 		// The aim of the MD5 hash is twofold:
 		//
@@ -166,13 +185,9 @@ public final class AudioFile {
 		//    to the system transcoding and analysis is only done one. Even if the
 		//    files have a different name.
 		
-		final String baseName;
-		if(list.containsFile(md5)){
-			baseName = list.getBaseName(md5);
-		} else {
-			// 01. qsdflj.mp3 => 01._qsdfj
-			baseName = FileUtils.basename(StringUtils.sanitize(originalPath));
-		}
+		// 01. qsdflj.mp3 => 01._qsdfj
+		final String baseName = DataDirectoryManifest.getInstance().registerBaseName(md5,
+				FileUtils.basename(StringUtils.sanitize(originalPath)));
 				
 		// Configured data directory
 		final String dataFolder = Configuration.get(ConfKey.data_directory);
@@ -180,31 +195,40 @@ public final class AudioFile {
 		// /01._qsdfj_MD5HASH
 		final String subFolder = baseName + "_" + md5;
 		// create the directory if it is not already there
-		FileUtils.mkdirs(FileUtils.combine(dataFolder, subFolder));
-		// return the name where the transcoded file should go
-		transcodedDirectory = FileUtils.combine(dataFolder, subFolder);
+		final String transcodedDirectory = FileUtils.combine(dataFolder, subFolder);
+		FileUtils.mkdirs(transcodedDirectory);
 				
 		// 01._qsdfj => 01._qsdfj_transcoded.wav
 		final String fileName = baseName + "_transcoded."
 				+ AudioTranscoder.TARGET_ENCODING.getAttributes().getFormat();
 		// return the name where the transcoded file should go
-		transcodedPath = FileUtils.combine(transcodedDirectory, fileName);
-		
-		if (AudioTranscoder.transcodingRequired(transcodedPath())) {
-			try{
-				AudioTranscoder.transcode(filePath, transcodedPath());
-			}catch(EncoderException e){
-				//try to continue if the transcoded file exists
-				LOG.warning("Transcoding probably failed: " + e.getMessage());
-				if(!FileUtils.exists(transcodedPath())){
-					throw e;
-				}
-			}
-		}
-		if(!list.containsFile(md5)){
-			list.addFile(baseName, this);
+		return FileUtils.combine(transcodedDirectory, fileName);
+	}
+
+	/**
+	 * Determines the content identifier of an audio file without transcoding
+	 * it, see {@link #contentId()}.
+	 * 
+	 * @param filePath
+	 *            The path of the audio file.
+	 * @return The identifier of the contents of the file.
+	 */
+	public static String contentIdOf(final String filePath) {
+		final String originalPath = new File(filePath).getAbsolutePath();
+		try{
+			return FileIdentityIndex.getInstance().getChecksum(originalPath).substring(16);
+		}catch(final StringIndexOutOfBoundsException e){
+			return StringUtils.messageDigestFive(originalPath).substring(16);
 		}
-		lengthInMilliSeconds = calculateLengthInMilliSeconds();
+	}
+
+	/**
+	 * @return The identifier of the contents of the file: half of its
+	 *         checksum, also used in the name of its sub folder in the data
+	 *         directory. See {@link DataDirectoryManifest}.
+	 */
+	public String contentId() {
+		return md5;
 	}
 
 	/**
@@ -249,7 +273,8 @@ public final class AudioFile {
 
 	/**
 	 * Returns a list of AudioFiles included in one or more folders. Searches
-	 * recursively.
+	 * recursively. The files are transcoded concurrently, see
+	 * {@link TranscodingService}.
 	 * 
 	 * @param folders
 	 *            The fo
@@ -259,15 +284,22 @@ public final class AudioFile {
 	public static List<AudioFile> audioFiles(final String... folders) {
 		final List<AudioFile> files = new ArrayList<AudioFile>();
 		String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
+		final List<String> audioFiles = new ArrayList<String>();
 		for (final String folder : folders) {
-			List<String> audioFiles = FileUtils.glob(folder, pattern, true);
+			audioFiles.addAll(FileUtils.glob(folder, pattern, true));
+		}
+		final TranscodingService transcoder = new TranscodingService();
+		transcoder.submitAll(audioFiles);
+		try {
 			for (final String originalFile : audioFiles) {
 				try {
-					files.add(new AudioFile(originalFile));
+					files.add(transcoder.get(originalFile));
 				} catch (EncoderException e) {
 					LOG.severe(String.format("Transcoding failed: %s is not supported.", originalFile));
 				}
 			}
+		} finally {
+			transcoder.shutdown();
 		}
 		return files;
 	}
@@ -0,0 +1,215 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Executes a batch of independent tasks (typically one per audio file) on a
+ * fixed number of worker threads. The number of threads is read from
+ * {@link ConfKey#annotation_threads}. Only a bounded number of tasks is in
+ * flight at any time so a batch of tens of thousands of files does not keep
+ * tens of thousands of results in memory.
+ * <p>
+ * Results are handed to a {@link ResultHandler} on the thread that calls
+ * {@link #execute(List, ResultHandler)}, in the order the tasks were given,
+ * even when the tasks finish out of order. This keeps output deterministic and
+ * means the handler does not need to be thread safe. A task that fails does
+ * not stop the batch: its exception is handed to the handler, which reports
+ * it, and the next task is processed.
+ * </p>
+ * <p>
+ * A batch executed by a task of another batch does not start threads of its
+ * own: the workers of the outer batch already keep every processor busy. Its
+ * tasks are executed one after the other on the calling worker thread.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class BatchExecutor {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(BatchExecutor.class.getName());
+
+	/**
+	 * The maximum number of tasks in flight, per thread.
+	 */
+	private static final int TASKS_PER_THREAD = 4;
+
+	/**
+	 * True on the worker threads of a batch.
+	 */
+	private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<Boolean>();
+
+	/**
+	 * Receives the results of a batch, in order.
+	 * 
+	 * @param <T>
+	 *            The type of the result of each task.
+	 */
+	public interface ResultHandler<T> {
+		/**
+		 * Called when the task with the given index finished successfully.
+		 * 
+		 * @param index
+		 *            The index of the task in the list of tasks.
+		 * @param result
+		 *            The result of the task.
+		 */
+		void handleResult(int index, T result);
+
+		/**
+		 * Called when the task with the given index failed.
+		 * 
+		 * @param index
+		 *            The index of the task in the list of tasks.
+		 * @param cause
+		 *            The reason why the task failed.
+		 */
+		void handleFailure(int index, Throwable cause);
+	}
+
+	private final int numberOfThreads;
+
+	/**
+	 * Creates a batch executor with the configured number of threads.
+	 */
+	public BatchExecutor() {
+		this(Configuration.getInt(ConfKey.annotation_threads));
+	}
+
+	/**
+	 * Creates a batch executor with a number of threads.
+	 * 
+	 * @param threads
+	 *            The number of worker threads, values smaller than one are
+	 *            treated as one.
+	 */
+	public BatchExecutor(final int threads) {
+		numberOfThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * @return The number of worker threads.
+	 */
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * @return True if the current thread is a worker thread of a batch, work
+	 *         that would be split over several threads is better done on the
+	 *         current thread.
+	 */
+	public static boolean isWorkerThread() {
+		return Boolean.TRUE.equals(WORKER.get());
+	}
+
+	/**
+	 * Executes a list of tasks and blocks until every result is handled.
+	 * 
+	 * @param <T>
+	 *            The type of the result of each task.
+	 * @param tasks
+	 *            The tasks to execute.
+	 * @param handler
+	 *            Receives the results in the order of the tasks.
+	 */
+	public <T> void execute(final List<? extends Callable<T>> tasks, final ResultHandler<T> handler) {
+		if (isWorkerThread()) {
+			executeOnCurrentThread(tasks, handler);
+			return;
+		}
+		final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(new Runnable() {
+					public void run() {
+						WORKER.set(Boolean.TRUE);
+						runnable.run();
+					}
+				}, "Tarsos batch worker " + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final int maxInFlight = numberOfThreads * TASKS_PER_THREAD;
+		final LinkedList<Future<T>> inFlight = new LinkedList<Future<T>>();
+		int submitted = 0;
+		int handled = 0;
+		try {
+			while (handled < tasks.size()) {
+				// keep the workers busy while waiting for the oldest task
+				while (submitted < tasks.size() && inFlight.size() < maxInFlight) {
+					inFlight.add(service.submit(tasks.get(submitted)));
+					submitted++;
+				}
+				final Future<T> oldest = inFlight.removeFirst();
+				try {
+					final T result = oldest.get();
+					handler.handleResult(handled, result);
+				} catch (final ExecutionException e) {
+					handler.handleFailure(handled, e.getCause());
+				}
+				handled++;
+			}
+		} catch (final InterruptedException e) {
+			LOG.warning("Batch interrupted after " + handled + " of " + tasks.size() + " tasks.");
+			Thread.currentThread().interrupt();
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	/**
+	 * Executes the tasks of a nested batch in order, on the current thread.
+	 */
+	private <T> void executeOnCurrentThread(final List<? extends Callable<T>> tasks, final ResultHandler<T> handler) {
+		for (int index = 0; index < tasks.size(); index++) {
+			final T result;
+			try {
+				result = tasks.get(index).call();
+			} catch (final Exception e) {
+				handler.handleFailure(index, e);
+				continue;
+			}
+			handler.handleResult(index, result);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+
+/**
+ * Computes the circular cross-correlation of two profiles for every shift at
+ * once. The correlation for shift <code>s</code> is the sum of
+ * <code>first[i] * other[(i + s) % n]</code> over all <code>i</code>. Trying
+ * every shift directly takes n² multiplications, here it is done in O(n log n)
+ * by multiplying the spectra of both profiles.
+ * <p>
+ * The spectrum of a profile does not depend on the profile it is compared with
+ * so it can be computed once and reused for a batch of comparisons, see
+ * {@link #spectrum(double[])}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class CircularCorrelation {
+
+	/**
+	 * The FFT plans, per size. Computing a plan is expensive, transforming
+	 * data with it is thread safe.
+	 */
+	private static final Map<Integer, DoubleFFT_1D> PLANS = new HashMap<Integer, DoubleFFT_1D>();
+
+	private CircularCorrelation() {
+	}
+
+	private static DoubleFFT_1D plan(final int size) {
+		synchronized (PLANS) {
+			DoubleFFT_1D plan = PLANS.get(size);
+			if (plan == null) {
+				plan = new DoubleFFT_1D(size);
+				PLANS.put(size, plan);
+			}
+			return plan;
+		}
+	}
+
+	/**
+	 * Computes the spectrum of a profile.
+	 * 
+	 * @param profile
+	 *            The profile, e.g. the counts of a pitch class histogram. It is
+	 *            not changed.
+	 * @return The spectrum of the profile, in the packed format of
+	 *         {@link DoubleFFT_1D#realForward(double[])}. Do not change it, it
+	 *         is meant to be cached.
+	 */
+	public static double[] spectrum(final double[] profile) {
+		final double[] spectrum = profile.clone();
+		plan(spectrum.length).realForward(spectrum);
+		return spectrum;
+	}
+
+	/**
+	 * Computes the circular cross-correlation of two profiles for every shift.
+	 * 
+	 * @param firstSpectrum
+	 *            The spectrum of the first profile.
+	 * @param otherSpectrum
+	 *            The spectrum of the other profile, with the same size.
+	 * @return An array with, for each shift <code>s</code>, the sum of
+	 *         <code>first[i] * other[(i + s) % n]</code>.
+	 */
+	public static double[] correlate(final double[] firstSpectrum, final double[] otherSpectrum) {
+		final int size = firstSpectrum.length;
+		if (otherSpectrum.length != size) {
+			throw new IllegalArgumentException("Both spectra should have the same size: " + size + " != "
+					+ otherSpectrum.length);
+		}
+		// the product of the complex conjugate of the first spectrum with the
+		// other spectrum is the spectrum of the correlation
+		final double[] product = new double[size];
+		product[0] = firstSpectrum[0] * otherSpectrum[0];
+		final int complexBins;
+		if (size % 2 == 0) {
+			// the real value at the Nyquist frequency
+			product[1] = firstSpectrum[1] * otherSpectrum[1];
+			complexBins = size / 2;
+		} else {
+			complexBins = (size + 1) / 2;
+		}
+		for (int k = 1; k < complexBins; k++) {
+			final int re = 2 * k;
+			// for an odd size the imaginary part of the last bin is packed
+			// at index 1
+			final int im = re + 1 < size ? re + 1 : 1;
+			final double firstRe = firstSpectrum[re];
+			final double firstIm = firstSpectrum[im];
+			final double otherRe = otherSpectrum[re];
+			final double otherIm = otherSpectrum[im];
+			product[re] = firstRe * otherRe + firstIm * otherIm;
+			product[im] = firstRe * otherIm - firstIm * otherRe;
+		}
+		plan(size).realInverse(product, true);
+		return product;
+	}
+
+	/**
+	 * Returns the index of the first maximum, the same index a search that
+	 * tries each index in order and keeps the first best value finds.
+	 * 
+	 * @param values
+	 *            The values, e.g. correlations for each shift.
+	 * @param lowerBound
+	 *            Only values bigger than this bound count as a maximum.
+	 * @param tolerance
+	 *            Values that differ less than this (relative) tolerance from
+	 *            the maximum are considered equal to it. FFT based
+	 *            correlations have small rounding errors so two shifts with
+	 *            the same correlation are not exactly equal.
+	 * @return The index of the first maximum or 0 if there are no values
+	 *         bigger than the lower bound.
+	 */
+	public static int indexOfMaximum(final double[] values, final double lowerBound, final double tolerance) {
+		double maximum = lowerBound;
+		for (final double value : values) {
+			maximum = Math.max(maximum, value);
+		}
+		int index = 0;
+		if (maximum > lowerBound) {
+			final double threshold = maximum - Math.abs(maximum) * tolerance;
+			while (values[index] < threshold || values[index] <= lowerBound) {
+				index++;
+			}
+		}
+		return index;
+	}
+}
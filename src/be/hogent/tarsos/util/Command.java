@@ -28,6 +28,7 @@ package be.hogent.tarsos.util;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -36,6 +37,7 @@ import java.util.logging.Logger;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.LogOutputStream;
 import org.apache.commons.exec.PumpStreamHandler;
 
 
@@ -77,12 +79,50 @@ public class Command {
 		return this;
 	}
 	
+	/**
+	 * Reacts to the lines a command writes on standard output.
+	 */
+	public interface OutputLineHandler {
+		/**
+		 * Called for each line written on standard output.
+		 * 
+		 * @param line
+		 *            The line without line terminator.
+		 */
+		void handleLine(String line);
+	}
+	
 	/**
 	 * Executes the command.
 	 * @return The messages written on standard output.
 	 * @throws IOException
 	 */
 	public String execute() throws IOException {
+		final ByteArrayOutputStream out =  new ByteArrayOutputStream();
+		execute(out);
+		return out.toString();	
+	}
+	
+	/**
+	 * Executes the command and hands each line written on standard output to
+	 * a handler while the command runs. The output is not kept in memory.
+	 * 
+	 * @param handler
+	 *            The handler for each line of output.
+	 * @throws IOException
+	 */
+	public void execute(final OutputLineHandler handler) throws IOException {
+		final LogOutputStream out = new LogOutputStream() {
+			@Override
+			protected void processLine(final String line, final int level) {
+				handler.handleLine(line);
+			}
+		};
+		execute(out);
+		out.close();
+	}
+	
+	private void execute(final OutputStream out) throws IOException {
 		
 		CommandLine cmdLine = new CommandLine(commandName);
 		
@@ -108,7 +148,6 @@ public class Command {
 		//15 minutes wait
 		ExecuteWatchdog watchdog = new ExecuteWatchdog(60 * 1000 * 15);
 		executor.setWatchdog(watchdog);
-		final ByteArrayOutputStream out =  new ByteArrayOutputStream();
 		final PumpStreamHandler pump = new PumpStreamHandler(out);
 		executor.setStreamHandler(pump);
 		executor.setExitValue(0);
@@ -116,7 +155,6 @@ public class Command {
 		LOG.fine("Execute " + commandName + "  " + cmdLine.toString());
 		executor.execute(cmdLine);
 		LOG.info("Executing " + commandName + " finished in " + w.formattedToString());
-		return out.toString();	
 	}
 
 }
@@ -79,6 +79,14 @@ public enum ConfKey {
 	 * skipped for performance reasons.
 	 */
 	transcode_check_format,
+
+	/**
+	 * The ffmpeg executable used to decode audio straight into the pure Java
+	 * pitch detectors, without waiting for a transcoded file. See the
+	 * <code>--stream</code> option of <code>detect_pitch</code>. The default
+	 * is <code>ffmpeg</code>, found on the path.
+	 */
+	ffmpeg_executable,
 	
 	/**
 	 * The pitch trackers currently in use.
@@ -112,6 +120,38 @@ public enum ConfKey {
 	 */
 	annotation_threads,
 
+	/**
+	 * Defines the number of files that are transcoded concurrently while a
+	 * batch of files is analysed. Transcoding runs ahead of the analysis, in
+	 * the order the files are needed. The default is 2.
+	 */
+	transcoding_threads,
+
+	/**
+	 * The length, in seconds, of the segments a long audio file is split into.
+	 * The segments are analysed concurrently by the pure Java pitch
+	 * detectors, using <code>annotation_threads</code> threads. Files shorter
+	 * than two segments are analysed front to back. The default is 0, which
+	 * disables splitting.
+	 */
+	pitch_detection_segment_length,
+
+	/**
+	 * Annotations of a pitch detector are cached in a compact binary format.
+	 * If this is true the annotations are also exported as a CSV text file next
+	 * to the binary cache. The default is false.
+	 */
+	annotation_cache_csv_export,
+
+	/**
+	 * Audio files are identified by a checksum which is stored, together with
+	 * the size and modification time of the file, so unchanged files are not
+	 * read again. If this is true the checksum of each known file is verified
+	 * on a background thread and corrected if the file changed without a
+	 * change in size or modification time. The default is false.
+	 */
+	file_identity_verification,
+
 	/**
 	 * If a filename matches this regular expression pattern it is an audio
 	 * file. <br>
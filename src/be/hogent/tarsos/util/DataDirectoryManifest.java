@@ -0,0 +1,439 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Describes the contents of the data directory: for each analysed audio file,
+ * identified by (half of) its checksum, the name of its sub folder, the
+ * length and sample rate of the transcoded file and the names of the cached
+ * artifacts (annotations, ...) in the sub folder. Opening a known file needs
+ * neither a scan of the data directory nor reading the transcoded file.
+ * <p>
+ * The manifest is an append-only log in the data directory: a change to an
+ * entry appends the complete entry, the last record of an entry wins. The file
+ * starts with the magic number <code>TMAN</code> and a format version. Each
+ * record is the length of its payload, a CRC32 checksum of the payload and the
+ * payload. A record that is incomplete or does not match its checksum, e.g.
+ * after a crash, ends the log: it is cut off when the manifest is read. The
+ * log is compacted when it holds many replaced records. If there is no
+ * manifest yet, it is created once by scanning the data directory.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class DataDirectoryManifest {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(DataDirectoryManifest.class.getName());
+
+	/**
+	 * The magic number at the start of each file: TMAN in ASCII.
+	 */
+	private static final int MAGIC = 0x544D414E;
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	private static final short VERSION = 1;
+
+	/**
+	 * The size of the magic number and the version.
+	 */
+	private static final int HEADER_SIZE = 6;
+
+	/**
+	 * The maximum size of the payload of a record.
+	 */
+	private static final int MAXIMUM_RECORD_SIZE = 1 << 20;
+
+	/**
+	 * The name of the manifest in the data directory.
+	 */
+	private static final String FILE_NAME = "manifest.log";
+
+	/**
+	 * The log is compacted when it holds this many more records than entries.
+	 */
+	private static final int MAXIMUM_REPLACED_RECORDS = 1000;
+
+	/**
+	 * The length of the identifier at the end of the name of each sub folder.
+	 */
+	private static final int ID_LENGTH = 16;
+
+	private static final Map<String, DataDirectoryManifest> INSTANCES = new HashMap<String, DataDirectoryManifest>();
+
+	private final String dataDirectory;
+	private final File file;
+	private final Map<String, Entry> entries;
+
+	/**
+	 * What is known about one audio file.
+	 */
+	private static final class Entry {
+		private final String baseName;
+		private long lengthInMilliSeconds = -1;
+		private float sampleRate = -1;
+		private final Set<String> artifacts = new LinkedHashSet<String>();
+
+		private Entry(final String name) {
+			baseName = name;
+		}
+	}
+
+	private DataDirectoryManifest(final String directory) {
+		dataDirectory = directory;
+		file = new File(FileUtils.combine(directory, FILE_NAME));
+		entries = new HashMap<String, Entry>();
+		if (file.exists()) {
+			read();
+		} else {
+			scan();
+		}
+	}
+
+	/**
+	 * @return The manifest of the configured data directory, read when it is
+	 *         first needed.
+	 */
+	public static synchronized DataDirectoryManifest getInstance() {
+		final String directory = Configuration.get(ConfKey.data_directory);
+		DataDirectoryManifest manifest = INSTANCES.get(directory);
+		if (manifest == null) {
+			manifest = new DataDirectoryManifest(directory);
+			INSTANCES.put(directory, manifest);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Returns the name registered for an identifier. If the identifier is not
+	 * known yet the candidate name is registered first. Checking and
+	 * registering is atomic so files analysed concurrently agree on one name.
+	 * 
+	 * @param id
+	 *            The identifier of the file.
+	 * @param candidate
+	 *            The name to use if the identifier is not known.
+	 * @return The name registered for the identifier.
+	 */
+	public synchronized String registerBaseName(final String id, final String candidate) {
+		Entry entry = entries.get(id);
+		if (entry == null) {
+			entry = new Entry(candidate);
+			entries.put(id, entry);
+			append(id, entry);
+		}
+		return entry.baseName;
+	}
+
+	/**
+	 * @param id
+	 *            The identifier of a file.
+	 * @return The length of the transcoded file in milliseconds, -1 if it is
+	 *         not known.
+	 */
+	public synchronized long getLengthInMilliSeconds(final String id) {
+		final Entry entry = entries.get(id);
+		return entry == null ? -1 : entry.lengthInMilliSeconds;
+	}
+
+	/**
+	 * Stores the length and sample rate of a transcoded file.
+	 * 
+	 * @param id
+	 *            The identifier of a registered file.
+	 * @param lengthInMilliSeconds
+	 *            The length of the transcoded file.
+	 * @param sampleRate
+	 *            The sample rate of the transcoded file.
+	 */
+	public synchronized void setAudioInfo(final String id, final long lengthInMilliSeconds, final float sampleRate) {
+		final Entry entry = entries.get(id);
+		if (entry != null && (entry.lengthInMilliSeconds != lengthInMilliSeconds || entry.sampleRate != sampleRate)) {
+			entry.lengthInMilliSeconds = lengthInMilliSeconds;
+			entry.sampleRate = sampleRate;
+			append(id, entry);
+		}
+	}
+
+	/**
+	 * @param id
+	 *            The identifier of a file.
+	 * @param artifact
+	 *            The name of an artifact in the sub folder of the file.
+	 * @return True if the artifact is registered. The file itself is not
+	 *         checked: it can be removed without Tarsos knowing.
+	 */
+	public synchronized boolean hasArtifact(final String id, final String artifact) {
+		final Entry entry = entries.get(id);
+		return entry != null && entry.artifacts.contains(artifact);
+	}
+
+	/**
+	 * Registers a cached artifact.
+	 * 
+	 * @param id
+	 *            The identifier of a registered file.
+	 * @param artifact
+	 *            The name of the artifact in the sub folder of the file.
+	 */
+	public synchronized void addArtifact(final String id, final String artifact) {
+		final Entry entry = entries.get(id);
+		if (entry != null && entry.artifacts.add(artifact)) {
+			append(id, entry);
+		}
+	}
+
+	/**
+	 * Removes a cached artifact, e.g. after it is deleted.
+	 * 
+	 * @param id
+	 *            The identifier of a registered file.
+	 * @param artifact
+	 *            The name of the artifact in the sub folder of the file.
+	 */
+	public synchronized void removeArtifact(final String id, final String artifact) {
+		final Entry entry = entries.get(id);
+		if (entry != null && entry.artifacts.remove(artifact)) {
+			append(id, entry);
+		}
+	}
+
+	/**
+	 * Appends an entry to the log. A failure is logged, the entry is then only
+	 * known until the program stops.
+	 */
+	private void append(final String id, final Entry entry) {
+		try {
+			if (!file.exists()) {
+				writeHeader(new FileOutputStream(file));
+			}
+			final OutputStream output = new FileOutputStream(file, true);
+			try {
+				output.write(record(id, entry));
+			} finally {
+				output.close();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not update the manifest " + file, e);
+		}
+	}
+
+	private static void writeHeader(final OutputStream stream) throws IOException {
+		final DataOutputStream output = new DataOutputStream(stream);
+		try {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * @return The length, checksum and payload of the record of an entry.
+	 */
+	private static byte[] record(final String id, final Entry entry) throws IOException {
+		final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+		final DataOutputStream payload = new DataOutputStream(payloadBytes);
+		payload.writeUTF(id);
+		payload.writeUTF(entry.baseName);
+		payload.writeLong(entry.lengthInMilliSeconds);
+		payload.writeFloat(entry.sampleRate);
+		payload.writeInt(entry.artifacts.size());
+		for (final String artifact : entry.artifacts) {
+			payload.writeUTF(artifact);
+		}
+		payload.close();
+		final byte[] bytes = payloadBytes.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(bytes.length + 8);
+		final DataOutputStream record = new DataOutputStream(recordBytes);
+		record.writeInt(bytes.length);
+		record.writeInt((int) crc.getValue());
+		record.write(bytes);
+		record.close();
+		return recordBytes.toByteArray();
+	}
+
+	/**
+	 * Reads the log, cuts off an incomplete or corrupt end and compacts the
+	 * log if needed.
+	 */
+	private void read() {
+		long validLength = 0;
+		int records = 0;
+		try {
+			final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (input.readInt() != MAGIC || input.readShort() != VERSION) {
+					throw new IOException(file + " is not a manifest of a supported version.");
+				}
+				validLength = HEADER_SIZE;
+				while (true) {
+					final int length = input.readInt();
+					final int checksum = input.readInt();
+					if (length < 0 || length > MAXIMUM_RECORD_SIZE) {
+						break;
+					}
+					final byte[] bytes = new byte[length];
+					input.readFully(bytes);
+					final CRC32 crc = new CRC32();
+					crc.update(bytes);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+					readEntry(bytes);
+					validLength += 8 + length;
+					records++;
+				}
+			} catch (final EOFException e) {
+				// the end of the log, possibly an incomplete record
+			} finally {
+				input.close();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read the manifest " + file + ", the data directory is scanned.", e);
+			entries.clear();
+			scan();
+			return;
+		}
+		if (validLength < file.length()) {
+			LOG.warning(String.format("Removed %s bytes at the end of the manifest %s: an incomplete record.",
+					file.length() - validLength, file));
+			truncate(validLength);
+		}
+		if (records > entries.size() + MAXIMUM_REPLACED_RECORDS) {
+			compact();
+		}
+	}
+
+	private void readEntry(final byte[] bytes) throws IOException {
+		final DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+		final String id = payload.readUTF();
+		final Entry entry = new Entry(payload.readUTF());
+		entry.lengthInMilliSeconds = payload.readLong();
+		entry.sampleRate = payload.readFloat();
+		final int artifacts = payload.readInt();
+		for (int i = 0; i < artifacts; i++) {
+			entry.artifacts.add(payload.readUTF());
+		}
+		entries.put(id, entry);
+	}
+
+	private void truncate(final long validLength) {
+		try {
+			final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				randomAccessFile.setLength(validLength);
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not repair the manifest " + file, e);
+		}
+	}
+
+	/**
+	 * Creates the entries from the sub folders of the data directory, as
+	 * written by previous versions, and writes a new manifest.
+	 */
+	private void scan() {
+		final File[] children = new File(dataDirectory).listFiles(new FileFilter() {
+			public boolean accept(final File pathname) {
+				return pathname.isDirectory() && pathname.getName().length() > ID_LENGTH + 1;
+			}
+		});
+		if (children != null) {
+			for (final File child : children) {
+				final String childFileName = child.getName();
+				final String id = childFileName.substring(childFileName.length() - ID_LENGTH);
+				final Entry entry = new Entry(childFileName.substring(0, childFileName.length() - ID_LENGTH - 1));
+				final String[] artifacts = child.list();
+				if (artifacts != null) {
+					for (final String artifact : artifacts) {
+						entry.artifacts.add(artifact);
+					}
+				}
+				entries.put(id, entry);
+			}
+			LOG.info(String.format("Found %s analysed files in %s", entries.size(), dataDirectory));
+		}
+		compact();
+	}
+
+	/**
+	 * Writes a log with one record per entry, replacing the current log only
+	 * when it is complete.
+	 */
+	private void compact() {
+		final File partialFile = new File(file.getPath() + ".part");
+		try {
+			final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+					partialFile)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeShort(VERSION);
+				for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+					output.write(record(entry.getKey(), entry.getValue()));
+				}
+			} finally {
+				output.close();
+			}
+			if (file.exists() && !file.delete() || !partialFile.renameTo(file)) {
+				throw new IOException("Could not move " + partialFile + " to " + file);
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not write the manifest " + file, e);
+		}
+	}
+}
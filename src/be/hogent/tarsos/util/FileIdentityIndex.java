@@ -0,0 +1,315 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the checksum of audio files, see
+ * {@link FileUtils#getMD5Checksum(String)}, together with the size and
+ * modification time of each file. If a file has the same size and
+ * modification time as when its checksum was calculated, its checksum is
+ * returned without reading the file. This matters for large files on network
+ * storage: opening a file that is already transcoded and analysed does not
+ * read any of its bytes.
+ * <p>
+ * The checksums are kept in a text file in the data directory, one line per
+ * file with the size, modification time, the time the checksum was calculated,
+ * the checksum and the absolute path, separated by semicolons. New checksums
+ * are appended; when the file is read a later line for a path replaces an
+ * earlier one and the file is compacted if it holds many replaced lines. An
+ * incomplete last line (e.g. after a crash) is ignored, the next checksum is
+ * appended on a new line.
+ * </p>
+ * <p>
+ * A file changed within a short interval after its checksum was calculated
+ * could keep its modification time, such checksums are not trusted and
+ * calculated again. If {@link ConfKey#file_identity_verification} is set,
+ * each checksum returned from the index is also verified on a background
+ * thread and corrected for the next time if the file changed.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class FileIdentityIndex {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(FileIdentityIndex.class.getName());
+
+	/**
+	 * The name of the file with checksums in the data directory.
+	 */
+	private static final String FILE_NAME = "file_identities.txt";
+
+	/**
+	 * Checksums calculated within this number of milliseconds after the last
+	 * modification of a file are not trusted: the resolution of modification
+	 * times is as coarse as two seconds on some file systems.
+	 */
+	private static final long RACY_INTERVAL = 2000;
+
+	/**
+	 * The file is compacted when it holds this many more lines than files.
+	 */
+	private static final int MAXIMUM_REPLACED_LINES = 1000;
+
+	private static final Map<String, FileIdentityIndex> INSTANCES = new HashMap<String, FileIdentityIndex>();
+
+	private static ExecutorService verifier;
+
+	private final File file;
+	private final Map<String, Identity> identities;
+
+	/**
+	 * The checksum of a file and when it was calculated.
+	 */
+	private static final class Identity {
+		private final long length;
+		private final long lastModified;
+		private final long calculated;
+		private final String checksum;
+
+		private Identity(final long fileLength, final long fileLastModified, final long calculatedAt,
+				final String fileChecksum) {
+			length = fileLength;
+			lastModified = fileLastModified;
+			calculated = calculatedAt;
+			checksum = fileChecksum;
+		}
+
+		private boolean matches(final File audioFile) {
+			return audioFile.length() == length && audioFile.lastModified() == lastModified
+					&& calculated - lastModified >= RACY_INTERVAL;
+		}
+	}
+
+	private FileIdentityIndex(final File indexFile) {
+		file = indexFile;
+		identities = new HashMap<String, Identity>();
+		read();
+	}
+
+	/**
+	 * @return The index of the configured data directory.
+	 */
+	public static synchronized FileIdentityIndex getInstance() {
+		final String dataDirectory = Configuration.get(ConfKey.data_directory);
+		FileIdentityIndex index = INSTANCES.get(dataDirectory);
+		if (index == null) {
+			index = new FileIdentityIndex(new File(FileUtils.combine(dataDirectory, FILE_NAME)));
+			INSTANCES.put(dataDirectory, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the checksum of a file, see
+	 * {@link FileUtils#getMD5Checksum(String)}. The file is only read if it is
+	 * not in the index or if it changed since its checksum was calculated.
+	 * 
+	 * @param absolutePath
+	 *            The absolute path of the file.
+	 * @return The checksum or an empty string if the file could not be read.
+	 */
+	public String getChecksum(final String absolutePath) {
+		final File audioFile = new File(absolutePath);
+		final Identity known;
+		synchronized (this) {
+			known = identities.get(absolutePath);
+		}
+		final String checksum;
+		if (known != null && known.matches(audioFile)) {
+			checksum = known.checksum;
+			if (Configuration.getBoolean(ConfKey.file_identity_verification)) {
+				verify(absolutePath, known);
+			}
+		} else {
+			checksum = calculate(absolutePath);
+		}
+		return checksum;
+	}
+
+	/**
+	 * Calculates the checksum of a file and stores it.
+	 */
+	private String calculate(final String absolutePath) {
+		final File audioFile = new File(absolutePath);
+		final long length = audioFile.length();
+		final long lastModified = audioFile.lastModified();
+		final long calculated = System.currentTimeMillis();
+		final String checksum = FileUtils.getMD5Checksum(absolutePath);
+		if (checksum.length() > 0 && absolutePath.indexOf('\n') < 0) {
+			store(absolutePath, new Identity(length, lastModified, calculated, checksum));
+		}
+		return checksum;
+	}
+
+	/**
+	 * Calculates the checksum of a file again on a background thread.
+	 */
+	private void verify(final String absolutePath, final Identity known) {
+		synchronized (FileIdentityIndex.class) {
+			if (verifier == null) {
+				verifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "File identity verifier");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+			}
+		}
+		verifier.execute(new Runnable() {
+			public void run() {
+				final String checksum = FileUtils.getMD5Checksum(absolutePath);
+				if (checksum.length() > 0 && !checksum.equals(known.checksum)) {
+					LOG.warning(String.format("%s changed without a change in size or modification time, "
+							+ "its checksum is corrected.", absolutePath));
+					store(absolutePath, new Identity(known.length, known.lastModified, known.calculated, checksum));
+				}
+			}
+		});
+	}
+
+	private synchronized void store(final String absolutePath, final Identity identity) {
+		identities.put(absolutePath, identity);
+		try {
+			final boolean torn = !endsWithNewline();
+			final Writer writer = new FileWriter(file, true);
+			try {
+				if (torn) {
+					// do not append to an incomplete last line
+					writer.write("\n");
+				}
+				writer.write(line(absolutePath, identity));
+			} finally {
+				writer.close();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not store the checksum of " + absolutePath + " in " + file, e);
+		}
+	}
+
+	/**
+	 * @return True if the file is empty, does not exist or ends with a line
+	 *         separator.
+	 */
+	private boolean endsWithNewline() throws IOException {
+		if (file.length() == 0) {
+			return true;
+		}
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			randomAccessFile.seek(randomAccessFile.length() - 1);
+			return randomAccessFile.read() == '\n';
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static String line(final String absolutePath, final Identity identity) {
+		return identity.length + ";" + identity.lastModified + ";" + identity.calculated + ";" + identity.checksum
+				+ ";" + absolutePath + "\n";
+	}
+
+	/**
+	 * Reads the stored checksums and compacts the file if needed.
+	 */
+	private synchronized void read() {
+		if (!file.exists()) {
+			return;
+		}
+		int lines = 0;
+		try {
+			final BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line = reader.readLine();
+				while (line != null) {
+					final String[] fields = line.split(";", 5);
+					if (fields.length == 5) {
+						try {
+							identities.put(fields[4], new Identity(Long.parseLong(fields[0]),
+									Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+							lines++;
+						} catch (final NumberFormatException e) {
+							LOG.fine("Ignored an invalid line in " + file + ": " + line);
+						}
+					}
+					line = reader.readLine();
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read the checksums in " + file, e);
+		}
+		if (lines > identities.size() + MAXIMUM_REPLACED_LINES) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrites the file with one line per path.
+	 */
+	private void compact() {
+		final File partialFile = new File(file.getPath() + ".part");
+		try {
+			final Writer writer = new BufferedWriter(new FileWriter(partialFile));
+			try {
+				for (final Map.Entry<String, Identity> entry : identities.entrySet()) {
+					writer.write(line(entry.getKey(), entry.getValue()));
+				}
+			} finally {
+				writer.close();
+			}
+			if (file.delete() && partialFile.renameTo(file)) {
+				LOG.fine("Compacted " + file);
+			} else {
+				LOG.warning("Could not replace " + file + " with the compacted " + partialFile);
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not compact " + file, e);
+		}
+	}
+}
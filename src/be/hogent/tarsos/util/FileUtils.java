@@ -62,6 +62,7 @@ import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteException;
 
 import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationHandler;
 import be.hogent.tarsos.sampled.pitch.Pitch;
 import be.hogent.tarsos.sampled.pitch.PitchDetectionMode;
 import be.hogent.tarsos.sampled.pitch.PitchUnit;
@@ -112,9 +113,14 @@ public final class FileUtils {
 		return samples;
 	}
 
+	/**
+	 * The first line of a file with pitch annotations.
+	 */
+	public static final String PITCH_ANNOTATIONS_HEADER = "Start(s),Pitch(Hz),Probability[0-1.0],Source\n";
+
 	public static void writePitchAnnotations(final String fileName, final List<Annotation> samples) {
 		StringBuilder sb = new StringBuilder();
-		sb.append("Start(s),Pitch(Hz),Probability[0-1.0],Source\n");
+		sb.append(PITCH_ANNOTATIONS_HEADER);
 		for (Annotation s : samples) {
 			sb.append(s.toString()).append("\n");
 		}
@@ -123,15 +129,49 @@ public final class FileUtils {
 
 	public static List<Annotation> readPitchAnnotations(final String fileName) {
 		final List<Annotation> annotations = new ArrayList<Annotation>();
-		final String contents = FileUtils.readFile(fileName);
-		final String[] lines = contents.split("\n");
-		// Skip the first line, the header.
-		for (int i = 1; i < lines.length; i++) {
-			annotations.add(Annotation.parse(lines[i]));
-		}
+		readPitchAnnotations(fileName, new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				annotations.add(annotation);
+			}
+		});
 		return annotations;
 	}
 
+	/**
+	 * Reads a file with pitch annotations line by line and hands each
+	 * annotation to a handler. The contents of the file are not kept in memory.
+	 * 
+	 * @param fileName
+	 *            The file written by {@link #writePitchAnnotations(String, List)}.
+	 * @param handler
+	 *            Receives the annotations in the order of the file.
+	 */
+	public static void readPitchAnnotations(final String fileName, final AnnotationHandler handler) {
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(fileName));
+			// Skip the first line, the header.
+			String line = in.readLine();
+			line = in.readLine();
+			while (line != null) {
+				if (line.length() > 0) {
+					handler.handleAnnotation(Annotation.parse(line));
+				}
+				line = in.readLine();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not read annotations from " + fileName, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Could not close " + fileName, e);
+				}
+			}
+		}
+	}
+
 	public static String temporaryDirectory() {
 		final String tempDir = System.getProperty("java.io.tmpdir");
 		if (tempDir.contains(" ")) {
@@ -447,6 +487,42 @@ public final class FileUtils {
 	public static List<String[]> readCSVFile(final String fileName, final String separator,
 			final int expectedColumns) {
 		final List<String[]> data = new ArrayList<String[]>();
+		readCSVFile(fileName, separator, expectedColumns, new RowHandler() {
+			public void handleRow(final String[] row) {
+				data.add(row);
+			}
+		});
+		return data;
+	}
+
+	/**
+	 * Reacts to the rows of a CSV file.
+	 */
+	public interface RowHandler {
+		/**
+		 * @param row
+		 *            The columns of one row.
+		 */
+		void handleRow(String[] row);
+	}
+
+	/**
+	 * Reads a CSV file row by row and hands each row to a handler. The contents
+	 * of the file are not kept in memory.
+	 * 
+	 * @param fileName
+	 *            The name of the file.
+	 * @param separator
+	 *            The separator used to split the columns.
+	 * @param expectedColumns
+	 *            The expected number of columns, user -1 if the number is
+	 *            unknown. An exception is thrown if there is a row with an
+	 *            unexpected row length.
+	 * @param handler
+	 *            Receives each row.
+	 */
+	public static void readCSVFile(final String fileName, final String separator,
+			final int expectedColumns, final RowHandler handler) {
 		FileReader fileReader = null;
 
 		try {
@@ -463,7 +539,7 @@ public final class FileUtils {
 				lineNumber++;
 				final String[] row = inputLine.split(separator);
 				if (expectedColumns == -1 || expectedColumns == row.length) {
-					data.add(row);
+					handler.handleRow(row);
 				} else {
 					throw new AssertionError("Unexpected row length (line " + lineNumber + " ). "
 							+ "Expected:" + expectedColumns + " real " + row.length
@@ -475,7 +551,6 @@ public final class FileUtils {
 		} catch (final IOException i1) {
 			LOG.severe("Can't open file:" + fileName);
 		}
-		return data;
 	}
 
 	public interface RowFilter {
@@ -0,0 +1,310 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+/**
+ * Smooths a series of values with a Gaussian. The values are either wrapped,
+ * e.g. pitch classes where the last bin is next to the first, or clipped:
+ * near the edges the smoothed value is the weighted mean of the values inside
+ * the series.
+ * <p>
+ * Narrow kernels are applied by direct convolution with a Gaussian truncated
+ * at 2.58 standard deviations. The cost of a direct convolution grows with the
+ * width of the kernel, wide kernels are applied with the recursive filter of
+ * Young and van Vliet instead: a forward and a backward pass of a third order
+ * filter, the cost per value does not depend on the width. The recursive
+ * filter approximates the Gaussian within a few percent.
+ * </p>
+ * <p>
+ * An exact smoother reproduces the convolution Tarsos has always used: its
+ * window is clipped at the edges, also for wrapped values, and it stops one
+ * weight short of the end of the kernel.
+ * </p>
+ * <p>
+ * See I.T. Young and L.J. van Vliet, <em>Recursive implementation of the
+ * Gaussian filter</em>, Signal Processing 44 (1995).
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class GaussianSmoother {
+
+	/**
+	 * The number of weights up to which the direct convolution is used.
+	 */
+	private static final int MAXIMUM_DIRECT_WEIGHTS = 31;
+
+	/**
+	 * The recursive filter is started this many standard deviations before
+	 * the first value, its response has decayed there.
+	 */
+	private static final double RECURSIVE_MARGIN = 6.0;
+
+	private final double standardDeviation;
+	private final double[] weights;
+	private final boolean recursive;
+	private final boolean exact;
+
+	/**
+	 * Creates a smoother that uses the recursive filter for wide kernels.
+	 * 
+	 * @param deviation
+	 *            The standard deviation of the Gaussian, in bins. It must be
+	 *            non-negative, zero leaves the values unchanged.
+	 */
+	public GaussianSmoother(final double deviation) {
+		this(deviation, false);
+	}
+
+	/**
+	 * Creates a smoother.
+	 * 
+	 * @param deviation
+	 *            The standard deviation of the Gaussian, in bins. It must be
+	 *            non-negative, zero leaves the values unchanged.
+	 * @param exact
+	 *            If true the values are smoothed with the original Tarsos
+	 *            convolution, for each kernel width and also when they are
+	 *            wrapped.
+	 */
+	public GaussianSmoother(final double deviation, final boolean exact) {
+		if (deviation < 0.0 || Double.isNaN(deviation)) {
+			throw new IllegalArgumentException("standardDeviation invalid");
+		}
+		standardDeviation = deviation;
+		weights = weights(deviation);
+		this.exact = exact;
+		// the recursive filter approximates wide kernels best
+		recursive = !exact && weights.length > MAXIMUM_DIRECT_WEIGHTS;
+	}
+
+	/**
+	 * The truncated Gaussian used for the direct convolution. Uses code from
+	 * https://jai-core.dev.java.net/, licensed under the Java Research License
+	 * (JRL) for non-commercial use.
+	 * 
+	 * @param deviation
+	 *            The standard deviation of the Gaussian.
+	 * @return An odd number of weights, the middle weight is the weight of the
+	 *         value itself.
+	 */
+	public static double[] weights(final double deviation) {
+		// Determine the number of weights (must be odd).
+		int numWeights = (int) (2 * 2.58 * deviation + 0.5);
+		if (numWeights % 2 == 0) {
+			numWeights++;
+		}
+		final double[] weights = new double[numWeights];
+		final int m = numWeights / 2;
+		final double var = deviation * deviation;
+		final double gain = 1.0 / Math.sqrt(2.0 * Math.PI * var);
+		final double exp = -1.0 / (2.0 * var);
+		for (int i = m; i < numWeights; i++) {
+			final double del = i - m;
+			weights[i] = gain * Math.exp(exp * del * del);
+			weights[numWeights - 1 - i] = weights[i];
+		}
+		return weights;
+	}
+
+	/**
+	 * Smooths a series of values.
+	 * 
+	 * @param values
+	 *            The values to smooth, they are not changed.
+	 * @param wrapped
+	 *            True if the last value is next to the first. Ignored by an
+	 *            exact smoother.
+	 * @return The smoothed values.
+	 */
+	public double[] smooth(final double[] values, final boolean wrapped) {
+		final double[] smoothed;
+		if (standardDeviation == 0.0 || values.length == 0) {
+			smoothed = values.clone();
+		} else if (exact) {
+			smoothed = smoothExact(values);
+		} else if (recursive) {
+			smoothed = smoothRecursive(values, wrapped);
+		} else {
+			smoothed = smoothDirect(values, wrapped);
+		}
+		return smoothed;
+	}
+
+	/**
+	 * The convolution of the original Histogram.gaussianSmooth, kept as is so
+	 * results computed with earlier versions can be reproduced.
+	 */
+	private double[] smoothExact(final double[] values) {
+		final int size = values.length;
+		final int m = weights.length / 2;
+		final double[] smoothed = new double[size];
+		for (int b = 0; b < size; b++) {
+			// Determine clipped range.
+			final int min = Math.max(b - m, 0);
+			final int max = Math.min(b + m, size);
+
+			// Calculate the offset into the weight array.
+			int offset = m > b ? m - b : 0;
+
+			// Accumulate the total for the range.
+			double acc = 0;
+			double weightTotal = 0;
+			for (int i = min; i < max; i++) {
+				final double w = weights[offset++];
+				acc += values[i] * w;
+				weightTotal += w;
+			}
+			smoothed[b] = acc / weightTotal;
+		}
+		return smoothed;
+	}
+
+	private double[] smoothDirect(final double[] values, final boolean wrapped) {
+		final int size = values.length;
+		final int m = weights.length / 2;
+		final double[] smoothed = new double[size];
+		if (wrapped) {
+			double weightTotal = 0;
+			for (final double weight : weights) {
+				weightTotal += weight;
+			}
+			for (int b = 0; b < size; b++) {
+				double acc = 0;
+				int index = ((b - m) % size + size) % size;
+				for (int i = 0; i < weights.length; i++) {
+					acc += values[index] * weights[i];
+					index++;
+					if (index == size) {
+						index = 0;
+					}
+				}
+				smoothed[b] = acc / weightTotal;
+			}
+		} else {
+			for (int b = 0; b < size; b++) {
+				// Determine clipped range.
+				final int min = Math.max(b - m, 0);
+				final int max = Math.min(b + m + 1, size);
+
+				// Calculate the offset into the weight array.
+				int offset = min - (b - m);
+
+				// Accumulate the total for the range.
+				double acc = 0;
+				double weightTotal = 0;
+				for (int i = min; i < max; i++) {
+					final double w = weights[offset++];
+					acc += values[i] * w;
+					weightTotal += w;
+				}
+				smoothed[b] = acc / weightTotal;
+			}
+		}
+		return smoothed;
+	}
+
+	/**
+	 * Applies the recursive filter to the values, extended with the margin
+	 * on both sides. Wrapped values are extended with the values from the
+	 * other side. Clipped values are extended with zeros and divided by the
+	 * response to a series of ones, the equivalent of the weight total of the
+	 * direct convolution.
+	 */
+	private double[] smoothRecursive(final double[] values, final boolean wrapped) {
+		final int size = values.length;
+		final int margin = (int) Math.ceil(RECURSIVE_MARGIN * standardDeviation);
+		final double[] extended = new double[size + 2 * margin];
+		for (int i = 0; i < extended.length; i++) {
+			final int index = i - margin;
+			if (wrapped) {
+				extended[i] = values[(index % size + size) % size];
+			} else if (index >= 0 && index < size) {
+				extended[i] = values[index];
+			}
+		}
+		final double[] filtered = filter(extended);
+		final double[] smoothed = new double[size];
+		System.arraycopy(filtered, margin, smoothed, 0, size);
+		if (!wrapped) {
+			final double[] ones = new double[extended.length];
+			for (int i = margin; i < margin + size; i++) {
+				ones[i] = 1.0;
+			}
+			final double[] weightTotals = filter(ones);
+			for (int i = 0; i < size; i++) {
+				smoothed[i] = smoothed[i] / weightTotals[i + margin];
+			}
+		}
+		return smoothed;
+	}
+
+	/**
+	 * The forward and backward pass of the recursive Gaussian filter.
+	 */
+	private double[] filter(final double[] values) {
+		final double sigma = standardDeviation;
+		final double q;
+		if (sigma >= 2.5) {
+			q = 0.98711 * sigma - 0.96330;
+		} else {
+			q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+		}
+		final double q2 = q * q;
+		final double q3 = q2 * q;
+		final double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+		final double b1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+		final double b2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+		final double b3 = 0.422205 * q3 / b0;
+		final double gain = 1 - (b1 + b2 + b3);
+
+		final int size = values.length;
+		final double[] forward = new double[size];
+		double w1 = 0;
+		double w2 = 0;
+		double w3 = 0;
+		for (int i = 0; i < size; i++) {
+			final double w = gain * values[i] + b1 * w1 + b2 * w2 + b3 * w3;
+			forward[i] = w;
+			w3 = w2;
+			w2 = w1;
+			w1 = w;
+		}
+		final double[] backward = new double[size];
+		w1 = 0;
+		w2 = 0;
+		w3 = 0;
+		for (int i = size - 1; i >= 0; i--) {
+			final double w = gain * forward[i] + b1 * w1 + b2 * w2 + b3 * w3;
+			backward[i] = w;
+			w3 = w2;
+			w2 = w1;
+			w1 = w;
+		}
+		return backward;
+	}
+}
@@ -32,6 +32,16 @@ public class KernelDensityEstimate {
 	protected final double[] accumulator;
 	protected final Kernel kernel;
 	private double sum;
+	/**
+	 * The spectrum of the accumulator, computed when needed and cleared with
+	 * each update. It is used to correlate with other estimates for all shifts
+	 * at once.
+	 */
+	private double[] spectrum;
+	/**
+	 * The number of changes to the accumulator.
+	 */
+	private long modificationCount;
 	
 	public KernelDensityEstimate(final Kernel kernel, final int size) {
 		accumulator = new double[size];
@@ -78,8 +88,58 @@ public class KernelDensityEstimate {
 			sum += kernelValue;
 			kernelIndex++;
 		}
+		changed();
 	}
 	
+	/**
+	 * Add the kernel, multiplied by a weight, to the accumulator. Adding a
+	 * value with a weight of n is the same as adding it n times.
+	 * 
+	 * @param value
+	 *            The value to add.
+	 * @param weight
+	 *            The weight of the kernel.
+	 */
+	public void add(double value, double weight) {
+		int accumulatorSize = accumulator.length;
+		int calculationAria = kernel.size() / 2;
+		int start = (int) (value + accumulatorSize - calculationAria);
+		int stop = (int) (value + accumulatorSize + calculationAria);
+		if (kernel.size() % 2 != 0)
+			stop++;
+		for (int i = start; i < stop; i++) {
+			double kernelValue = kernel.value(i - start) * weight;
+			accumulator[i % accumulatorSize] += kernelValue;
+			sum += kernelValue;
+		}
+		changed();
+	}
+	
+	/**
+	 * Adds the kernel for each value. The result is the same as calling
+	 * {@link #add(double)} for each value, but the values are counted per bin
+	 * first and the kernel is added once for each bin, weighted with the
+	 * count. This takes O(n + size * width) instead of O(n * width) sums.
+	 * 
+	 * @param values
+	 *            The values to add.
+	 */
+	public void addAll(final double[] values) {
+		final int accumulatorSize = accumulator.length;
+		final int calculationAria = kernel.size() / 2;
+		// add(value) centers the kernel at this bin
+		final double[] counts = new double[accumulatorSize];
+		for (final double value : values) {
+			final int start = (int) (value + accumulatorSize - calculationAria);
+			counts[(start + calculationAria) % accumulatorSize]++;
+		}
+		for (int bin = 0; bin < accumulatorSize; bin++) {
+			if (counts[bin] != 0) {
+				add(bin, counts[bin]);
+			}
+		}
+	}
+
 	/**
 	 * Remove a value from the kde, removes a kernel at the specified position.
 	 * @param value The value to remove.
@@ -98,6 +158,7 @@ public class KernelDensityEstimate {
 			sum -= kernelValue;
 			kernelIndex++;
 		}
+		changed();
 	}
 	
 	/**
@@ -112,6 +173,7 @@ public class KernelDensityEstimate {
 		for(int index = 0 ; index < size() ; index++){
 			accumulator[index] = newValues[index];
 		}
+		changed();
 	}
 
 	/**
@@ -124,6 +186,19 @@ public class KernelDensityEstimate {
 		return accumulator.clone();
 	}
 	
+	/**
+	 * Smooths the estimate circularly with a Gaussian, see
+	 * {@link GaussianSmoother}.
+	 * 
+	 * @param standardDeviation
+	 *            The standard deviation of the Gaussian, in bins.
+	 */
+	public void gaussianSmooth(final double standardDeviation) {
+		final double[] smoothed = new GaussianSmoother(standardDeviation).smooth(accumulator, true);
+		System.arraycopy(smoothed, 0, accumulator, 0, accumulator.length);
+		calculateSumFreq();
+	}
+
 	/**
 	 * Map the kernel density estimate to another size. E.g. a KDE with 4 values
 	 * mapped to two is done by iterating the 4 elements and adding them on
@@ -179,6 +254,39 @@ public class KernelDensityEstimate {
 		for (int i = 0; i < accumulator.length; i++) {
 			sum += accumulator[i];
 		}
+		changed();
+	}
+	
+	/**
+	 * Clears the cached values that depend on the accumulator, called after
+	 * each change.
+	 */
+	private void changed() {
+		spectrum = null;
+		modificationCount++;
+	}
+
+	/**
+	 * @return The number of times the estimate was changed. Results computed
+	 *         from the estimate can be cached as long as the modification
+	 *         count stays the same.
+	 */
+	public long getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * @return The spectrum of the accumulator, see
+	 *         {@link CircularCorrelation#spectrum(double[])}. It is cached
+	 *         until the estimate is updated.
+	 */
+	private double[] spectrum() {
+		double[] currentSpectrum = spectrum;
+		if (currentSpectrum == null) {
+			currentSpectrum = CircularCorrelation.spectrum(accumulator);
+			spectrum = currentSpectrum;
+		}
+		return currentSpectrum;
 	}
 
 	/**
@@ -324,15 +432,33 @@ public class KernelDensityEstimate {
 		int optimalShift = 0; // displacement with best correlation
 		double maximumCorrelation = -1; // best found correlation
 
-		for (int shift = 0; shift < size(); shift++) {
-			final double currentCorrelation = correlation(other, shift);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalShift = shift;
+		if (other.size() == size()) {
+			optimalShift = shiftForOptimalOverlap(other);
+		} else {
+			for (int shift = 0; shift < size(); shift++) {
+				final double currentCorrelation = correlation(other, shift);
+				if (maximumCorrelation < currentCorrelation) {
+					maximumCorrelation = currentCorrelation;
+					optimalShift = shift;
+				}
 			}
 		}
 		return optimalShift;
 	}
+
+	/**
+	 * Searches the shift with the largest matching area, without trying each
+	 * shift. See {@link OverlapShiftSearch}.
+	 */
+	private int shiftForOptimalOverlap(final KernelDensityEstimate other) {
+		int optimalShift = OverlapShiftSearch.optimalShift(accumulator, other.accumulator);
+		// the correlation should be better than the initial -1 of a search
+		// that tries each shift
+		if (!(correlation(other, optimalShift) > -1)) {
+			optimalShift = 0;
+		}
+		return optimalShift;
+	}
 	
 	
 	/**
@@ -472,11 +598,30 @@ public class KernelDensityEstimate {
 		int optimalShift = 0; // displacement with best correlation
 		double maximumCorrelation = -1; // best found correlation
 
-		for (int shift = 0; shift < size(); shift++) {
-			final double currentCorrelation = correlationMeasure.correlation(this,other, shift);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalShift = shift;
+		if (correlationMeasure.getClass() == Cosine.class && other.size() == size()) {
+			// the inner products for all shifts at once, the norms do not
+			// depend on the shift
+			final double[] correlations = CircularCorrelation.correlate(spectrum(), other.spectrum());
+			double firstSquaredSum = 0;
+			double otherSquaredSum = 0;
+			for (int i = 0; i < size(); i++) {
+				firstSquaredSum += accumulator[i] * accumulator[i];
+				otherSquaredSum += other.accumulator[i] * other.accumulator[i];
+			}
+			final double norms = Math.pow(firstSquaredSum, 0.5) * Math.pow(otherSquaredSum, 0.5);
+			for (int shift = 0; shift < size(); shift++) {
+				correlations[shift] = correlations[shift] / norms;
+			}
+			optimalShift = CircularCorrelation.indexOfMaximum(correlations, maximumCorrelation, 1e-12);
+		} else if (correlationMeasure.getClass() == Overlap.class && other.size() == size()) {
+			optimalShift = shiftForOptimalOverlap(other);
+		} else {
+			for (int shift = 0; shift < size(); shift++) {
+				final double currentCorrelation = correlationMeasure.correlation(this,other, shift);
+				if (maximumCorrelation < currentCorrelation) {
+					maximumCorrelation = currentCorrelation;
+					optimalShift = shift;
+				}
 			}
 		}
 		return optimalShift;
@@ -489,7 +634,7 @@ public class KernelDensityEstimate {
 	public static class Overlap implements KDECorrelation{
 		public double correlation(KernelDensityEstimate first,KernelDensityEstimate other, int shift) {
 			double correlation;
-			int matchingArea = 0;
+			double matchingArea = 0;
 			for (int i = 0; i < first.size(); i++) {
 				int otherIndex = (other.size() + i + shift) % other.size();
 				matchingArea += Math.min(first.getValue(i),other.getValue(otherIndex));
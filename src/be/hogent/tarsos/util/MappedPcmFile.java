@@ -0,0 +1,332 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.hogent.tarsos.dsp.AudioDispatcher;
+
+/**
+ * Gives access to the samples of a 16 bit mono PCM WAV file, the default
+ * format of transcoded files, by mapping the file into memory. Samples are
+ * read straight from the mapped file, without an intermediate copy, and any
+ * sample can be read at any time: seeking is free. The operating system keeps
+ * the pages of a file that was read recently in memory, so repeated analyses
+ * of the same file, e.g. while scrubbing, detecting pitch again or extracting
+ * power, do not need to access the disk.
+ * <p>
+ * A mapped file is immutable and can be read by several threads concurrently.
+ * The mapping is released when the object is garbage collected; until then
+ * the file can not be deleted or replaced on Windows and truncating it makes
+ * reads fail. Do not keep a mapped file around longer than needed.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class MappedPcmFile {
+
+	private final AudioFormat format;
+	/**
+	 * The audio data, little endian.
+	 */
+	private final ByteBuffer data;
+	private final ShortBuffer samples;
+
+	private MappedPcmFile(final File file) throws IOException, UnsupportedAudioFileException {
+		final long fileLength = file.length();
+		if (fileLength > Integer.MAX_VALUE) {
+			throw new UnsupportedAudioFileException(file + " is too large to map.");
+		}
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		final MappedByteBuffer mapped;
+		try {
+			mapped = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+		} finally {
+			// the mapping stays valid after the file is closed
+			randomAccessFile.close();
+		}
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		if (mapped.limit() < 12 || mapped.getInt(0) != fourCC("RIFF") || mapped.getInt(8) != fourCC("WAVE")) {
+			throw new UnsupportedAudioFileException(file + " is not a WAV file.");
+		}
+		final int formatChunk = findChunk(mapped, "fmt ");
+		if (formatChunk < 0 || chunkSize(mapped, formatChunk) < 16 || formatChunk + 16 > mapped.limit()
+				|| mapped.getShort(formatChunk) != 1 || mapped.getShort(formatChunk + 2) != 1
+				|| mapped.getShort(formatChunk + 14) != 16) {
+			throw new UnsupportedAudioFileException(file + " is not a 16 bit mono PCM WAV file.");
+		}
+		final int dataChunk = findChunk(mapped, "data");
+		if (dataChunk < 0) {
+			throw new UnsupportedAudioFileException(file + " has no audio data.");
+		}
+		// a file written to a pipe does not know the length of its data
+		final long dataLength = Math.min(mapped.limit() - dataChunk, chunkSize(mapped, dataChunk));
+		final ByteBuffer view = mapped.duplicate();
+		view.position(dataChunk);
+		view.limit(dataChunk + (int) (dataLength / 2 * 2));
+		data = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+		samples = data.asShortBuffer();
+		format = new AudioFormat(mapped.getInt(formatChunk + 4), 16, 1, true, false);
+	}
+
+	/**
+	 * Walks the chunks of a WAV file.
+	 * 
+	 * @return The position of the contents of the first chunk with the id, or
+	 *         -1 if there is no such chunk or a chunk before it does not fit
+	 *         in the file.
+	 */
+	private static int findChunk(final ByteBuffer wav, final String id) {
+		// a long position does not overflow on a bogus chunk size
+		long position = 12;
+		while (position + 8 <= wav.limit()) {
+			final int start = (int) position + 8;
+			if (wav.getInt((int) position) == fourCC(id)) {
+				return start;
+			}
+			// chunks are word aligned
+			final long size = chunkSize(wav, start);
+			position = start + size + (size & 1);
+		}
+		return -1;
+	}
+
+	private static long chunkSize(final ByteBuffer wav, final int start) {
+		return wav.getInt(start - 4) & 0xFFFFFFFFL;
+	}
+
+	private static int fourCC(final String id) {
+		return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+	}
+
+	/**
+	 * Maps a WAV file.
+	 * 
+	 * @param file
+	 *            A 16 bit mono PCM WAV file.
+	 * @return The mapped file.
+	 * @throws UnsupportedAudioFileException
+	 *             If the file is not a 16 bit mono PCM WAV file or too large
+	 *             to map.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public static MappedPcmFile open(final File file) throws IOException, UnsupportedAudioFileException {
+		return new MappedPcmFile(file);
+	}
+
+	/**
+	 * Creates an audio dispatcher for an audio file. A 16 bit mono PCM WAV
+	 * file is read from memory, see {@link #getAudioInputStream()}; other
+	 * files are read as usual, see
+	 * {@link AudioDispatcher#fromFile(File, int, int)}.
+	 * 
+	 * @param file
+	 *            The audio file.
+	 * @param size
+	 *            The number of samples in a buffer.
+	 * @param overlap
+	 *            The number of samples consecutive buffers overlap.
+	 * @return A dispatcher for the file.
+	 * @throws UnsupportedAudioFileException
+	 *             If the format of the file is not supported.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public static AudioDispatcher dispatcher(final File file, final int size, final int overlap)
+			throws UnsupportedAudioFileException, IOException {
+		final MappedPcmFile mapped;
+		try {
+			mapped = open(file);
+		} catch (final UnsupportedAudioFileException e) {
+			return AudioDispatcher.fromFile(file, size, overlap);
+		}
+		return new AudioDispatcher(mapped.getAudioInputStream(), size, overlap);
+	}
+
+	/**
+	 * @return The format of the audio: signed 16 bit little endian mono PCM.
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return The sample rate, in Hz.
+	 */
+	public float getSampleRate() {
+		return format.getSampleRate();
+	}
+
+	/**
+	 * @return The number of samples in the file.
+	 */
+	public int getNumberOfSamples() {
+		return samples.limit();
+	}
+
+	/**
+	 * @return The length of the audio, in seconds.
+	 */
+	public double getLengthInSeconds() {
+		return getNumberOfSamples() / (double) getSampleRate();
+	}
+
+	/**
+	 * Seeks by time.
+	 * 
+	 * @param seconds
+	 *            A time in the audio, in seconds.
+	 * @return The index of the sample at the time, between zero and the number
+	 *         of samples.
+	 */
+	public int sampleIndex(final double seconds) {
+		final double index = Math.floor(seconds * getSampleRate());
+		return (int) Math.max(0, Math.min(getNumberOfSamples(), index));
+	}
+
+	/**
+	 * @param index
+	 *            The index of a sample.
+	 * @return The sample, as stored in the file.
+	 */
+	public short getSample(final int index) {
+		return samples.get(index);
+	}
+
+	/**
+	 * @param index
+	 *            The index of a sample.
+	 * @return The sample as a float between -1 and 1.
+	 */
+	public float getFloat(final int index) {
+		return toFloat(samples.get(index));
+	}
+
+	/**
+	 * Converts a 16 bit sample to a float between -1 and 1, as the
+	 * <code>AudioFloatConverter</code> of the Java Sound API does.
+	 */
+	private static float toFloat(final short sample) {
+		return sample < 0 ? sample / 32768.0f : sample / 32767.0f;
+	}
+
+	/**
+	 * Reads consecutive samples as floats between -1 and 1.
+	 * 
+	 * @param from
+	 *            The index of the first sample to read.
+	 * @param buffer
+	 *            The buffer to fill.
+	 * @param offset
+	 *            The index in the buffer of the first sample.
+	 * @param length
+	 *            The maximum number of samples to read.
+	 * @return The number of samples read, or -1 if from is at or beyond the
+	 *         end of the audio.
+	 */
+	public int read(final int from, final float[] buffer, final int offset, final int length) {
+		final int available = getNumberOfSamples() - from;
+		if (available <= 0) {
+			return -1;
+		}
+		final int read = Math.min(available, length);
+		for (int i = 0; i < read; i++) {
+			buffer[offset + i] = toFloat(samples.get(from + i));
+		}
+		return read;
+	}
+
+	/**
+	 * @return A read only view on the samples, positioned at the first sample.
+	 *         The view does not copy the samples and has its own position.
+	 */
+	public ShortBuffer samples() {
+		return samples.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return A stream of the audio, read from memory. Skipping does not read
+	 *         the skipped audio. Each call returns a new stream.
+	 */
+	public AudioInputStream getAudioInputStream() {
+		return new AudioInputStream(new ByteBufferInputStream(data.duplicate()), format, getNumberOfSamples());
+	}
+
+	/**
+	 * Reads a byte buffer as a stream.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(final ByteBuffer byteBuffer) {
+			buffer = byteBuffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int read = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, read);
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) {
+			final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+/**
+ * Finds the shift with the largest overlap between two circular profiles
+ * without computing the overlap for every shift. The overlap for shift
+ * <code>s</code> is the sum of <code>min(first[i], other[(i + s) % n])</code>
+ * over all <code>i</code>, it is the matching area used by the intersection
+ * measure of histograms and kernel density estimates.
+ * <p>
+ * The overlap can not be computed for all shifts at once with an FFT. The
+ * search works coarse to fine instead: both profiles are divided into blocks
+ * and for each block the overlap is at most the smaller of the areas of both
+ * profiles in that block. Summed over all blocks this gives an upper bound for
+ * the overlap of a shift, for all shifts it is computed in O(n² / block size).
+ * The shift with the largest coarse bound is computed first. Every other shift
+ * is refined with smaller blocks and finally computed exactly only when its
+ * bound can still beat the best overlap found.
+ * </p>
+ * <p>
+ * The result is exact: it is the same shift a search that tries every shift
+ * in order and keeps the first best overlap finds.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class OverlapShiftSearch {
+
+	/**
+	 * The block sizes of the bounds, from coarse to fine. Block sizes that
+	 * are not smaller than a quarter of the profile are skipped.
+	 */
+	private static final int[] BLOCK_SIZES = { 64, 16, 4 };
+
+	/**
+	 * Relative slack on the bounds. The bounds are computed with prefix sums,
+	 * for fractional values they have small rounding errors.
+	 */
+	private static final double SLACK = 1e-9;
+
+	private OverlapShiftSearch() {
+	}
+
+	/**
+	 * Computes the overlap of two profiles for one shift.
+	 * 
+	 * @param first
+	 *            The first profile.
+	 * @param other
+	 *            The other profile, with the same size.
+	 * @param shift
+	 *            The number of positions the other profile is shifted, between
+	 *            0 (inclusive) and the size of the profiles (exclusive).
+	 * @return The sum of <code>min(first[i], other[(i + shift) % n])</code>.
+	 */
+	public static double overlap(final double[] first, final double[] other, final int shift) {
+		final int size = first.length;
+		final int wrap = size - shift;
+		double overlap = 0;
+		for (int i = 0; i < wrap; i++) {
+			overlap += Math.min(first[i], other[i + shift]);
+		}
+		for (int i = wrap; i < size; i++) {
+			overlap += Math.min(first[i], other[i - wrap]);
+		}
+		return overlap;
+	}
+
+	/**
+	 * Searches the shift with the largest overlap.
+	 * 
+	 * @param first
+	 *            The first profile.
+	 * @param other
+	 *            The other profile, with the same size.
+	 * @return The first shift, between 0 (inclusive) and the size of the
+	 *         profiles (exclusive), with the largest overlap.
+	 */
+	public static int optimalShift(final double[] first, final double[] other) {
+		final int size = first.length;
+		if (other.length != size) {
+			throw new IllegalArgumentException("Both profiles should have the same size: " + size + " != "
+					+ other.length);
+		}
+
+		// circular prefix sums of the other profile: the sum of a window
+		// starting anywhere is the difference of two prefix sums
+		final double[] otherPrefix = new double[2 * size + 1];
+		for (int i = 0; i < 2 * size; i++) {
+			otherPrefix[i + 1] = otherPrefix[i] + other[i % size];
+		}
+
+		final Bound[] bounds = levels(first);
+		if (bounds.length == 0) {
+			return bruteForce(first, other);
+		}
+		for (final Bound bound : bounds) {
+			bound.setOther(otherPrefix);
+		}
+
+		// coarse bounds for each shift, the shift with the largest bound is
+		// computed first so a good overlap is known before the others are
+		// visited
+		final Bound coarse = bounds[0];
+		final double[] coarseBounds = new double[size];
+		int mostPromisingShift = 0;
+		for (int shift = 0; shift < size; shift++) {
+			coarseBounds[shift] = coarse.bound(shift);
+			if (coarseBounds[shift] > coarseBounds[mostPromisingShift]) {
+				mostPromisingShift = shift;
+			}
+		}
+
+		int optimalShift = mostPromisingShift;
+		double maximumOverlap = overlap(first, other, mostPromisingShift);
+		for (int shift = 0; shift < size; shift++) {
+			boolean pruned = shift == mostPromisingShift;
+			for (int level = 0; level < bounds.length && !pruned; level++) {
+				final double bound;
+				if (level == 0) {
+					bound = coarseBounds[shift];
+				} else {
+					bound = bounds[level].bound(shift);
+				}
+				pruned = bound < threshold(maximumOverlap);
+			}
+			if (!pruned) {
+				final double currentOverlap = overlap(first, other, shift);
+				if (currentOverlap > maximumOverlap || currentOverlap == maximumOverlap && shift < optimalShift) {
+					maximumOverlap = currentOverlap;
+					optimalShift = shift;
+				}
+			}
+		}
+		return optimalShift;
+	}
+
+	/**
+	 * @return The value a bound should at least reach to possibly beat or
+	 *         equal the best overlap.
+	 */
+	private static double threshold(final double maximumOverlap) {
+		return maximumOverlap - Math.abs(maximumOverlap) * SLACK;
+	}
+
+	private static int bruteForce(final double[] first, final double[] other) {
+		int optimalShift = 0;
+		double maximumOverlap = Double.NEGATIVE_INFINITY;
+		for (int shift = 0; shift < first.length; shift++) {
+			final double currentOverlap = overlap(first, other, shift);
+			if (maximumOverlap < currentOverlap) {
+				maximumOverlap = currentOverlap;
+				optimalShift = shift;
+			}
+		}
+		return optimalShift;
+	}
+
+	/**
+	 * @return The bounds for each usable block size, from coarse to fine.
+	 */
+	private static Bound[] levels(final double[] first) {
+		int usable = 0;
+		for (final int blockSize : BLOCK_SIZES) {
+			if (blockSize * 4 <= first.length) {
+				usable++;
+			}
+		}
+		final Bound[] bounds = new Bound[usable];
+		int level = 0;
+		for (final int blockSize : BLOCK_SIZES) {
+			if (blockSize * 4 <= first.length) {
+				bounds[level++] = new Bound(first, blockSize);
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * An upper bound for the overlap using blocks of a fixed size.
+	 */
+	private static final class Bound {
+		private final int blockSize;
+		private final int size;
+		/**
+		 * The area of the first profile in each block, the last block can be
+		 * smaller.
+		 */
+		private final double[] blockAreas;
+		/**
+		 * The number of blocks with the full block size.
+		 */
+		private final int fullBlocks;
+		/**
+		 * The area of the other profile in the window of one block size that
+		 * starts at each index, wrapping around the edge.
+		 */
+		private double[] windowAreas;
+		private double[] otherPrefix;
+
+		private Bound(final double[] first, final int blockSizeInBins) {
+			blockSize = blockSizeInBins;
+			size = first.length;
+			fullBlocks = size / blockSize;
+			blockAreas = new double[(size + blockSize - 1) / blockSize];
+			for (int i = 0; i < size; i++) {
+				blockAreas[i / blockSize] += first[i];
+			}
+		}
+
+		/**
+		 * Prepares the bound for another profile.
+		 * 
+		 * @param prefix
+		 *            The circular prefix sums of the other profile, over twice
+		 *            its size.
+		 */
+		private void setOther(final double[] prefix) {
+			otherPrefix = prefix;
+			windowAreas = new double[size];
+			for (int i = 0; i < size; i++) {
+				windowAreas[i] = prefix[i + blockSize] - prefix[i];
+			}
+		}
+
+		/**
+		 * @return The sum, over each block, of the smaller of the area of the
+		 *         first profile and the area of the shifted other profile.
+		 */
+		private double bound(final int shift) {
+			double bound = 0;
+			int start = shift;
+			for (int block = 0; block < fullBlocks; block++) {
+				bound += Math.min(blockAreas[block], windowAreas[start]);
+				start += blockSize;
+				if (start >= size) {
+					start -= size;
+				}
+			}
+			if (fullBlocks < blockAreas.length) {
+				// the smaller last block
+				final int lastStart = fullBlocks * blockSize + shift;
+				final double lastArea = otherPrefix[size + shift] - otherPrefix[lastStart];
+				bound += Math.min(blockAreas[fullBlocks], lastArea);
+			}
+			return bound;
+		}
+	}
+}
@@ -27,7 +27,6 @@
 package be.hogent.tarsos.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,6 +59,11 @@ public final class SignalPowerExtractor {
 	private static final Logger LOG = Logger.getLogger(SignalPowerExtractor.class.getName());
 
 	private final AudioFile audioFile;
+	/**
+	 * The transcoded file mapped in memory, or null if it is not a 16 bit mono
+	 * PCM WAV file.
+	 */
+	private final MappedPcmFile pcm;
 
 	private double[] linearPowerArray;
 	private double maxLinearPower = -1;
@@ -79,23 +83,28 @@ public final class SignalPowerExtractor {
 	 */
 	public SignalPowerExtractor(final AudioFile file) {
 		this.audioFile = file;
-		AudioInputStream ais = null;
 		final File inputFile = new File(audioFile.transcodedPath());
+		pcm = map(inputFile);
 		AudioFormat format = null;
-		try {
-			ais = AudioSystem.getAudioInputStream(inputFile);
-			format = ais.getFormat();
-		} catch (final UnsupportedAudioFileException e) {
-			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
-		} catch (final IOException e) {
-			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
-		} finally {
+		if (pcm != null) {
+			format = pcm.getFormat();
+		} else {
+			AudioInputStream ais = null;
 			try {
-				ais.close();
+				ais = AudioSystem.getAudioInputStream(inputFile);
+				format = ais.getFormat();
+			} catch (final UnsupportedAudioFileException e) {
+				LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
 			} catch (final IOException e) {
-				LOG.log(Level.SEVERE, "Failed to close audio input stream.", e);
-			} catch (final NullPointerException e) {
-				LOG.log(Level.SEVERE, "Failed to initialize audio input stream.", e);
+				LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
+			} finally {
+				try {
+					ais.close();
+				} catch (final IOException e) {
+					LOG.log(Level.SEVERE, "Failed to close audio input stream.", e);
+				} catch (final NullPointerException e) {
+					LOG.log(Level.SEVERE, "Failed to initialize audio input stream.", e);
+				}
 			}
 		}
 		sampleRate = format.getSampleRate();
@@ -105,6 +114,18 @@ public final class SignalPowerExtractor {
 		readWindow = 1.0 / POWER_SAMPLE_RATE;
 	}
 
+	private static MappedPcmFile map(final File inputFile) {
+		MappedPcmFile mapped = null;
+		try {
+			mapped = MappedPcmFile.open(inputFile);
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.fine(e.getMessage() + " Reading it as a stream.");
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not map " + inputFile + ", reading it as a stream.", e);
+		}
+		return mapped;
+	}
+
 	/**
 	 * Returns the relative power [0.0;1.0] at the given time.
 	 * 
@@ -143,22 +164,30 @@ public final class SignalPowerExtractor {
 	 * max linear power.
 	 */
 	private void extractPower() {
+		linearPowerArray = new double[secondsToIndex(audioLengtInSecs) + 1];
+		final int readAmount = (int) (readWindow * sampleRate);
+		final float[] buffer = new float[readAmount];
+		if (pcm != null) {
+			int index = 0;
+			int from = 0;
+			int read = pcm.read(from, buffer, 0, readAmount);
+			while (read != -1) {
+				addPower(index, buffer);
+				index++;
+				from += read;
+				read = pcm.read(from, buffer, 0, readAmount);
+			}
+			return;
+		}
 		final File inputFile = new File(audioFile.transcodedPath());
 		AudioInputStream ais = null;
 		try {
 			ais = AudioSystem.getAudioInputStream(inputFile);
 			final AudioFloatInputStream afis = AudioFloatInputStream.getInputStream(ais);
 
-			linearPowerArray = new double[secondsToIndex(audioLengtInSecs) + 1];
-			final int readAmount = (int) (readWindow * sampleRate);
-			final float[] buffer = new float[readAmount];
-
 			int index = 0;
 			while (afis.read(buffer, 0, readAmount) != -1) {
-				final double power = SignalPowerExtractor.localEnergy(buffer);
-				minLinearPower = Math.min(power, minLinearPower);
-				maxLinearPower = Math.max(power, maxLinearPower);
-				linearPowerArray[index] = power;
+				addPower(index, buffer);
 				index++;
 			}
 		} catch (final UnsupportedAudioFileException e) {
@@ -176,58 +205,33 @@ public final class SignalPowerExtractor {
 		}
 	}
 
+	private void addPower(final int index, final float[] buffer) {
+		final double power = SignalPowerExtractor.localEnergy(buffer);
+		minLinearPower = Math.min(power, minLinearPower);
+		maxLinearPower = Math.max(power, maxLinearPower);
+		linearPowerArray[index] = power;
+	}
+
 	/**
-	 * Creates a wave from plot.
+	 * Creates a wave from plot: the first sample of each window. Requires a 16
+	 * bit mono PCM WAV file, the samples are read from the mapped file.
 	 * 
 	 * 
 	 * @param aggregator
 	 *            The aggregator to save to.
 	 */
 	public void waveFormPlot(WaveFormDataAggregator aggregator) {
-		FileInputStream file = null;
-		try {
-			final File inputFile = new File(audioFile.transcodedPath());
-			file = new FileInputStream(inputFile);
-			final double timeFactor = 1.0 / (frameSize * frameRate);
-
-			// TODO This method expects the file to be a WAV
-			// Skip WAV header (44 bytes, fixed length).
-			for (int i = 0; i < 44; i++) {
-				file.read();
-			}
-
-			int intByte;
-			int index = 0;
-			// read a window at a time (in bytes)
-			int bufferSize = (int) (readWindow / timeFactor);
-			// make buffer size even so byteBuffer[0] and 1 are correctly
-			// aligned.
-			if (bufferSize % 2 != 0) {
-				bufferSize++;
-			}
-			final byte[] byteBuffer = new byte[bufferSize];
-			intByte = file.read(byteBuffer);
-			index = bufferSize;
-
-			// TODO This method expects the file to be a WAV with 16 as bit
-			// depth
-			while (intByte != -1) {
-				final double seconds = index * timeFactor;
-				final double power = (byteBuffer[0] << 8 | byteBuffer[1] & 0xFF) / 32767.0;
-				aggregator.addDataPoint(seconds, power);
-				index += bufferSize;
-				intByte = file.read(byteBuffer);
-			}
-		} catch (final IOException e) {
-			LOG.log(Level.SEVERE, "Failed to write audio file.", e);
-		} finally {
-			try {
-				file.close();
-			} catch (final IOException e) {
-				LOG.log(Level.SEVERE, "Failed to close audio file.", e);
-			} catch (final NullPointerException e) {
-				LOG.log(Level.SEVERE, "Failed to initialize audio file stream.", e);
-			}
+		if (pcm == null) {
+			LOG.severe("Can not plot the wave form of " + audioFile.transcodedPath()
+					+ ", it is not a 16 bit mono PCM WAV file.");
+			return;
+		}
+		// a window of audio at a time, in samples
+		final int windowSize = Math.max(1, (int) Math.ceil(readWindow * sampleRate));
+		for (int from = 0; from < pcm.getNumberOfSamples(); from += windowSize) {
+			final double seconds = (from + windowSize) / sampleRate;
+			final double power = pcm.getSample(from) / 32767.0;
+			aggregator.addDataPoint(seconds, power);
 		}
 	}
 
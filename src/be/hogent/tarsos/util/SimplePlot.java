@@ -86,10 +86,8 @@ public final class SimplePlot {
 
 	public void addData(final int set, final Histogram histogram, final int displacement) {
 		plot.setXRange(histogram.getStart(), histogram.getStop());
-		for (final double current : histogram.keySet()) {
-			final double displacedValue = (current + displacement * histogram.getClassWidth())
-					% (histogram.getNumberOfClasses() * histogram.getClassWidth());
-			addData(set, current, histogram.getCount(displacedValue));
+		for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
+			addData(set, histogram.getKeyForClass(i), histogram.getCountForClass(i + displacement));
 		}
 		first = true;
 	}
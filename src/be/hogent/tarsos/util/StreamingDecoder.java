@@ -0,0 +1,383 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import be.hogent.tarsos.transcoder.DefaultAttributes;
+
+/**
+ * Decodes an audio file with ffmpeg to a pipe so the decoded PCM can be
+ * analysed while ffmpeg is still running. Analysis starts as soon as the first
+ * buffers arrive instead of after the transcoded file is written and read
+ * again. The decoded audio is signed 16 bit little endian mono PCM at 44.1kHz,
+ * the default format of transcoded files.
+ * <p>
+ * Optionally the decoded audio is written to the transcoded file while it is
+ * read (a tee). The file is written to a temporary file and only moved in
+ * place when ffmpeg finished successfully and the stream was read completely,
+ * so an interrupted analysis does not leave an incomplete transcoded file
+ * behind.
+ * </p>
+ * 
+ * <pre>
+ * final StreamingDecoder decoder = new StreamingDecoder(source, transcodedPath);
+ * final AudioDispatcher dispatcher = new AudioDispatcher(decoder.getStream(), size, overlap);
+ * // add audio processors
+ * dispatcher.run();
+ * decoder.finish();
+ * </pre>
+ * 
+ * @author Joren Six
+ */
+public final class StreamingDecoder {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(StreamingDecoder.class.getName());
+
+	/**
+	 * The format of the decoded audio.
+	 */
+	public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 1, true, false);
+
+	/**
+	 * The size of the header of a canonical PCM WAV file, in bytes.
+	 */
+	private static final int WAV_HEADER_SIZE = 44;
+
+	private final String source;
+	private final Process process;
+	private final TeeInputStream teeStream;
+	private final AudioInputStream stream;
+	private final String teePath;
+	private final File partialFile;
+	private volatile String lastErrorLine;
+	private boolean finished;
+
+	/**
+	 * Starts decoding an audio file.
+	 * 
+	 * @param sourcePath
+	 *            The audio file to decode.
+	 * @param transcodedPath
+	 *            The transcoded file to write while decoding, or null to only
+	 *            analyse the decoded audio. The file is not written when the
+	 *            configured transcoded format differs from the decoded format.
+	 * @throws IOException
+	 *             If ffmpeg can not be started.
+	 */
+	public StreamingDecoder(final String sourcePath, final String transcodedPath) throws IOException {
+		source = sourcePath;
+		if (transcodedPath != null && AudioTranscoder.TARGET_ENCODING != DefaultAttributes.WAV_PCM_S16LE_MONO_44KHZ) {
+			LOG.info("Not writing " + transcodedPath + " while streaming, transcoded files are configured as "
+					+ AudioTranscoder.TARGET_ENCODING);
+			teePath = null;
+		} else {
+			teePath = transcodedPath;
+		}
+		final ProcessBuilder builder = new ProcessBuilder(Configuration.get(ConfKey.ffmpeg_executable), "-i",
+				new File(sourcePath).getAbsolutePath(), "-vn", "-acodec", "pcm_s16le", "-ac", String.valueOf(FORMAT
+						.getChannels()), "-ar", String.valueOf((int) FORMAT.getSampleRate()), "-f", "s16le", "-");
+		process = builder.start();
+		// ffmpeg does not get any input
+		process.getOutputStream().close();
+		drainErrorStream();
+
+		OutputStream tee = null;
+		File partial = null;
+		if (teePath != null) {
+			try {
+				// unique, byte-identical files may be streamed concurrently
+				final File target = new File(teePath);
+				partial = File.createTempFile(FileUtils.basename(teePath) + "_", ".part", target.getParentFile());
+				tee = new BufferedOutputStream(new FileOutputStream(partial));
+				tee.write(new byte[WAV_HEADER_SIZE]);
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not write " + teePath + " while streaming " + sourcePath, e);
+				closeQuietly(tee);
+				tee = null;
+			}
+		}
+		partialFile = partial;
+		teeStream = new TeeInputStream(process.getInputStream(), tee);
+		stream = new AudioInputStream(teeStream, FORMAT, AudioSystem.NOT_SPECIFIED);
+	}
+
+	/**
+	 * Logs what ffmpeg writes on standard error. The stream needs to be read,
+	 * otherwise ffmpeg blocks when the buffer of the pipe is full.
+	 */
+	private void drainErrorStream() {
+		final Thread drain = new Thread(new Runnable() {
+			public void run() {
+				final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+				try {
+					String line = reader.readLine();
+					while (line != null) {
+						LOG.finer(line);
+						lastErrorLine = line;
+						line = reader.readLine();
+					}
+				} catch (final IOException e) {
+					LOG.log(Level.FINE, "Stopped reading the messages of ffmpeg for " + source, e);
+				} finally {
+					closeQuietly(reader);
+				}
+			}
+		}, "Tarsos decoder messages");
+		drain.setDaemon(true);
+		drain.start();
+	}
+
+	/**
+	 * @return The decoded audio. The length of the stream is not specified.
+	 */
+	public AudioInputStream getStream() {
+		return stream;
+	}
+
+	/**
+	 * Waits for ffmpeg to finish and moves the transcoded file in place if it
+	 * was written completely. If the stream was not read until the end the
+	 * decoding is stopped and the partial transcoded file is removed. Calling
+	 * this method more than once has no effect.
+	 * 
+	 * @return True if the transcoded file was written.
+	 * @throws IOException
+	 *             If ffmpeg failed to decode the audio file.
+	 */
+	public synchronized boolean finish() throws IOException {
+		if (finished) {
+			return false;
+		}
+		finished = true;
+		final boolean complete = teeStream.endReached;
+		closeQuietly(stream);
+		if (!complete) {
+			process.destroy();
+		}
+		final int exitValue;
+		try {
+			exitValue = process.waitFor();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			process.destroy();
+			discardPartialFile();
+			throw new IOException("Interrupted while decoding " + source);
+		}
+		if (complete && exitValue != 0) {
+			discardPartialFile();
+			throw new IOException("ffmpeg could not decode " + source + " (exit value " + exitValue + "): "
+					+ lastErrorLine);
+		}
+		final boolean written = complete && teeStream.tee != null && teeStream.finishTee() && moveInPlace();
+		if (!written) {
+			discardPartialFile();
+		}
+		return written;
+	}
+
+	private boolean moveInPlace() {
+		final File target = new File(teePath);
+		if (target.exists() && !target.delete()) {
+			LOG.warning("Could not replace " + teePath);
+		}
+		final boolean moved = partialFile.renameTo(target);
+		if (moved) {
+			LOG.info("Wrote " + teePath + " while streaming " + source);
+		} else {
+			LOG.warning("Could not move " + partialFile + " to " + teePath);
+		}
+		return moved;
+	}
+
+	private void discardPartialFile() {
+		if (partialFile != null) {
+			closeQuietly(teeStream.tee);
+			if (partialFile.exists() && !partialFile.delete()) {
+				partialFile.deleteOnExit();
+			}
+		}
+	}
+
+	private static void closeQuietly(final Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (final IOException e) {
+				LOG.log(Level.FINE, "Could not close a stream", e);
+			}
+		}
+	}
+
+	/**
+	 * Copies the bytes that are read to a transcoded file. A failure to write
+	 * the file is logged and only stops the copy, not the analysis.
+	 */
+	private final class TeeInputStream extends FilterInputStream {
+		private OutputStream tee;
+		private long dataLength;
+		private volatile boolean endReached;
+
+		private TeeInputStream(final InputStream in, final OutputStream teeOutput) {
+			super(in);
+			tee = teeOutput;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int value = super.read();
+			if (value < 0) {
+				endReached = true;
+			} else if (tee != null) {
+				try {
+					tee.write(value);
+					dataLength++;
+				} catch (final IOException e) {
+					stopTee(e);
+				}
+			}
+			return value;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			final int read = super.read(buffer, offset, length);
+			if (read < 0) {
+				endReached = true;
+			} else if (tee != null) {
+				try {
+					tee.write(buffer, offset, read);
+					dataLength += read;
+				} catch (final IOException e) {
+					stopTee(e);
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			// skipped bytes are not copied, the transcoded file would be
+			// incomplete
+			if (tee != null) {
+				stopTee(null);
+			}
+			return super.skip(n);
+		}
+
+		private void stopTee(final IOException cause) {
+			if (cause != null) {
+				LOG.log(Level.WARNING, "Could not write " + partialFile + " while streaming " + source, cause);
+			}
+			closeQuietly(tee);
+			tee = null;
+		}
+
+		/**
+		 * Closes the transcoded file and fills in the header, now the length
+		 * of the audio data is known.
+		 * 
+		 * @return True if the transcoded file is complete.
+		 */
+		private boolean finishTee() {
+			RandomAccessFile file = null;
+			try {
+				tee.close();
+				tee = null;
+				file = new RandomAccessFile(partialFile, "rw");
+				file.write(wavHeader(dataLength));
+				return true;
+			} catch (final IOException e) {
+				stopTee(e);
+				return false;
+			} finally {
+				closeQuietly(file);
+			}
+		}
+	}
+
+	/**
+	 * Creates the header of a canonical PCM WAV file with audio in the decoded
+	 * format.
+	 * 
+	 * @param dataLength
+	 *            The length of the audio data, in bytes.
+	 * @return The header.
+	 */
+	private static byte[] wavHeader(final long dataLength) {
+		final int channels = FORMAT.getChannels();
+		final int sampleRate = (int) FORMAT.getSampleRate();
+		final int blockAlign = FORMAT.getFrameSize();
+		final byte[] header = new byte[WAV_HEADER_SIZE];
+		putAscii(header, 0, "RIFF");
+		putLittleEndian(header, 4, 36 + dataLength, 4);
+		putAscii(header, 8, "WAVE");
+		putAscii(header, 12, "fmt ");
+		putLittleEndian(header, 16, 16, 4);
+		// PCM
+		putLittleEndian(header, 20, 1, 2);
+		putLittleEndian(header, 22, channels, 2);
+		putLittleEndian(header, 24, sampleRate, 4);
+		putLittleEndian(header, 28, sampleRate * blockAlign, 4);
+		putLittleEndian(header, 32, blockAlign, 2);
+		putLittleEndian(header, 34, FORMAT.getSampleSizeInBits(), 2);
+		putAscii(header, 36, "data");
+		putLittleEndian(header, 40, dataLength, 4);
+		return header;
+	}
+
+	private static void putAscii(final byte[] buffer, final int offset, final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			buffer[offset + i] = (byte) value.charAt(i);
+		}
+	}
+
+	private static void putLittleEndian(final byte[] buffer, final int offset, final long value, final int size) {
+		for (int i = 0; i < size; i++) {
+			buffer[offset + i] = (byte) (value >>> (8 * i));
+		}
+	}
+}
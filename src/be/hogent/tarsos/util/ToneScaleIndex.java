@@ -0,0 +1,647 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An index of pitch class profiles (histograms or kernel density estimates)
+ * to search similar tone scales without comparing the query with each
+ * profile.
+ * <p>
+ * Each profile is described by the magnitudes of the first harmonics of its
+ * discrete Fourier transform. A circular shift of a profile only changes the
+ * phases, so the features are the same for each tonic. Because of Parseval's
+ * theorem the distance between the features is also a lower bound for the
+ * (scaled) euclidean distance between two profiles at their best shift:
+ * profiles with distant features can not be similar. The features are kept
+ * in a vantage point tree, a search returns the nearest candidates in the
+ * tree which are then ranked exactly by their overlap at the optimal shift,
+ * see {@link OverlapShiftSearch}.
+ * </p>
+ * <p>
+ * The profiles are stored with an area of one. An index can be written to a
+ * file and read again. The file is read completely and closed, so it can be
+ * replaced while the index is in use. An index is not thread safe.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class ToneScaleIndex {
+
+	/**
+	 * The magic number at the start of each file: TIDX in ASCII.
+	 */
+	private static final int MAGIC = 0x54494458;
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	private static final short VERSION = 1;
+
+	/**
+	 * The maximum number of harmonics used as features.
+	 */
+	private static final int MAXIMUM_HARMONICS = 32;
+
+	private final int profileSize;
+	private final int harmonics;
+	private final double[] cosines;
+	private final double[] sines;
+
+	private final List<String> names;
+	/**
+	 * The index of each name, the last one if a file has duplicate names.
+	 */
+	private final Map<String, Integer> indexes;
+	private float[] features;
+	private int count;
+
+	/**
+	 * The profiles of a file that was read, null for a new index.
+	 */
+	private final FloatBuffer storedProfiles;
+	/**
+	 * The profiles added or replaced after the index was created or read, by
+	 * index.
+	 */
+	private final Map<Integer, float[]> addedProfiles;
+
+	/**
+	 * The vantage point tree: the node for the range of the order from
+	 * <code>lo</code> to <code>hi</code> is <code>order[lo]</code>, the first
+	 * half of the other elements is inside its radius, the second half
+	 * outside.
+	 */
+	private int[] order;
+	private double[] radii;
+	private boolean treeIsValid;
+
+	/**
+	 * Creates a new, empty index.
+	 * 
+	 * @param sizeOfProfiles
+	 *            The number of bins of each profile, e.g. 1200 for a kernel
+	 *            density estimate with a bin per cent.
+	 */
+	public ToneScaleIndex(final int sizeOfProfiles) {
+		this(sizeOfProfiles, new ArrayList<String>(), new float[0], 0, null, null, null);
+	}
+
+	private ToneScaleIndex(final int sizeOfProfiles, final List<String> profileNames, final float[] profileFeatures,
+			final int numberOfProfiles, final FloatBuffer profiles, final int[] treeOrder, final double[] treeRadii) {
+		if (sizeOfProfiles <= 0) {
+			throw new IllegalArgumentException("The size of the profiles should be positive: " + sizeOfProfiles);
+		}
+		profileSize = sizeOfProfiles;
+		harmonics = Math.min(MAXIMUM_HARMONICS, profileSize / 2);
+		cosines = new double[profileSize];
+		sines = new double[profileSize];
+		for (int i = 0; i < profileSize; i++) {
+			cosines[i] = Math.cos(2 * Math.PI * i / profileSize);
+			sines[i] = Math.sin(2 * Math.PI * i / profileSize);
+		}
+		names = profileNames;
+		indexes = new HashMap<String, Integer>();
+		for (int i = 0; i < profileNames.size(); i++) {
+			indexes.put(profileNames.get(i), i);
+		}
+		features = profileFeatures;
+		count = numberOfProfiles;
+		storedProfiles = profiles;
+		addedProfiles = new HashMap<Integer, float[]>();
+		order = treeOrder;
+		radii = treeRadii;
+		treeIsValid = treeOrder != null;
+	}
+
+	/**
+	 * @return The number of profiles in the index.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return The number of bins of each profile.
+	 */
+	public int getProfileSize() {
+		return profileSize;
+	}
+
+	/**
+	 * Adds a profile to the index. A profile with the same name as a profile
+	 * that is already in the index replaces it.
+	 * 
+	 * @param name
+	 *            The name returned when the profile matches, e.g. the path of
+	 *            the audio file.
+	 * @param profile
+	 *            The profile, a histogram or kernel density estimate of
+	 *            pitch classes. It is copied.
+	 */
+	public void add(final String name, final double[] profile) {
+		final double[] normalized = normalize(profile);
+		final float[] stored = new float[profileSize];
+		for (int i = 0; i < profileSize; i++) {
+			stored[i] = (float) normalized[i];
+		}
+		final Integer existing = indexes.get(name);
+		final int index;
+		if (existing == null) {
+			index = count;
+			if ((count + 1) * harmonics > features.length) {
+				final float[] grown = new float[Math.max(16, 2 * count + 2) * harmonics];
+				System.arraycopy(features, 0, grown, 0, count * harmonics);
+				features = grown;
+			}
+			names.add(name);
+			indexes.put(name, index);
+			count++;
+		} else {
+			index = existing;
+		}
+		final double[] profileFeatures = features(normalized);
+		for (int k = 0; k < harmonics; k++) {
+			features[index * harmonics + k] = (float) profileFeatures[k];
+		}
+		addedProfiles.put(index, stored);
+		treeIsValid = false;
+	}
+
+	/**
+	 * Searches the profiles most similar to a query.
+	 * 
+	 * @param profile
+	 *            The query profile.
+	 * @param results
+	 *            The maximum number of results.
+	 * @param candidates
+	 *            The number of profiles with the nearest features that are
+	 *            compared with the query. More candidates make the search
+	 *            slower and the results more reliable. When it is at least
+	 *            the size of the index each profile is compared.
+	 * @return The most similar profiles, the best match first.
+	 */
+	public List<Match> search(final double[] profile, final int results, final int candidates) {
+		final double[] query = normalize(profile);
+		final List<Integer> candidateIndexes;
+		if (candidates >= count) {
+			candidateIndexes = new ArrayList<Integer>();
+			for (int i = 0; i < count; i++) {
+				candidateIndexes.add(i);
+			}
+		} else {
+			candidateIndexes = nearestFeatures(features(query), candidates);
+		}
+
+		final List<Match> matches = new ArrayList<Match>();
+		final double[] candidateProfile = new double[profileSize];
+		for (final int index : candidateIndexes) {
+			profile(index, candidateProfile);
+			final int shift = OverlapShiftSearch.optimalShift(query, candidateProfile);
+			final double similarity = OverlapShiftSearch.overlap(query, candidateProfile, shift);
+			matches.add(new Match(names.get(index), similarity, shift));
+		}
+		Collections.sort(matches, new Comparator<Match>() {
+			public int compare(final Match first, final Match second) {
+				return Double.compare(second.getSimilarity(), first.getSimilarity());
+			}
+		});
+		return new ArrayList<Match>(matches.subList(0, Math.min(results, matches.size())));
+	}
+
+	/**
+	 * A profile in the index that matches a query.
+	 */
+	public static final class Match {
+		private final String name;
+		private final double similarity;
+		private final int shift;
+
+		private Match(final String profileName, final double profileSimilarity, final int optimalShift) {
+			name = profileName;
+			similarity = profileSimilarity;
+			shift = optimalShift;
+		}
+
+		/**
+		 * @return The name of the matching profile.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The overlap of the query and the profile at the optimal
+		 *         shift, between 0 and 1.
+		 */
+		public double getSimilarity() {
+			return similarity;
+		}
+
+		/**
+		 * @return The number of bins the profile is shifted for the optimal
+		 *         overlap with the query.
+		 */
+		public int getShift() {
+			return shift;
+		}
+	}
+
+	/**
+	 * Writes the index to a file. The index is written to a temporary file in
+	 * the same directory first, the file the index was read from can be
+	 * overwritten.
+	 * 
+	 * @param file
+	 *            The file to write.
+	 * @throws IOException
+	 *             If the file can not be written.
+	 */
+	public void write(final File file) throws IOException {
+		buildTree();
+		final File target = file.getAbsoluteFile();
+		final File partialFile = File.createTempFile(target.getName() + "_", ".part", target.getParentFile());
+		boolean written = false;
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+				partialFile)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeInt(profileSize);
+			output.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				output.writeInt(order[i]);
+				output.writeDouble(radii[i]);
+			}
+			for (int i = 0; i < count * harmonics; i++) {
+				output.writeFloat(features[i]);
+			}
+			final double[] profile = new double[profileSize];
+			for (int i = 0; i < count; i++) {
+				profile(i, profile);
+				for (final double value : profile) {
+					output.writeFloat((float) value);
+				}
+			}
+			for (final String name : names) {
+				output.writeUTF(name);
+			}
+			output.close();
+			written = true;
+		} finally {
+			if (!written) {
+				output.close();
+				partialFile.delete();
+			}
+		}
+		if (target.exists() && !target.delete() || !partialFile.renameTo(target)) {
+			partialFile.delete();
+			throw new IOException("Could not move " + partialFile + " to " + target);
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #write(File)}.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @return The index, profiles can be added to it.
+	 * @throws IOException
+	 *             If the file can not be read or is not an index.
+	 */
+	public static ToneScaleIndex read(final File file) throws IOException {
+		final FileInputStream input = new FileInputStream(file);
+		final ByteBuffer buffer;
+		try {
+			final FileChannel channel = input.getChannel();
+			final long length = channel.size();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("The tone scale index " + file + " is too large.");
+			}
+			buffer = ByteBuffer.allocate((int) length);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// keep reading until the buffer is full or the file ends
+			}
+			buffer.flip();
+		} finally {
+			input.close();
+		}
+		if (buffer.limit() < 14 || buffer.getInt() != MAGIC) {
+			throw new IOException(file + " is not a tone scale index.");
+		}
+		final short version = buffer.getShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version " + version + " of tone scale index " + file);
+		}
+		final int profileSize = buffer.getInt();
+		final int count = buffer.getInt();
+		final int harmonics = Math.min(MAXIMUM_HARMONICS, profileSize / 2);
+		final long namesOffset = 14 + 12L * count + 4L * count * harmonics + 4L * count * profileSize;
+		if (profileSize <= 0 || count < 0 || namesOffset > buffer.limit()) {
+			throw new IOException("The tone scale index " + file + " is truncated.");
+		}
+
+		final int[] order = new int[count];
+		final double[] radii = new double[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = buffer.getInt();
+			radii[i] = buffer.getDouble();
+		}
+		final float[] features = new float[count * harmonics];
+		buffer.asFloatBuffer().get(features);
+		buffer.position(buffer.position() + 4 * features.length);
+
+		final ByteBuffer profileBytes = buffer.slice();
+		profileBytes.limit(4 * count * profileSize);
+		final FloatBuffer profiles = profileBytes.asFloatBuffer();
+
+		buffer.position((int) namesOffset);
+		final byte[] nameBytes = new byte[buffer.remaining()];
+		buffer.get(nameBytes);
+		final DataInputStream nameInput = new DataInputStream(new ByteArrayInputStream(nameBytes));
+		final List<String> names = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			names.add(nameInput.readUTF());
+		}
+		return new ToneScaleIndex(profileSize, names, features, count, profiles, order, radii);
+	}
+
+	/**
+	 * @return A copy of the profile with an area of one.
+	 */
+	private double[] normalize(final double[] profile) {
+		if (profile.length != profileSize) {
+			throw new IllegalArgumentException("The profile should have " + profileSize + " bins, not "
+					+ profile.length);
+		}
+		double area = 0;
+		for (final double value : profile) {
+			area += value;
+		}
+		final double[] normalized = new double[profileSize];
+		if (area != 0) {
+			for (int i = 0; i < profileSize; i++) {
+				normalized[i] = profile[i] / area;
+			}
+		}
+		return normalized;
+	}
+
+	/**
+	 * @return The magnitudes of harmonic 1 up to the number of harmonics.
+	 */
+	private double[] features(final double[] profile) {
+		final double[] magnitudes = new double[harmonics];
+		for (int k = 0; k < harmonics; k++) {
+			double real = 0;
+			double imaginary = 0;
+			int phase = 0;
+			for (int i = 0; i < profileSize; i++) {
+				real += profile[i] * cosines[phase];
+				imaginary -= profile[i] * sines[phase];
+				phase += k + 1;
+				if (phase >= profileSize) {
+					phase -= profileSize;
+				}
+			}
+			magnitudes[k] = Math.sqrt(real * real + imaginary * imaginary);
+		}
+		return magnitudes;
+	}
+
+	private void profile(final int index, final double[] profile) {
+		final float[] added = addedProfiles.get(index);
+		if (added == null) {
+			final int offset = index * profileSize;
+			for (int i = 0; i < profileSize; i++) {
+				profile[i] = storedProfiles.get(offset + i);
+			}
+		} else {
+			for (int i = 0; i < profileSize; i++) {
+				profile[i] = added[i];
+			}
+		}
+	}
+
+	private double distance(final double[] queryFeatures, final int index) {
+		final int offset = index * harmonics;
+		double sum = 0;
+		for (int k = 0; k < harmonics; k++) {
+			final double difference = queryFeatures[k] - features[offset + k];
+			sum += difference * difference;
+		}
+		return Math.sqrt(sum);
+	}
+
+	/* -------------------------- Vantage point tree ------------------------ */
+
+	private void buildTree() {
+		if (!treeIsValid) {
+			order = new int[count];
+			radii = new double[count];
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			buildTree(0, count, new double[count]);
+			treeIsValid = true;
+		}
+	}
+
+	/**
+	 * Builds the node for a range of the order: the elements closest to the
+	 * vantage point are moved to the first half of the range.
+	 */
+	private void buildTree(final int lo, final int hi, final double[] distances) {
+		if (hi - lo > 1) {
+			final int vantagePoint = order[lo];
+			final double[] vantageFeatures = new double[harmonics];
+			for (int k = 0; k < harmonics; k++) {
+				vantageFeatures[k] = features[vantagePoint * harmonics + k];
+			}
+			for (int i = lo + 1; i < hi; i++) {
+				distances[i] = distance(vantageFeatures, order[i]);
+			}
+			final int middle = middle(lo, hi);
+			select(distances, lo + 1, hi - 1, middle);
+			radii[lo] = distances[middle];
+			buildTree(lo + 1, middle, distances);
+			buildTree(middle, hi, distances);
+		}
+	}
+
+	/**
+	 * @return The start of the elements outside the radius of the node at
+	 *         <code>lo</code>.
+	 */
+	private static int middle(final int lo, final int hi) {
+		return lo + 1 + (hi - lo - 1) / 2;
+	}
+
+	/**
+	 * Reorders the range of the order so the element at <code>k</code> has
+	 * the distance it would have if the range was sorted, with smaller or
+	 * equal distances before it and larger or equal distances after it.
+	 */
+	private void select(final double[] distances, final int left, final int right, final int k) {
+		int lo = left;
+		int hi = right;
+		while (lo < hi) {
+			final double pivot = distances[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (distances[i] < pivot) {
+					i++;
+				}
+				while (distances[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(distances, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(final double[] distances, final int i, final int j) {
+		final double distance = distances[i];
+		distances[i] = distances[j];
+		distances[j] = distance;
+		final int index = order[i];
+		order[i] = order[j];
+		order[j] = index;
+	}
+
+	/**
+	 * A profile found while searching the tree.
+	 */
+	private static final class Neighbour {
+		private final int index;
+		private final double distance;
+
+		private Neighbour(final int profileIndex, final double featureDistance) {
+			index = profileIndex;
+			distance = featureDistance;
+		}
+	}
+
+	/**
+	 * @return The indexes of the profiles with the nearest features.
+	 */
+	private List<Integer> nearestFeatures(final double[] queryFeatures, final int numberOfNeighbours) {
+		buildTree();
+		final PriorityQueue<Neighbour> nearest = new PriorityQueue<Neighbour>(Math.max(1, numberOfNeighbours),
+				new Comparator<Neighbour>() {
+					public int compare(final Neighbour first, final Neighbour second) {
+						return Double.compare(second.distance, first.distance);
+					}
+				});
+		if (numberOfNeighbours > 0) {
+			searchTree(queryFeatures, 0, count, numberOfNeighbours, nearest);
+		}
+		final List<Integer> indexes = new ArrayList<Integer>();
+		for (final Neighbour neighbour : nearest) {
+			indexes.add(neighbour.index);
+		}
+		return indexes;
+	}
+
+	private void searchTree(final double[] queryFeatures, final int lo, final int hi, final int numberOfNeighbours,
+			final PriorityQueue<Neighbour> nearest) {
+		if (lo >= hi) {
+			return;
+		}
+		final int vantagePoint = order[lo];
+		final double distance = distance(queryFeatures, vantagePoint);
+		if (nearest.size() < numberOfNeighbours) {
+			nearest.add(new Neighbour(vantagePoint, distance));
+		} else if (distance < nearest.peek().distance) {
+			nearest.poll();
+			nearest.add(new Neighbour(vantagePoint, distance));
+		}
+		if (hi - lo > 1) {
+			final int middle = middle(lo, hi);
+			final double radius = radii[lo];
+			if (distance < radius) {
+				if (distance - furthest(nearest, numberOfNeighbours) <= radius) {
+					searchTree(queryFeatures, lo + 1, middle, numberOfNeighbours, nearest);
+				}
+				if (distance + furthest(nearest, numberOfNeighbours) >= radius) {
+					searchTree(queryFeatures, middle, hi, numberOfNeighbours, nearest);
+				}
+			} else {
+				if (distance + furthest(nearest, numberOfNeighbours) >= radius) {
+					searchTree(queryFeatures, middle, hi, numberOfNeighbours, nearest);
+				}
+				if (distance - furthest(nearest, numberOfNeighbours) <= radius) {
+					searchTree(queryFeatures, lo + 1, middle, numberOfNeighbours, nearest);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The distance a profile should beat to be one of the nearest.
+	 */
+	private static double furthest(final PriorityQueue<Neighbour> nearest, final int numberOfNeighbours) {
+		final double furthest;
+		if (nearest.size() < numberOfNeighbours) {
+			furthest = Double.POSITIVE_INFINITY;
+		} else {
+			furthest = nearest.peek().distance;
+		}
+		return furthest;
+	}
+}
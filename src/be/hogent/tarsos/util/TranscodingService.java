@@ -0,0 +1,232 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import be.hogent.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * Transcodes audio files ahead of their analysis. Creating an
+ * {@link AudioFile} transcodes it, which keeps an ffmpeg process busy; the
+ * service creates audio files on a limited number of threads, read from
+ * {@link ConfKey#transcoding_threads}, while the files transcoded before are
+ * analysed.
+ * <p>
+ * Files are transcoded in the order they are submitted. A file that is needed
+ * ({@link #get(String)}) before it is transcoded moves to the front of the
+ * queue, so the analysis never waits for files it does not need yet. A batch
+ * typically submits all its files and gets each file in the task that analyses
+ * it:
+ * </p>
+ * 
+ * <pre>
+ * final TranscodingService transcoder = new TranscodingService();
+ * transcoder.submitAll(inputFiles);
+ * // in each task of a BatchExecutor
+ * final AudioFile audioFile = transcoder.get(inputFile);
+ * // when the batch is done
+ * transcoder.shutdown();
+ * </pre>
+ * 
+ * @author Joren Six
+ */
+public final class TranscodingService {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(TranscodingService.class.getName());
+
+	private final ThreadPoolExecutor executor;
+	private final Map<String, Transcoding> transcodings;
+	/**
+	 * Orders submitted files, files that are needed get a lower (more
+	 * urgent) order than all submitted files.
+	 */
+	private final AtomicLong submittedOrder;
+	private final AtomicLong neededOrder;
+
+	/**
+	 * The transcoding of one file, ordered by urgency.
+	 */
+	private static final class Transcoding extends FutureTask<AudioFile> implements Comparable<Transcoding> {
+		private volatile long order;
+
+		private Transcoding(final Callable<AudioFile> callable, final long submitOrder) {
+			super(callable);
+			order = submitOrder;
+		}
+
+		public int compareTo(final Transcoding other) {
+			return order < other.order ? -1 : order == other.order ? 0 : 1;
+		}
+	}
+
+	/**
+	 * Creates a service with the configured number of threads.
+	 */
+	public TranscodingService() {
+		this(Configuration.getInt(ConfKey.transcoding_threads));
+	}
+
+	/**
+	 * Creates a service.
+	 * 
+	 * @param threads
+	 *            The maximum number of files transcoded concurrently.
+	 */
+	public TranscodingService(final int threads) {
+		final int numberOfThreads = Math.max(1, threads);
+		final BlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+		executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0, TimeUnit.MILLISECONDS, queue,
+				new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "Tarsos transcoder "
+								+ threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// The queue is changed directly to move needed files to the front,
+		// that requires running threads to take them.
+		executor.prestartAllCoreThreads();
+		transcodings = new ConcurrentHashMap<String, Transcoding>();
+		submittedOrder = new AtomicLong(0);
+		neededOrder = new AtomicLong(Long.MIN_VALUE);
+	}
+
+	/**
+	 * Queues a file for transcoding, if it is not queued yet.
+	 * 
+	 * @param path
+	 *            The path of the file.
+	 */
+	public void submit(final String path) {
+		transcoding(path);
+	}
+
+	/**
+	 * Queues files for transcoding, in order.
+	 * 
+	 * @param paths
+	 *            The paths of the files.
+	 */
+	public void submitAll(final List<String> paths) {
+		for (final String path : paths) {
+			submit(path);
+		}
+	}
+
+	/**
+	 * Returns the transcoded audio file, waiting for the transcoding to
+	 * finish. If the file is not transcoded yet it is transcoded next.
+	 * 
+	 * @param path
+	 *            The path of the file.
+	 * @return The audio file.
+	 * @throws EncoderException
+	 *             If the file can not be transcoded.
+	 */
+	public AudioFile get(final String path) throws EncoderException {
+		final Transcoding transcoding = transcoding(path);
+		final BlockingQueue<Runnable> queue = executor.getQueue();
+		if (queue.remove(transcoding)) {
+			transcoding.order = neededOrder.getAndIncrement();
+			queue.add(transcoding);
+		}
+		try {
+			return transcoding.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncoderException("Interrupted while waiting for the transcoding of " + path);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof EncoderException) {
+				throw (EncoderException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Could not transcode " + path, cause);
+		}
+	}
+
+	private Transcoding transcoding(final String path) {
+		Transcoding transcoding = transcodings.get(path);
+		if (transcoding == null) {
+			final Transcoding newTranscoding = new Transcoding(new Callable<AudioFile>() {
+				public AudioFile call() throws EncoderException {
+					return new AudioFile(path);
+				}
+			}, submittedOrder.getAndIncrement());
+			synchronized (transcodings) {
+				transcoding = transcodings.get(path);
+				if (transcoding == null) {
+					transcoding = newTranscoding;
+					transcodings.put(path, transcoding);
+					executor.execute(transcoding);
+				}
+			}
+		}
+		return transcoding;
+	}
+
+	/**
+	 * Stops the service. Files that are being transcoded are finished, queued
+	 * files are not transcoded. Files can not be submitted or waited for after
+	 * the service is stopped.
+	 */
+	public void shutdown() {
+		final List<Runnable> queued = new ArrayList<Runnable>();
+		executor.getQueue().drainTo(queued);
+		executor.shutdown();
+		if (!queued.isEmpty()) {
+			LOG.fine(String.format("Cancelled the transcoding of %s files.", queued.size()));
+		}
+		for (final Runnable runnable : queued) {
+			((Transcoding) runnable).cancel(false);
+		}
+	}
+}
@@ -36,12 +36,6 @@ public final class BhattacharyaDistance implements HistogramCorrelation {
     public double correlation(final Histogram first, final int displacement, final Histogram second) {
         // number of bins (classes)
         final int numberOfClasses = first.getNumberOfClasses();
-        // start value
-        final double start = first.getStart();
-        // stop value
-        final double stop = first.getStop();
-        // classWidth
-        final double classWidth = first.getClassWidth();
 
         int actualDisplacement = displacement;
         // make displacement positive
@@ -51,10 +45,9 @@ public final class BhattacharyaDistance implements HistogramCorrelation {
 
         double distance = 0.0;
 
-        for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-            final double displacedValue = (current + actualDisplacement * classWidth)
-            % (numberOfClasses * classWidth);
-            distance += Math.pow(first.getCount(current) * second.getCount(displacedValue),
+        for (int i = 0; i < numberOfClasses; i++) {
+            final int displacedClass = i + actualDisplacement;
+            distance += Math.pow(first.getCountForClass(i) * second.getCountForClass(displacedClass),
                     0.5);
         }
 
@@ -38,12 +38,6 @@ public final class CrossCorrelation implements HistogramCorrelation {
 			final Histogram otherHistogram) {
 		// number of bins (classes)
 		final int numberOfClasses = thisHistogam.getNumberOfClasses();
-		// start value
-		final double start = thisHistogam.getStart();
-		// stop value
-		final double stop = thisHistogam.getStop();
-		// classWidth
-		final double classWidth = thisHistogam.getClassWidth();
 
 		int actualDisplacement = displacement;
 		// make displacement positive
@@ -53,10 +47,9 @@ public final class CrossCorrelation implements HistogramCorrelation {
 
 		double distance = 0.0;
 
-		for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-			final double displacedValue;
-			displacedValue = (current + actualDisplacement * classWidth) % (numberOfClasses * classWidth);
-			distance += thisHistogam.getCount(current) * otherHistogram.getCount(displacedValue);
+		for (int i = 0; i < numberOfClasses; i++) {
+			final int displacedClass = i + actualDisplacement;
+			distance += thisHistogam.getCountForClass(i) * otherHistogram.getCountForClass(displacedClass);
 		}
 
 		return distance / numberOfClasses;
@@ -37,12 +37,6 @@ public final class EuclideanDistance implements HistogramCorrelation {
 			final Histogram otherHistogram) {
 		// number of bins (classes)
 		final int numberOfClasses = thisHistogam.getNumberOfClasses();
-		// start value
-		final double start = thisHistogam.getStart();
-		// stop value
-		final double stop = thisHistogam.getStop();
-		// classWidth
-		final double classWidth = thisHistogam.getClassWidth();
 
 		int actualDisplacement = displacement;
 		// make displacement positive
@@ -52,10 +46,9 @@ public final class EuclideanDistance implements HistogramCorrelation {
 
 		double distance = 0.0;
 
-		for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-			final double displacedValue;
-			displacedValue = (current + actualDisplacement * classWidth) % (numberOfClasses * classWidth);
-			distance += Math.pow(thisHistogam.getCount(current) - otherHistogram.getCount(displacedValue), 2);
+		for (int i = 0; i < numberOfClasses; i++) {
+			final int displacedClass = i + actualDisplacement;
+			distance += Math.pow(thisHistogam.getCountForClass(i) - otherHistogram.getCountForClass(displacedClass), 2);
 		}
 
 		return -1 * Math.pow(distance, 0.5);
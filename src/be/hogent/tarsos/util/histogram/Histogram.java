@@ -27,16 +27,20 @@
 package be.hogent.tarsos.util.histogram;
 
 import java.text.NumberFormat;
-import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.apache.commons.math.stat.StatUtils;
 
+import be.hogent.tarsos.util.CircularCorrelation;
 import be.hogent.tarsos.util.FileUtils;
+import be.hogent.tarsos.util.GaussianSmoother;
+import be.hogent.tarsos.util.OverlapShiftSearch;
 import be.hogent.tarsos.util.SimplePlot;
 
 /**
@@ -47,10 +51,10 @@ import be.hogent.tarsos.util.SimplePlot;
  * {[0,1[;[1,2[;[2,3[;[3,4];[4,5[} with [0,1[ meaning the interval between 0
  * inclusive and 1 exclusive.
  * <p>
- * The histogram uses a red and black tree as underlying structure: Search,
- * insert and delete are O(LOG n). The tree keeps the keys in order and makes
- * iteration (in order) easy. Optimization is possible by replacing the tree
- * with arrays.
+ * The histogram uses an array of counts indexed by class number as underlying
+ * structure: a value is mapped to its class with a division, so adding a value
+ * and looking up a count are O(1). The keys are kept in a second, sorted array
+ * which makes iteration (in order) easy.
  * </p>
  * <p>
  * The histogram uses doubles as key values. Java doubles are prone to rounding
@@ -75,11 +79,32 @@ public class Histogram implements Cloneable {
 	 */
 	private final int numberOfClasses;
 	/**
-	 * A red black tree backing the frequency table, easy to iterate (in order)
-	 * TODO Optimization: serious optimization possible by using a plain array
-	 * (or two).
+	 * The number of items in each class (or bin), indexed by class number. Not
+	 * final because a clone needs its own copy.
 	 */
-	private final TreeMap<Double, Long> freqTable;
+	private long[] counts;
+	/**
+	 * The key (the middle) of each class, indexed by class number.
+	 */
+	private final double[] keys;
+	/**
+	 * A read only view on the keys, shared with clones.
+	 */
+	private final Set<Double> keySet;
+	/**
+	 * The sum of all counts, kept up to date with each change.
+	 */
+	private long sumFreq;
+	/**
+	 * The spectrum of the counts, computed when needed and cleared with each
+	 * change. It is used to correlate with other histograms for all
+	 * displacements at once.
+	 */
+	private double[] spectrum;
+	/**
+	 * The number of changes to the counts, see {@link #getModificationCount()}.
+	 */
+	private long modificationCount;
 	/**
 	 * The starting value != the first class middle start == the first class
 	 * middle - classWidth / 2.
@@ -141,28 +166,23 @@ public class Histogram implements Cloneable {
 					+ ") should be bigger than the starting value (" + startVal + ") .");
 		}
 
+		if (totalClasses <= 0) {
+			throw new IllegalArgumentException("The number of classes (" + totalClasses
+					+ ") should be bigger than zero.");
+		}
+
 		this.classWidth = preventRoundingErrors((stopVal - startVal) / totalClasses);
 		this.start = startVal;
 		this.stop = stopVal;
-		this.freqTable = new TreeMap<Double, Long>();
 		this.wraps = wrapping;
 		this.ignoreValuesOutsideRange = ignoreOutsideRange;
-
-		final double lastKey = stopVal - getClassWidth() / 2;
-
-		final double stopValue;
-		if (wrapping) {
-			stopValue = lastKey;
-		} else {
-			stopValue = lastKey + getClassWidth() / 2;
+		this.numberOfClasses = totalClasses;
+		this.counts = new long[totalClasses];
+		this.keys = new double[totalClasses];
+		for (int i = 0; i < totalClasses; i++) {
+			keys[i] = preventRoundingErrors(startVal + i * classWidth + classWidth / 2.0);
 		}
-		freqTable.put(preventRoundingErrors(startVal + getClassWidth() / 2), 0L);
-		for (double current = startVal + getClassWidth() / 2; current <= stopValue;) {
-			freqTable.put(valueToKey(current), 0L);
-			current = current + getClassWidth();
-		}
-
-		this.numberOfClasses = freqTable.keySet().size();
+		this.keySet = new KeySet(keys);
 	}
 
 	/**
@@ -243,15 +263,7 @@ public class Histogram implements Cloneable {
 	 * @return the key for class with index bufferCount
 	 */
 	public final double getKeyForClass(final int i) {
-		int classIndex = i;
-		// make sure classIndex is positive
-		while (classIndex < 0) {
-			classIndex += getNumberOfClasses();
-		}
-		// make sure bufferCount is within range
-		classIndex = classIndex % getNumberOfClasses();
-		final double key = getStart() + classIndex * getClassWidth() + getClassWidth() / 2.0;
-		return preventRoundingErrors(key);
+		return keys[wrapClassIndex(i)];
 	}
 
 	/**
@@ -264,16 +276,24 @@ public class Histogram implements Cloneable {
 	 * @return the number of items in bin with index bufferCount
 	 */
 	public final long getCountForClass(final int i) {
-		return getCount(getKeyForClass(i));
+		return counts[wrapClassIndex(i)];
+	}
+
+	/**
+	 * Maps a class index to the interval <code>[0,getNumberOfClasses()[</code>
+	 * using a modulo calculation.
+	 */
+	private int wrapClassIndex(final int i) {
+		final int classIndex = i % numberOfClasses;
+		return classIndex < 0 ? classIndex + numberOfClasses : classIndex;
 	}
 
 	/**
-	 * @return the set with histogram keys; Do not add keys to the set directly.
-	 *         Use histogram methods instead. For performance reasons it is not
-	 *         wrapped in an immutable set so handle with care.
+	 * @return the set with histogram keys, in order. The set is read only: use
+	 *         histogram methods to change the histogram.
 	 */
 	public final Set<Double> keySet() {
-		return freqTable.keySet();
+		return keySet;
 	}
 
 	/**
@@ -297,11 +317,11 @@ public class Histogram implements Cloneable {
 		}
 
 		if (value > 0) {
-			final double key = valueToKey(value);
-			final Long count = freqTable.get(key);
-			assert count != null : "All key values should be initialized, " + key + " is not.";
-			if (count != null) {
-				freqTable.put(key, Long.valueOf(count.longValue() + 1));
+			final int classIndex = valueToClassIndex(value);
+			if (classIndex >= 0) {
+				counts[classIndex]++;
+				sumFreq++;
+				changed();
 			}
 		} else {
 			LOG.warning("Using values below zero in is not tested, "
@@ -335,42 +355,43 @@ public class Histogram implements Cloneable {
 	 *            to prevent errors for.
 	 * @return a rounded value to
 	 */
-	private double preventRoundingErrors(final double value) {
+	private static double preventRoundingErrors(final double value) {
 		return Math.floor(value * PRECISION_FACTOR) / PRECISION_FACTOR;
 	}
 
 	/**
-	 * returns the key for a value. E.g. if the bin width is 1 then
-	 * valueToKey(3.2) returns 3.5
+	 * Returns the index of the class a value belongs to. E.g. if the bin width
+	 * is 1 and the histogram starts at 0 then valueToClassIndex(3.2) returns 3.
+	 * If the histogram wraps, values outside the range are mapped to a class
+	 * using a modulo calculation.
 	 * 
 	 * @param value
-	 *            the value to get the key to
-	 * @return the key closest to the value
+	 *            the value to get the class index for
+	 * @return the index of the class or -1 if the histogram does not wrap and
+	 *         the value is outside the range.
 	 */
-	private double valueToKey(final double value) {
+	private int valueToClassIndex(final double value) {
 		// TODO remove the value below zero limitation
-		// by changing the wraps modulo calculation and test
 		if (value < 0) {
 			throw new IllegalArgumentException("Currently no values below zero are accepted");
 		}
 
-		double roundedValue = value;
+		final double interval = stop - start;
+		double offset = value - start;
 		if (wraps) {
-			final double interval = stop - start;
-			while (roundedValue < freqTable.firstKey()) {
-				roundedValue = preventRoundingErrors(roundedValue + interval);
+			offset = offset % interval;
+			if (offset < 0) {
+				offset += interval;
 			}
-			roundedValue = preventRoundingErrors(start + (roundedValue - start) % interval);
 		}
-
-		// assert validValue(roundedValue);
-
-		final double classes = Math.floor((roundedValue + start) / classWidth);
-		final double offset = classWidth / 2 - start;
-		final double key = preventRoundingErrors(classes * classWidth + offset);
-		// assert key >= freqTable.firstKey();
-		// assert key <= freqTable.lastKey();
-		return key;
+		int classIndex = (int) Math.floor(offset / classWidth);
+		if (classIndex == numberOfClasses && offset < interval) {
+			// the class width is rounded down, the last class takes the rest
+			classIndex = numberOfClasses - 1;
+		} else if (Double.isNaN(offset) || classIndex < 0 || classIndex >= numberOfClasses) {
+			classIndex = -1;
+		}
+		return classIndex;
 	}
 
 	/**
@@ -381,18 +402,18 @@ public class Histogram implements Cloneable {
 	 * @return the frequency of v.
 	 */
 	public final long getCount(final double value) {
-		final double key = valueToKey(value);
+		final int classIndex = valueToClassIndex(value);
 		long result = 0;
-		final Long count = freqTable.get(key);
-		if (count != null) {
-			result = count.longValue();
+		if (classIndex >= 0) {
+			result = counts[classIndex];
 		}
 		return result;
 	}
 
 	/**
 	 * Sets the number of values for a key (bin) The value is automatically
-	 * mapped to a key.
+	 * mapped to a key. Values outside the range of a histogram that does not
+	 * wrap are ignored.
 	 * 
 	 * @param value
 	 *            the value mapped to a key of the class to set the count for.
@@ -400,8 +421,81 @@ public class Histogram implements Cloneable {
 	 *            the number of items in the bin
 	 */
 	public final void setCount(final double value, final long count) {
-		final double key = valueToKey(value);
-		freqTable.put(key, count);
+		final int classIndex = valueToClassIndex(value);
+		if (classIndex >= 0) {
+			setCountForClass(classIndex, count);
+		}
+	}
+
+	/**
+	 * Clears the cached values that depend on the counts, called after each
+	 * change.
+	 */
+	private void changed() {
+		spectrum = null;
+		modificationCount++;
+	}
+
+	/**
+	 * @return The number of times the counts were changed. Results computed
+	 *         from the histogram can be cached as long as the modification
+	 *         count stays the same.
+	 */
+	public final long getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * Sets the number of items in class with index classIndex.
+	 */
+	private void setCountForClass(final int classIndex, final long count) {
+		sumFreq += count - counts[classIndex];
+		counts[classIndex] = count;
+		changed();
+	}
+
+	/**
+	 * @return The spectrum of the counts, see
+	 *         {@link CircularCorrelation#spectrum(double[])}. It is cached
+	 *         until the histogram changes.
+	 */
+	private double[] spectrum() {
+		double[] currentSpectrum = spectrum;
+		if (currentSpectrum == null) {
+			currentSpectrum = CircularCorrelation.spectrum(profile());
+			spectrum = currentSpectrum;
+		}
+		return currentSpectrum;
+	}
+
+	/**
+	 * @return The counts as doubles.
+	 */
+	private double[] profile() {
+		final double[] profile = new double[numberOfClasses];
+		for (int i = 0; i < numberOfClasses; i++) {
+			profile[i] = counts[i];
+		}
+		return profile;
+	}
+
+	/**
+	 * Returns the counts of this histogram, or the counts of the other
+	 * histogram at the keys of this histogram if the classes of both
+	 * histograms differ. Do not change the returned array.
+	 */
+	private long[] alignedCounts(final Histogram other) {
+		final long[] aligned;
+		if (other.numberOfClasses == numberOfClasses && other.start == start
+				&& other.classWidth == classWidth) {
+			aligned = other.counts;
+		} else {
+			aligned = new long[numberOfClasses];
+			for (int i = 0; i < numberOfClasses; i++) {
+				aligned[i] = other.getCount(keys[i]);
+			}
+		}
+		return aligned;
 	}
 
 	/**
@@ -425,8 +519,6 @@ public class Histogram implements Cloneable {
 	 * @return the starting value
 	 */
 	public final double getStart() {
-		// assert Math.abs(start - freqTable.firstKey() - classWidth / 2.0) <
-		// 0.0001;
 		return start;
 	}
 
@@ -437,9 +529,6 @@ public class Histogram implements Cloneable {
 	 * @return the stop value
 	 */
 	public double getStop() {
-		// assert Math.abs(stop - freqTable.lastKey() + classWidth / 2.0) <
-		// 0.001;
-		// stop is cached for performance reasons
 		return stop;
 	}
 
@@ -457,7 +546,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double firstValidValue() {
-		return this.freqTable.firstKey() - classWidth / 2.0;
+		return keys[0] - classWidth / 2.0;
 	}
 
 	/**
@@ -466,7 +555,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double lastValidValue() {
-		return this.freqTable.lastKey() + classWidth / 2.0;
+		return keys[numberOfClasses - 1] + classWidth / 2.0;
 	}
 
 	/**
@@ -497,38 +586,25 @@ public class Histogram implements Cloneable {
 	 * @return the proportion of values equal to v
 	 */
 	public long getCumFreq(final Double v) {
-		long cumulativeFreq = -1;
+		long cumulativeFreq;
 		if (getSumFreq() == 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.firstKey()) < 0) {
+		} else if (v.compareTo(keys[0]) < 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.lastKey()) >= 0) {
+		} else if (v.compareTo(keys[numberOfClasses - 1]) >= 0) {
 			cumulativeFreq = getSumFreq();
 		} else {
-
 			// the frequency of this key
-			long result = 0;
-			final Long value = freqTable.get(v);
-			if (value != null) {
-				result = value.longValue();
+			cumulativeFreq = 0;
+			final int keyIndex = Arrays.binarySearch(keys, v);
+			if (keyIndex >= 0) {
+				cumulativeFreq = counts[keyIndex];
 			}
-
 			// add the frequencies of values smaller than this key
-			final Iterator<Double> values = freqTable.keySet().iterator();
-			while (values.hasNext()) {
-				final Double nextValue = values.next();
-				if (v.compareTo(nextValue) > 0) {
-					result += getCount(nextValue);
-				} else {
-					cumulativeFreq = result;
-					break;
-				}
+			for (int i = 0; v.compareTo(keys[i]) > 0; i++) {
+				cumulativeFreq += counts[i];
 			}
 		}
-		if (cumulativeFreq == -1) {
-			throw new AssertionError("The key is greather than te last key but this is impossible."
-					+ " It should have been returned already.");
-		}
 		return cumulativeFreq;
 	}
 
@@ -561,12 +637,7 @@ public class Histogram implements Cloneable {
 	 * @return the total frequency count.
 	 */
 	public long getSumFreq() {
-		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += iterator.next().longValue();
-		}
-		return result;
+		return sumFreq;
 	}
 
 	/**
@@ -577,9 +648,8 @@ public class Histogram implements Cloneable {
 	 */
 	public long getAbsoluteSumFreq() {
 		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += Math.abs(iterator.next().longValue());
+		for (final long count : counts) {
+			result += Math.abs(count);
 		}
 		return result;
 	}
@@ -645,10 +715,8 @@ public class Histogram implements Cloneable {
 	 */
 	public double getMean() {
 		final double[] binCounts = new double[this.getNumberOfClasses() + 1];
-		int i = 0;
-		for (final double key : this.keySet()) {
-			binCounts[i] = this.getCount(key);
-			i++;
+		for (int i = 0; i < numberOfClasses; i++) {
+			binCounts[i] = counts[i];
 		}
 		return StatUtils.mean(binCounts);
 	}
@@ -662,10 +730,8 @@ public class Histogram implements Cloneable {
 	 */
 	public double getMedian() {
 		final double[] binCounts = new double[this.getNumberOfClasses() + 1];
-		int i = 0;
-		for (final double key : this.keySet()) {
-			binCounts[i] = this.getCount(key);
-			i++;
+		for (int i = 0; i < numberOfClasses; i++) {
+			binCounts[i] = counts[i];
 		}
 		return StatUtils.percentile(binCounts, 50);
 	}
@@ -698,9 +764,7 @@ public class Histogram implements Cloneable {
 		if (asciiArt) {
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append('\n');
-			final Iterator<Double> iter = freqTable.keySet().iterator();
-			while (iter.hasNext()) {
-				final Double value = iter.next();
+			for (final Double value : keySet) {
 				outBuffer.append(value).append("\t\t|");
 				for (int i = 0; i < getPct(value) * 100; i++) {
 					outBuffer.append('x');
@@ -713,9 +777,7 @@ public class Histogram implements Cloneable {
 			final NumberFormat nf = NumberFormat.getPercentInstance();
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append("\nValue \t Freq. \t Pct. \t Cum Pct. \n");
-			final Iterator<Double> iter = freqTable.keySet().iterator();
-			while (iter.hasNext()) {
-				final Double value = iter.next();
+			for (final Double value : keySet) {
 				outBuffer.append(value);
 				outBuffer.append('\t');
 				outBuffer.append(getCount(value));
@@ -746,14 +808,15 @@ public class Histogram implements Cloneable {
 	 * @return a Histogram with normalized peak.
 	 */
 	public Histogram normalize() {
-		final List<Long> normalizedCounts = new ArrayList<Long>();
-		for (final double key : freqTable.keySet()) {
-			normalizedCounts.add((long) (getPct(key) * 10000));
-		}
-		int index = 0;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, normalizedCounts.get(index));
-			index++;
+		final double total = getSumFreq();
+		for (int i = 0; i < numberOfClasses; i++) {
+			final long normalizedCount;
+			if (total == 0) {
+				normalizedCount = 0;
+			} else {
+				normalizedCount = (long) (counts[i] / total * 10000);
+			}
+			setCountForClass(i, normalizedCount);
 		}
 		return this;
 	}
@@ -774,9 +837,11 @@ public class Histogram implements Cloneable {
 	public Histogram addToEachBin(final long value) {
 		// do nothing if value == 0
 		if (value != 0) {
-			for (final double key : freqTable.keySet()) {
-				this.setCount(key, getCount(key) + value);
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += value;
 			}
+			sumFreq += value * numberOfClasses;
+			changed();
 		}
 		return this;
 	}
@@ -801,8 +866,8 @@ public class Histogram implements Cloneable {
 	 */
 	public Histogram baselineHistogram() {
 		long smallestValue = Long.MAX_VALUE;
-		for (final double key : freqTable.keySet()) {
-			smallestValue = Math.min(getCount(key), smallestValue);
+		for (final long count : counts) {
+			smallestValue = Math.min(count, smallestValue);
 		}
 		final long valueToAdd = (long) -1.0 * smallestValue;
 		return addToEachBin(valueToAdd);
@@ -824,11 +889,12 @@ public class Histogram implements Cloneable {
 	 *         the bins.
 	 */
 	public Histogram add(final Histogram other) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, this.getCount(key) + other.getCount(key));
+		final long[] otherCounts = alignedCounts(other);
+		for (int i = 0; i < numberOfClasses; i++) {
+			setCountForClass(i, counts[i] + otherCounts[i]);
 		}
 		return this;
 	}
@@ -851,13 +917,12 @@ public class Histogram implements Cloneable {
 	 *         the bins.
 	 */
 	public Histogram add(final Histogram other,final int offset) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		final int size = keySet().size();
-		Double[] keys = this.keySet().toArray(new Double[size]);
-		for(int i = 0 ; i < other.keySet().size() ; i++){			
-			this.setCount(keys[i], this.getCount(keys[i]) + other.getCount(keys[(size+i+offset)%size]));
+		final long[] otherCounts = alignedCounts(other).clone();
+		for (int i = 0; i < numberOfClasses; i++) {
+			setCountForClass(i, counts[i] + otherCounts[wrapClassIndex(i + offset)]);
 		}
 		return this;
 	}
@@ -873,11 +938,12 @@ public class Histogram implements Cloneable {
 	 *         histogram, not a new one.
 	 */
 	public Histogram max(final Histogram other){
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, Math.max(this.getCount(key),other.getCount(key)));
+		final long[] otherCounts = alignedCounts(other);
+		for (int i = 0; i < numberOfClasses; i++) {
+			setCountForClass(i, Math.max(counts[i], otherCounts[i]));
 		}
 		return this;
 	}
@@ -929,8 +995,8 @@ public class Histogram implements Cloneable {
 	 * @return histogram with each bin value multiplied by the factor.
 	 */
 	public Histogram multiply(final double factor) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key, Math.round(this.getCount(key) * factor));
+		for (int i = 0; i < numberOfClasses; i++) {
+			setCountForClass(i, Math.round(counts[i] * factor));
 		}
 		return this;
 	}
@@ -949,8 +1015,8 @@ public class Histogram implements Cloneable {
 	 * @return Histogram with each bin count raised with exponent.
 	 */
 	public Histogram raise(final double exponent) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key, Math.round(Math.pow(this.getCount(key), exponent)));
+		for (int i = 0; i < numberOfClasses; i++) {
+			setCountForClass(i, Math.round(Math.pow(counts[i], exponent)));
 		}
 		return this;
 	}
@@ -964,16 +1030,16 @@ public class Histogram implements Cloneable {
 	@Override
 	public Histogram clone() throws CloneNotSupportedException {
 		final Histogram clone = (Histogram) super.clone();
-		for (final double key : this.freqTable.keySet()) {
-			clone.setCount(key, this.getCount(key));
-		}
+		clone.counts = counts.clone();
 		return clone;
 	}
 
 	/**
 	 * Calculates a histogram mean of a list of histograms. All histograms must
 	 * have the same start, stop and binWidth otherwise the mean histogram makes
-	 * no sense!
+	 * no sense! The counts are aggregated one histogram at a time, see
+	 * {@link HistogramAggregate} to aggregate histograms that are not kept in
+	 * memory.
 	 * 
 	 * @param histograms
 	 *            a list of histograms
@@ -985,19 +1051,21 @@ public class Histogram implements Cloneable {
 		if (!histograms.isEmpty()) {
 			final Histogram first = histograms.get(0);
 			mean = new Histogram(first);
-			for (final double key : first.freqTable.keySet()) {
-				final double[] values = new double[histograms.size()];
-				int countIndex = 0;
-				for (final Histogram h : histograms) {
-					assert h.keySet().size() == first.keySet().size();
-					assert first.classWidth == h.classWidth;
-					assert first.start == h.start;
-					assert first.stop == h.stop;
-					values[countIndex] = h.getCount(key);
-					countIndex++;
+			final HistogramAggregate aggregate = new HistogramAggregate(mean.numberOfClasses);
+			final double[] values = new double[mean.numberOfClasses];
+			for (final Histogram h : histograms) {
+				assert h.numberOfClasses == first.numberOfClasses;
+				assert first.classWidth == h.classWidth;
+				assert first.start == h.start;
+				assert first.stop == h.stop;
+				final long[] aligned = mean.alignedCounts(h);
+				for (int i = 0; i < values.length; i++) {
+					values[i] = aligned[i];
 				}
-				final long currentMean = Math.round(StatUtils.mean(values));
-				mean.setCount(key, currentMean);
+				aggregate.add(values);
+			}
+			for (int i = 0; i < mean.numberOfClasses; i++) {
+				mean.setCountForClass(i, Math.round(aggregate.getMean(i)));
 			}
 		}
 		return mean;
@@ -1094,16 +1162,18 @@ public class Histogram implements Cloneable {
 				sum += smoothedCounts[b];
 			}
 		} else {
+			// the total of a range is the difference of two prefix sums
+			final long[] prefixSums = new long[numberOfClasses + 1];
+			for (int b = 0; b < numberOfClasses; b++) {
+				prefixSums[b + 1] = prefixSums[b] + counts[b];
+			}
 			for (int b = 0; b < numberOfClasses; b++) {
 				// Determine clipped range.
 				final int min = Math.max(b - k, 0);
 				final int max = Math.min(b + k, numberOfClasses);
 
 				// Accumulate the total for the range.
-				int acc = 0;
-				for (int i = min; i < max; i++) {
-					acc += getCountForClass(i);
-				}
+				final long acc = prefixSums[max] - prefixSums[min];
 
 				// Calculate the average for the range.
 				smoothedCounts[b] = (int) (acc / (double) (max - min + 1) + 0.5);
@@ -1118,8 +1188,7 @@ public class Histogram implements Cloneable {
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
 			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			setCountForClass(b, smoothedCount);
 		}
 
 		return this;
@@ -1130,7 +1199,10 @@ public class Histogram implements Cloneable {
 	 * <p>
 	 * Each band of the histogram is smoothed by discrete convolution with a
 	 * kernel approximating a Gaussian impulse response with the specified
-	 * standard deviation.
+	 * standard deviation. The convolution is clipped at the edges, also for a
+	 * wrapped histogram. Circular smoothing and a recursive filter for wide
+	 * kernels are available on request, see
+	 * {@link #gaussianSmooth(double, boolean)}.
 	 * <p>
 	 * <em>Changes the current histogram</em> and returns it so it is possible
 	 * to chain modification e.g.
@@ -1153,55 +1225,43 @@ public class Histogram implements Cloneable {
 	 * @return A Gaussian smoothed version of the histogram.
 	 */
 	public Histogram gaussianSmooth(final double standardDeviation) {
+		return gaussianSmooth(standardDeviation, true);
+	}
+
+	/**
+	 * Smooth the histogram using Gaussians, see
+	 * {@link #gaussianSmooth(double)}.
+	 * 
+	 * @param standardDeviation
+	 *            The standard deviation of the Gaussian smoothing kernel, in
+	 *            bins.
+	 * @param exact
+	 *            If true the histogram is smoothed as Tarsos always did.
+	 *            Otherwise a wrapped histogram is smoothed circularly and wide
+	 *            kernels are approximated with a recursive filter, its cost
+	 *            does not depend on the width. See {@link GaussianSmoother}.
+	 * @return A Gaussian smoothed version of the histogram.
+	 */
+	public Histogram gaussianSmooth(final double standardDeviation, final boolean exact) {
 		if (standardDeviation < 0.0) {
 			throw new IllegalArgumentException("standardDeviation invalid");
 		} else if (standardDeviation == 0.0) {
 			return this;
 		}
 
-		// Determine the number of weights (must be odd).
-		int numWeights = (int) (2 * 2.58 * standardDeviation + 0.5);
-		if (numWeights % 2 == 0) {
-			numWeights++;
-		}
-
-		// Initialize the smoothing weights.
-		final double[] weights = new double[numWeights];
-		final int m = numWeights / 2;
-		final double var = standardDeviation * standardDeviation;
-		final double gain = 1.0 / Math.sqrt(2.0 * Math.PI * var);
-		final double exp = -1.0 / (2.0 * var);
-		for (int i = m; i < numWeights; i++) {
-			final double del = i - m;
-			weights[i] = gain * Math.exp(exp * del * del);
-			weights[numWeights - 1 - i] = weights[i];
+		final double[] values = new double[numberOfClasses];
+		for (int b = 0; b < numberOfClasses; b++) {
+			values[b] = counts[b];
 		}
+		final double[] smoothedValues = new GaussianSmoother(standardDeviation, exact).smooth(values, isWrapped());
 
 		// Clear the band total count for the smoothed histogram.
-		int sum = 0;
-
-		final int[] smoothedCounts = new int[numberOfClasses];
+		long sum = 0;
 
+		final long[] smoothedCounts = new long[numberOfClasses];
 		for (int b = 0; b < numberOfClasses; b++) {
-			// Determine clipped range.
-			final int min = Math.max(b - m, 0);
-			final int max = Math.min(b + m, numberOfClasses);
-
-			// Calculate the offset into the weight array.
-			int offset = m > b ? m - b : 0;
-
-			// Accumulate the total for the range.
-			double acc = 0;
-			double weightTotal = 0;
-			for (int i = min; i < max; i++) {
-				final double w = weights[offset++];
-				acc += getCountForClass(i) * w;
-				weightTotal += w;
-			}
-
 			// Round the accumulated value.
-			smoothedCounts[b] = (int) (acc / weightTotal + 0.5);
-
+			smoothedCounts[b] = (long) (smoothedValues[b] + 0.5);
 			// Accumulate total for band.
 			sum += smoothedCounts[b];
 		}
@@ -1210,9 +1270,8 @@ public class Histogram implements Cloneable {
 		// the same as for the same band of the original histogram.
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
-			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			final long smoothedCount = (long) (smoothedCounts[b] * factor + 0.5);
+			setCountForClass(b, smoothedCount);
 		}
 		return this;
 	}
@@ -1229,19 +1288,11 @@ public class Histogram implements Cloneable {
 	}
 
 	public void displace(final int displacement) {
-		try {
-			Histogram original = clone();
-			// Makes sure the displacement is positive.
-			final int actualDisplacement = (displacement + numberOfClasses) % numberOfClasses;
-
-			for (final double key : freqTable.keySet()) {
-				final double displacedValue = (key + actualDisplacement * classWidth)
-						% (numberOfClasses * classWidth);
-				this.setCount(key, original.getCount(displacedValue));
-			}
-		} catch (CloneNotSupportedException e) {
-			throw new AssertionError("Cloning a histogram is supported!");
+		final long[] original = counts.clone();
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = original[wrapClassIndex(i + displacement)];
 		}
+		changed();
 	}
 
 	public double correlationWithDisplacement(final int displacement, final Histogram otherHistogram,
@@ -1300,13 +1351,32 @@ public class Histogram implements Cloneable {
 		double maximumCorrelation = -1; // best found correlation
 		final int numberOfClasses = getNumberOfClasses();
 
-		// current displacement, incremented with class width
-		for (int currentDisplacement = 0; currentDisplacement < numberOfClasses; currentDisplacement++) {
-			final double currentCorrelation = correlationWithDisplacement(currentDisplacement,
-					otherHistogram, correlationMeasure);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalDisplacement = currentDisplacement;
+		if (correlationMeasure == CorrelationMeasure.CROSSCORRELATION
+				&& otherHistogram.numberOfClasses == numberOfClasses) {
+			// the cross correlation for all displacements at once
+			final double[] correlations = CircularCorrelation.correlate(spectrum(), otherHistogram.spectrum());
+			for (int i = 0; i < numberOfClasses; i++) {
+				// the counts are integers, so is their correlation
+				correlations[i] = Math.rint(correlations[i]) / numberOfClasses;
+			}
+			optimalDisplacement = CircularCorrelation.indexOfMaximum(correlations, maximumCorrelation, 0);
+		} else if (correlationMeasure == CorrelationMeasure.INTERSECTION
+				&& otherHistogram.numberOfClasses == numberOfClasses) {
+			// the displacement with the largest matching area, without trying
+			// each displacement
+			optimalDisplacement = OverlapShiftSearch.optimalShift(profile(), otherHistogram.profile());
+			if (!(correlationWithDisplacement(optimalDisplacement, otherHistogram, correlationMeasure) > maximumCorrelation)) {
+				optimalDisplacement = 0;
+			}
+		} else {
+			// current displacement, incremented with class width
+			for (int currentDisplacement = 0; currentDisplacement < numberOfClasses; currentDisplacement++) {
+				final double currentCorrelation = correlationWithDisplacement(currentDisplacement,
+						otherHistogram, correlationMeasure);
+				if (maximumCorrelation < currentCorrelation) {
+					maximumCorrelation = currentCorrelation;
+					optimalDisplacement = currentDisplacement;
+				}
 			}
 		}
 		if (optimalDisplacement > getNumberOfClasses() / 2.0) {
@@ -1357,8 +1427,8 @@ public class Histogram implements Cloneable {
 	public final void export(final String fileName) {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("Bin (cents); Number of Annotations (#)\n");
-		for (final double key : keySet()) {
-			sb.append(key).append(";").append(getCount(key)).append("\n");
+		for (int i = 0; i < numberOfClasses; i++) {
+			sb.append(keys[i]).append(";").append(counts[i]).append("\n");
 		}
 		FileUtils.writeFile(sb.toString(), fileName);
 	}
@@ -1373,9 +1443,9 @@ public class Histogram implements Cloneable {
 	public final void exportMatLab(final String fileName) {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("histogram_values = [");
-		for (final double key : keySet()) {
-			for (int i = 0; i < getCount(key); i++) {
-				sb.append(key).append(",");
+		for (int classIndex = 0; classIndex < numberOfClasses; classIndex++) {
+			for (int i = 0; i < counts[classIndex]; i++) {
+				sb.append(keys[classIndex]).append(",");
 			}
 		}
 		sb.append("]\n");
@@ -1388,10 +1458,8 @@ public class Histogram implements Cloneable {
 	 */
 	public final long getMaxBinCount() {
 		long maxValue = -1;
-		if (!freqTable.values().isEmpty()) {
-			for (final long value : freqTable.values()) {
-				maxValue = Math.max(maxValue, value);
-			}
+		for (final long value : counts) {
+			maxValue = Math.max(maxValue, value);
 		}
 		return maxValue;
 	}
@@ -1400,8 +1468,51 @@ public class Histogram implements Cloneable {
 	 * Sets each bin to 0.
 	 */
 	public void clear() {
-		for (final double key : keySet()) {
-			setCount(key, 0);
+		Arrays.fill(counts, 0);
+		sumFreq = 0;
+		changed();
+	}
+
+	/**
+	 * A read only, ordered set view on the keys of a histogram.
+	 */
+	private static final class KeySet extends AbstractSet<Double> {
+		private final double[] keys;
+
+		private KeySet(final double[] histogramKeys) {
+			keys = histogramKeys;
+		}
+
+		@Override
+		public Iterator<Double> iterator() {
+			return new Iterator<Double>() {
+				private int index = 0;
+
+				public boolean hasNext() {
+					return index < keys.length;
+				}
+
+				public Double next() {
+					if (index >= keys.length) {
+						throw new NoSuchElementException();
+					}
+					return keys[index++];
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("The keys of a histogram are read only.");
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			return o instanceof Double && Arrays.binarySearch(keys, ((Double) o).doubleValue()) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return keys.length;
 		}
 	}
 }
@@ -0,0 +1,383 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util.histogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.hogent.tarsos.util.BatchExecutor;
+import be.hogent.tarsos.util.KernelDensityEstimate;
+
+/**
+ * Aggregates a number of profiles (histograms or kernel density estimates with
+ * the same number of bins) per bin: the sum, mean, variance and maximum of
+ * each bin over all profiles. The profiles are not kept, so an aggregate of a
+ * whole corpus needs as much memory as one profile.
+ * <p>
+ * Two aggregates can be merged. Merging is associative, so the aggregates of
+ * parts of a corpus can be built independently (e.g. on worker threads, see
+ * {@link #reduce(List, int)}) and merged afterwards. The variances are
+ * merged with the parallel algorithm of Chan, Golub and LeVeque, which avoids
+ * the cancellation of a sum of squares. An aggregate remembers the names of
+ * the sources it was built from and can be written to a file, so an aggregate
+ * of a corpus can be updated with new recordings without adding a recording
+ * twice.
+ * </p>
+ * <p>
+ * The binary file starts with the magic number <code>TAGG</code>, a format
+ * version, the number of bins, the number of profiles and the number of
+ * sources, followed by the names of the sources (as modified UTF-8) and, for
+ * each bin, the sum, the sum of squared deviations from the mean and the
+ * maximum as doubles.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class HistogramAggregate {
+
+	private static final Logger LOG = Logger.getLogger(HistogramAggregate.class.getName());
+
+	/**
+	 * The magic number at the start of each file: TAGG in ASCII.
+	 */
+	private static final int MAGIC = 0x54414747;
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	private static final short VERSION = 1;
+
+	private final int size;
+	private long count;
+	private final double[] sums;
+	/**
+	 * The sum of squared deviations from the mean, for each bin.
+	 */
+	private final double[] squaredDeviations;
+	private final double[] maxima;
+	private final Set<String> sources;
+
+	/**
+	 * Creates an empty aggregate.
+	 * 
+	 * @param numberOfClasses
+	 *            The number of bins of each profile.
+	 */
+	public HistogramAggregate(final int numberOfClasses) {
+		size = numberOfClasses;
+		sums = new double[size];
+		squaredDeviations = new double[size];
+		maxima = new double[size];
+		sources = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * Adds a profile.
+	 * 
+	 * @param values
+	 *            The value of each bin.
+	 */
+	public void add(final double[] values) {
+		if (values.length != size) {
+			throw new IllegalArgumentException("Expected a profile with " + size + " bins, got " + values.length);
+		}
+		count++;
+		for (int i = 0; i < size; i++) {
+			final double value = values[i];
+			if (count == 1) {
+				sums[i] = value;
+				maxima[i] = value;
+			} else {
+				// Welford's update, with the mean before and after adding the
+				// value
+				final double previousMean = sums[i] / (count - 1);
+				sums[i] += value;
+				squaredDeviations[i] += (value - previousMean) * (value - sums[i] / count);
+				maxima[i] = Math.max(maxima[i], value);
+			}
+		}
+	}
+
+	/**
+	 * Adds the counts of a histogram.
+	 * 
+	 * @param histogram
+	 *            A histogram with the number of bins of this aggregate.
+	 */
+	public void add(final Histogram histogram) {
+		final double[] values = new double[histogram.getNumberOfClasses()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = histogram.getCountForClass(i);
+		}
+		add(values);
+	}
+
+	/**
+	 * Adds the values of a kernel density estimate.
+	 * 
+	 * @param kde
+	 *            An estimate with the number of bins of this aggregate.
+	 */
+	public void add(final KernelDensityEstimate kde) {
+		add(kde.getEstimate());
+	}
+
+	/**
+	 * Adds a profile and remembers its source.
+	 * 
+	 * @param source
+	 *            The name of the source of the profile, e.g. the content
+	 *            identifier of an audio file.
+	 * @param kde
+	 *            An estimate with the number of bins of this aggregate.
+	 */
+	public void add(final String source, final KernelDensityEstimate kde) {
+		add(kde);
+		sources.add(source);
+	}
+
+	/**
+	 * Merges another aggregate in this one. Afterwards this aggregate is the
+	 * aggregate of the profiles of both. The other aggregate is not changed.
+	 * 
+	 * @param other
+	 *            An aggregate with the same number of bins.
+	 */
+	public void merge(final HistogramAggregate other) {
+		if (other.size != size) {
+			throw new IllegalArgumentException("Can not merge an aggregate of " + other.size
+					+ " bins with one of " + size + " bins.");
+		}
+		if (other.count != 0) {
+			if (count == 0) {
+				System.arraycopy(other.sums, 0, sums, 0, size);
+				System.arraycopy(other.squaredDeviations, 0, squaredDeviations, 0, size);
+				System.arraycopy(other.maxima, 0, maxima, 0, size);
+			} else {
+				final double total = count + other.count;
+				for (int i = 0; i < size; i++) {
+					final double delta = other.sums[i] / other.count - sums[i] / count;
+					squaredDeviations[i] += other.squaredDeviations[i] + delta * delta * count * other.count / total;
+					sums[i] += other.sums[i];
+					maxima[i] = Math.max(maxima[i], other.maxima[i]);
+				}
+			}
+			count += other.count;
+		}
+		sources.addAll(other.sources);
+	}
+
+	/**
+	 * @return The number of bins.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of profiles in the aggregate.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The names of the sources of the profiles, in the order they
+	 *         were added. Profiles added without a name have no source.
+	 */
+	public Set<String> getSources() {
+		return Collections.unmodifiableSet(sources);
+	}
+
+	/**
+	 * @param source
+	 *            The name of a source.
+	 * @return True if a profile of the source is part of the aggregate.
+	 */
+	public boolean contains(final String source) {
+		return sources.contains(source);
+	}
+
+	/**
+	 * @return The sum of a bin over all profiles.
+	 */
+	public double getSum(final int index) {
+		return sums[index];
+	}
+
+	/**
+	 * @return The mean of a bin over all profiles, zero if there are none.
+	 */
+	public double getMean(final int index) {
+		return count == 0 ? 0 : sums[index] / count;
+	}
+
+	/**
+	 * @return The bias corrected variance of a bin over all profiles, zero if
+	 *         there are less than two.
+	 */
+	public double getVariance(final int index) {
+		return count < 2 ? 0 : squaredDeviations[index] / (count - 1);
+	}
+
+	/**
+	 * @return The maximum of a bin over all profiles, zero if there are none.
+	 */
+	public double getMaximum(final int index) {
+		return maxima[index];
+	}
+
+	/**
+	 * @return The mean of each bin.
+	 */
+	public double[] getMeans() {
+		final double[] means = new double[size];
+		for (int i = 0; i < size; i++) {
+			means[i] = getMean(i);
+		}
+		return means;
+	}
+
+	/**
+	 * Computes the aggregate of a number of tasks, e.g. one task for each file
+	 * of a corpus. The tasks are executed in parallel by a
+	 * {@link BatchExecutor}, each result is merged as soon as it (and the
+	 * results before it) is ready. A task that fails is logged and skipped.
+	 * 
+	 * @param tasks
+	 *            The tasks, each creates the aggregate of a part.
+	 * @param numberOfClasses
+	 *            The number of bins of each aggregate.
+	 * @return The merged aggregate of all tasks.
+	 */
+	public static HistogramAggregate reduce(final List<? extends Callable<HistogramAggregate>> tasks,
+			final int numberOfClasses) {
+		final HistogramAggregate aggregate = new HistogramAggregate(numberOfClasses);
+		new BatchExecutor().execute(tasks, new BatchExecutor.ResultHandler<HistogramAggregate>() {
+			public void handleResult(final int index, final HistogramAggregate part) {
+				aggregate.merge(part);
+			}
+
+			public void handleFailure(final int index, final Throwable cause) {
+				LOG.log(Level.WARNING, "Skipped part " + index + " of the aggregate", cause);
+			}
+		});
+		return aggregate;
+	}
+
+	/**
+	 * Writes the aggregate to a file. It is written to a temporary file first,
+	 * so an existing aggregate is only replaced by a complete one.
+	 * 
+	 * @param file
+	 *            The file to write.
+	 * @throws IOException
+	 *             If the file can not be written.
+	 */
+	public void write(final File file) throws IOException {
+		final File partialFile = new File(file.getPath() + ".part");
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+				partialFile)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeInt(size);
+			output.writeLong(count);
+			output.writeInt(sources.size());
+			for (final String source : sources) {
+				output.writeUTF(source);
+			}
+			for (int i = 0; i < size; i++) {
+				output.writeDouble(sums[i]);
+				output.writeDouble(squaredDeviations[i]);
+				output.writeDouble(maxima[i]);
+			}
+		} finally {
+			output.close();
+		}
+		if (file.exists() && !file.delete() || !partialFile.renameTo(file)) {
+			throw new IOException("Could not move " + partialFile + " to " + file);
+		}
+	}
+
+	/**
+	 * Reads an aggregate written by {@link #write(File)}.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @return The aggregate, profiles can be added to it.
+	 * @throws IOException
+	 *             If the file can not be read or is not an aggregate.
+	 */
+	public static HistogramAggregate read(final File file) throws IOException {
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(file + " is not a histogram aggregate.");
+			}
+			final short version = input.readShort();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of histogram aggregate " + file);
+			}
+			final int size = input.readInt();
+			final long count = input.readLong();
+			final int numberOfSources = input.readInt();
+			if (size <= 0 || count < 0 || numberOfSources < 0) {
+				throw new IOException(file + " is not a valid histogram aggregate.");
+			}
+			final HistogramAggregate aggregate = new HistogramAggregate(size);
+			aggregate.count = count;
+			for (int i = 0; i < numberOfSources; i++) {
+				aggregate.sources.add(input.readUTF());
+			}
+			for (int i = 0; i < size; i++) {
+				aggregate.sums[i] = input.readDouble();
+				aggregate.squaredDeviations[i] = input.readDouble();
+				aggregate.maxima[i] = input.readDouble();
+			}
+			return aggregate;
+		} catch (final EOFException e) {
+			throw new IOException("The histogram aggregate " + file + " is truncated.");
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -27,11 +27,14 @@
 package be.hogent.tarsos.util.histogram;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 
 import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationBuffer;
+import be.hogent.tarsos.sampled.pitch.AnnotationHandler;
 import be.hogent.tarsos.sampled.pitch.PitchUnit;
 import be.hogent.tarsos.util.ConfKey;
 import be.hogent.tarsos.util.Configuration;
@@ -69,6 +72,19 @@ public class HistogramFactory {
 		return histogram;
 	}
 	
+	/**
+	 * Creates a pitch class histogram directly from a buffer of annotations (without kernels).
+	 * @param annotations The buffer with annotations.
+	 * @return A pitch class histogram with the annotations added.
+	 */
+	public static PitchClassHistogram createPitchClassHistogram(final AnnotationBuffer annotations) {
+		final PitchClassHistogram histogram = new PitchClassHistogram();
+		for (int i = 0; i < annotations.size(); i++) {
+			histogram.add(annotations.getPitch(i, PitchUnit.RELATIVE_CENTS));
+		}
+		return histogram;
+	}
+	
 	/**
 	 * Creates a pitch class histogram directly from a list of annotations (without kernels).
 	 * @param kde
@@ -165,20 +181,53 @@ public class HistogramFactory {
 		return pitchHistogram;
 	}
 	
+	/**
+	 * Create a pitch histogram based on a buffer of annotations.
+	 * @param annotations A buffer with annotations.
+	 * @return a pitch histogram with the annotations added.
+	 */
+	public static PitchHistogram createPitchHistogram(final AnnotationBuffer annotations) {
+		final PitchHistogram pitchHistogram = new PitchHistogram();
+		for (int i = 0; i < annotations.size(); i++) {
+			pitchHistogram.add(annotations.getPitch(i, PitchUnit.ABSOLUTE_CENTS));
+		}
+		return pitchHistogram;
+	}
+	
+	/**
+	 * Returns a handler that adds the pitch of each annotation it receives to
+	 * a pitch histogram. Use it to build a pitch histogram while pitch is
+	 * detected, without keeping the annotations in memory.
+	 * 
+	 * @param pitchHistogram
+	 *            The pitch histogram to add the annotations to.
+	 * @return A handler that adds annotations to the pitch histogram.
+	 */
+	public static AnnotationHandler createPitchHistogramHandler(final PitchHistogram pitchHistogram) {
+		return new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				pitchHistogram.add(annotation.getPitch(PitchUnit.ABSOLUTE_CENTS));
+			}
+		};
+	}
+	
 	public static PitchHistogram createPitchHistogram(final List<Annotation> annotations,
 			final double width) {
 		int start = Configuration.getInt(ConfKey.pitch_histogram_start); 
 		int stop = Configuration.getInt(ConfKey.pitch_histogram_stop);
 		int size = stop - start;
 		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width),size);
+		double[] pitches = new double[annotations.size()];
+		int numberOfPitches = 0;
 		for (Annotation annotation : annotations) {
 			double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
 			if(pitch >= start && pitch <= stop){
-				kde.add(pitch);
+				pitches[numberOfPitches++] = pitch;
 			}else{
 				LOG.finer("Ignored pitch: " + pitch + " not between " + start + " and " + stop);
 			}
 		}
+		kde.addAll(Arrays.copyOf(pitches, numberOfPitches));
 		PitchHistogram pitchHistogram = new PitchHistogram();
 		for (int i = start; i < size; i++) {
 			pitchHistogram.setCount(i, (long) kde.getValue(i));
@@ -198,10 +247,29 @@ public class HistogramFactory {
 	public static KernelDensityEstimate createPichClassKDE(final List<Annotation> annotations,
 			final double width){
 		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width),1200);
+		double[] pitches = new double[annotations.size()];
+		int i = 0;
 		for (Annotation annotation : annotations) {
-			double pitch = annotation.getPitch(PitchUnit.RELATIVE_CENTS);
-			kde.add(pitch);
+			pitches[i++] = annotation.getPitch(PitchUnit.RELATIVE_CENTS);
 		}
+		kde.addAll(pitches);
+		return kde;
+	}
+
+	/**
+	 * Creates a pitch class {@link KernelDensityEstimate} for a buffer of annotations.
+	 * @param annotations A buffer with annotations.
+	 * @param width The width of the Gaussian kernel. 
+	 * @return A kernel density estimate with the annotations added.
+	 */
+	public static KernelDensityEstimate createPichClassKDE(final AnnotationBuffer annotations,
+			final double width){
+		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width),1200);
+		double[] pitches = new double[annotations.size()];
+		for (int i = 0; i < pitches.length; i++) {
+			pitches[i] = annotations.getPitch(i, PitchUnit.RELATIVE_CENTS);
+		}
+		kde.addAll(pitches);
 		return kde;
 	}
 
@@ -219,20 +287,21 @@ public class HistogramFactory {
 			final ScalaFile scalaFile, final double width) {
 		KernelDensityEstimate kde = new KernelDensityEstimate(
 				new GaussianKernel(width), 1200);
-		for (double pitch : scalaFile.getPitches()) {
-			kde.add(pitch);
-		}
+		kde.addAll(scalaFile.getPitches());
 		return kde;
 	}
 	
 	/**
-	 * Creates a pitch class {@link KernelDensityEstimate} for a list of pitches
-	 * defined by the annotations.
+	 * Creates a pitch class {@link KernelDensityEstimate} with the maximum of
+	 * the estimates of each time window: a window with the given duration
+	 * ends at each annotation. Only windows that span the full duration are
+	 * used, if the annotations span less than one window the estimate of all
+	 * annotations is returned.
 	 * 
 	 * @param width
 	 *            The width of the Gaussian kernel.
 	 * @param annotations
-	 *            A list of annotations.
+	 *            A list of annotations, it is not changed.
 	 * @param windowDuration
 	 *            The duration for one window in seconds.
 	 * @return A kernel density estimate with the annotations added.
@@ -243,20 +312,52 @@ public class HistogramFactory {
 				new GaussianKernel(width), 1200);
 		KernelDensityEstimate currentKde = new KernelDensityEstimate(
 				new GaussianKernel(width), 1200);
-		//sort by time
-		Collections.sort(annotations);
-		int startWindowIndex = -1;
-		for(int i = 0 ; i < annotations.size() ; i++){
-			currentKde.add(annotations.get(i).getPitch(PitchUnit.RELATIVE_CENTS));
-			if(startWindowIndex >= 0){
-				currentKde.remove(annotations.get(startWindowIndex).getPitch(PitchUnit.RELATIVE_CENTS));
+		//sort a copy by time
+		List<Annotation> sortedAnnotations = new ArrayList<Annotation>(annotations);
+		Collections.sort(sortedAnnotations);
+		int startWindowIndex = 0;
+		boolean windowIsFull = false;
+		for(int i = 0 ; i < sortedAnnotations.size() ; i++){
+			Annotation annotation = sortedAnnotations.get(i);
+			currentKde.add(annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+			// remove the annotations the window has passed
+			while(annotation.getStart() - sortedAnnotations.get(startWindowIndex).getStart() > windowDuration){
+				currentKde.remove(sortedAnnotations.get(startWindowIndex).getPitch(PitchUnit.RELATIVE_CENTS));
 				startWindowIndex++;
+				windowIsFull = true;
+			}
+			if(windowIsFull){
 				maxKde.max(currentKde);
-			} else if(annotations.get(i).getStart() - annotations.get(0).getStart() > windowDuration) {
-				startWindowIndex=0;
 			}
 		}
-		return maxKde;
+		return windowIsFull ? maxKde : currentKde;
+	}
+
+	/**
+	 * Creates a time series of pitch class {@link KernelDensityEstimate}s:
+	 * one for each time window, see {@link SlidingPitchClassKDE}.
+	 * 
+	 * @param annotations
+	 *            A list of annotations, it is not changed.
+	 * @param width
+	 *            The width of the Gaussian kernel.
+	 * @param windowDuration
+	 *            The duration of a window in seconds.
+	 * @param hopSize
+	 *            The time between the start of two windows in seconds.
+	 * @param handler
+	 *            Receives the estimate of each window, with the drift relative
+	 *            to the first window with annotations.
+	 */
+	public static void createPitchClassKDESeries(final List<Annotation> annotations, final double width,
+			final double windowDuration, final double hopSize, final SlidingPitchClassKDE.WindowHandler handler) {
+		List<Annotation> sortedAnnotations = new ArrayList<Annotation>(annotations);
+		Collections.sort(sortedAnnotations);
+		SlidingPitchClassKDE slidingKde = new SlidingPitchClassKDE(width, windowDuration, hopSize, true, handler);
+		for (Annotation annotation : sortedAnnotations) {
+			slidingKde.handleAnnotation(annotation);
+		}
+		slidingKde.flush();
 	}
 
 	
@@ -40,12 +40,6 @@ public final class Intersection implements HistogramCorrelation {
 
 		// number of bins (classes)
 		final int numberOfClasses = thisHistogram.getNumberOfClasses();
-		// start value
-		final double start = thisHistogram.getStart();
-		// stop value
-		final double stop = thisHistogram.getStop();
-		// classWidth
-		final double classWidth = thisHistogram.getClassWidth();
 
 		int actualDisplacement = displacement;
 		// make displacement positive
@@ -56,11 +50,10 @@ public final class Intersection implements HistogramCorrelation {
 		// matching area, displaced
 		double matchingArea = 0.0;
 
-		for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-			final double displacedValue;
-			displacedValue = (current + actualDisplacement * classWidth) % (numberOfClasses * classWidth);
+		for (int i = 0; i < numberOfClasses; i++) {
+			final int displacedClass = i + actualDisplacement;
 			matchingArea += Math
-					.min(thisHistogram.getCount(current), otherHistogram.getCount(displacedValue));
+					.min(thisHistogram.getCountForClass(i), otherHistogram.getCountForClass(displacedClass));
 		}
 
 		// the biggest area under the curve
@@ -79,12 +72,6 @@ public final class Intersection implements HistogramCorrelation {
 			final Histogram otherHistogram, final String fileName, final String title) {
 		// number of bins (classes)
 		final int numberOfClasses = thisHistogram.getNumberOfClasses();
-		// start value
-		final double start = thisHistogram.getStart();
-		// stop value
-		final double stop = thisHistogram.getStop();
-		// classWidth
-		final double classWidth = thisHistogram.getClassWidth();
 
 		int actualDisplacement = displacement;
 		// make displacement positive
@@ -102,14 +89,14 @@ public final class Intersection implements HistogramCorrelation {
 		correlationPlot.addData(1, otherHistogram, actualDisplacement);
 
 		// Visualize the intersection using impulses
-		for (double current = start + classWidth / 2; current <= stop; current += classWidth) {
-			final double displacedValue = (current + actualDisplacement * classWidth)
-					% (numberOfClasses * classWidth);
-			final double areaAdded = Math.min(thisHistogram.getCount(current),
-					otherHistogram.getCount(displacedValue));
+		for (int classIndex = 0; classIndex < numberOfClasses; classIndex++) {
+			final int displacedClass = classIndex + actualDisplacement;
+			final double areaAdded = Math.min(thisHistogram.getCountForClass(classIndex),
+					otherHistogram.getCountForClass(displacedClass));
 			matchingArea += areaAdded;
+			final double key = thisHistogram.getKeyForClass(classIndex);
 			for (int i = 0; i < areaAdded; i++) {
-				correlationPlot.addData(2, current, areaAdded, true);
+				correlationPlot.addData(2, key, areaAdded, true);
 			}
 		}
 
@@ -0,0 +1,243 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+*  Tarsos is developed by Joren Six at 
+*  The School of Arts,
+*  University College Ghent,
+*  Hoogpoort 64, 9000 Ghent - Belgium
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://tarsos.0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.hogent.tarsos.util.histogram;
+
+import be.hogent.tarsos.sampled.pitch.Annotation;
+import be.hogent.tarsos.sampled.pitch.AnnotationHandler;
+import be.hogent.tarsos.sampled.pitch.PitchUnit;
+import be.hogent.tarsos.util.KernelDensityEstimate;
+import be.hogent.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.hogent.tarsos.util.KernelDensityEstimate.Kernel;
+
+/**
+ * Moves a time window over a stream of annotations and reports the pitch
+ * class kernel density estimate of each window. The windows have a fixed
+ * duration and start a hop size apart, the first window starts at the first
+ * annotation. The estimate is updated incrementally: an annotation is added
+ * when it enters the window and removed when the window has passed it, each
+ * update costs the width of the kernel.
+ * <p>
+ * Optionally the shift of each window relative to the first window that
+ * contains annotations is tracked, e.g. to follow the intonation drift in a
+ * long performance.
+ * </p>
+ * <p>
+ * The annotations should be handled in time order, call {@link #flush()}
+ * after the last annotation to report the last window.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class SlidingPitchClassKDE implements AnnotationHandler {
+
+	/**
+	 * Receives the estimate of each window.
+	 */
+	public interface WindowHandler {
+		/**
+		 * Called for each window, in time order. Windows without annotations
+		 * are reported as well.
+		 * 
+		 * @param windowStart
+		 *            The start of the window in seconds.
+		 * @param windowStop
+		 *            The end of the window in seconds (exclusive).
+		 * @param kde
+		 *            The estimate of the window. It is updated for the next
+		 *            window: use it during the call or copy it.
+		 * @param drift
+		 *            The number of cents the estimate is shifted relative to
+		 *            the first estimate with annotations, between -600
+		 *            (exclusive) and 600 (inclusive). Zero when the shift is
+		 *            not tracked.
+		 */
+		void handleWindow(double windowStart, double windowStop, KernelDensityEstimate kde, int drift);
+	}
+
+	/**
+	 * The estimate is rebuilt from the annotations in the window after this
+	 * many removals, to prevent rounding errors from adding up.
+	 */
+	private static final int REMOVALS_BEFORE_REBUILD = 1 << 16;
+
+	private final double windowDuration;
+	private final double hopSize;
+	private final boolean trackDrift;
+	private final WindowHandler handler;
+	private final Kernel kernel;
+	private final KernelDensityEstimate kde;
+	private KernelDensityEstimate reference;
+
+	/**
+	 * The annotations in the window: a ring buffer of time stamps and pitch
+	 * classes.
+	 */
+	private double[] times;
+	private double[] pitchClasses;
+	private int first;
+	private int count;
+	private int removals;
+
+	private double windowStart;
+	private double lastTime;
+	private boolean started;
+
+	/**
+	 * Creates a sliding window over annotations.
+	 * 
+	 * @param width
+	 *            The width of the Gaussian kernel in cents.
+	 * @param duration
+	 *            The duration of a window in seconds.
+	 * @param hop
+	 *            The time between the start of two windows in seconds.
+	 * @param drift
+	 *            True to track the shift of each window relative to the first
+	 *            window with annotations.
+	 * @param windowHandler
+	 *            Receives the estimate of each window.
+	 */
+	public SlidingPitchClassKDE(final double width, final double duration, final double hop, final boolean drift,
+			final WindowHandler windowHandler) {
+		if (duration <= 0 || hop <= 0) {
+			throw new IllegalArgumentException("The window duration and hop size should be positive: " + duration
+					+ ", " + hop);
+		}
+		windowDuration = duration;
+		hopSize = hop;
+		trackDrift = drift;
+		handler = windowHandler;
+		kernel = new GaussianKernel(width);
+		kde = new KernelDensityEstimate(kernel, 1200);
+		times = new double[64];
+		pitchClasses = new double[64];
+	}
+
+	/**
+	 * Adds an annotation to the window. Windows that end before the
+	 * annotation are reported first.
+	 * 
+	 * @param annotation
+	 *            The next annotation, not earlier than the previous one.
+	 */
+	public void handleAnnotation(final Annotation annotation) {
+		final double time = annotation.getStart();
+		if (!started) {
+			windowStart = time;
+			lastTime = time;
+			started = true;
+		} else if (time < lastTime) {
+			throw new IllegalArgumentException("Annotations should be handled in time order: " + time + " < "
+					+ lastTime);
+		}
+		lastTime = time;
+		while (time >= windowStart + windowDuration) {
+			reportWindow();
+			advanceWindow();
+		}
+		// with a hop larger than the window, annotations can fall between
+		// two windows
+		if (time >= windowStart) {
+			append(time, annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+		}
+	}
+
+	/**
+	 * Reports the window with the last annotation and empties the window. The
+	 * next annotation starts a new series of windows, with a new reference
+	 * for the drift.
+	 */
+	public void flush() {
+		if (started) {
+			reportWindow();
+			first = 0;
+			count = 0;
+			removals = 0;
+			kde.clear();
+			reference = null;
+			started = false;
+		}
+	}
+
+	private void reportWindow() {
+		int drift = 0;
+		if (trackDrift && count > 0) {
+			if (reference == null) {
+				reference = new KernelDensityEstimate(kernel, kde.getEstimate());
+			} else {
+				final int shift = reference.shiftForOptimalCorrelation(kde);
+				drift = shift > kde.size() / 2 ? shift - kde.size() : shift;
+			}
+		}
+		handler.handleWindow(windowStart, windowStart + windowDuration, kde, drift);
+	}
+
+	private void advanceWindow() {
+		windowStart += hopSize;
+		while (count > 0 && times[first] < windowStart) {
+			kde.remove(pitchClasses[first]);
+			first = (first + 1) % times.length;
+			count--;
+			removals++;
+		}
+		if (count == 0) {
+			kde.clear();
+			removals = 0;
+		} else if (removals >= REMOVALS_BEFORE_REBUILD) {
+			rebuild();
+		}
+	}
+
+	private void append(final double time, final double pitchClass) {
+		if (count == times.length) {
+			final double[] grownTimes = new double[times.length * 2];
+			final double[] grownPitchClasses = new double[times.length * 2];
+			for (int i = 0; i < count; i++) {
+				grownTimes[i] = times[(first + i) % times.length];
+				grownPitchClasses[i] = pitchClasses[(first + i) % times.length];
+			}
+			times = grownTimes;
+			pitchClasses = grownPitchClasses;
+			first = 0;
+		}
+		final int index = (first + count) % times.length;
+		times[index] = time;
+		pitchClasses[index] = pitchClass;
+		count++;
+		kde.add(pitchClass);
+	}
+
+	private void rebuild() {
+		final double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = pitchClasses[(first + i) % times.length];
+		}
+		kde.clear();
+		kde.addAll(values);
+		removals = 0;
+	}
+}
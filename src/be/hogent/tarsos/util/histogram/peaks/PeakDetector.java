@@ -30,10 +30,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Vector;
+import java.util.WeakHashMap;
 
 import org.apache.commons.math.stat.StatUtils;
 
@@ -63,29 +63,25 @@ public final class PeakDetector {
 		
 		public List<Peak> detect(Histogram histogram, int windowSize,
 				int thresholdFactor) {
+			final long[] counts = counts(histogram);
+			final int numberOfClasses = counts.length;
+
 			// 1. CALCULATE SCORES
-			final double[] localHeightScores = new double[histogram.getNumberOfClasses()];
-			for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
-				final double currentValue = histogram.getCountForClass(i);
-				final double previousValue = histogram.getCountForClass(i - 1);
-				final double nextValue = histogram.getCountForClass(i + 1);
-
-				final boolean isPeak = currentValue >= previousValue && currentValue >= nextValue;
-
-				// Don't bother calculating the local height score if it is not a
-				// peak. This is not strictly needed, only for performance.
-				if (isPeak) {
-					localHeightScores[i] = calculateLocalHeightScore(histogram, i, windowSize);
+			// The local height score of each peak, see
+			// calculateLocalHeightScore, is computed in constant time using
+			// sums over the window.
+			final double[] localHeightScores = new double[numberOfClasses];
+			final WindowStatistics window = new WindowStatistics(counts, windowSize);
+			for (int i = 0; i < numberOfClasses; i++) {
+				if (isPeak(counts, i)) {
+					localHeightScores[i] = window.localHeightScore(i);
 				}
 			}
 
 			// 2. TRESHOLD
-			// Add the peaks to a list if the value is bigger than a threshold
-			// value. This step is not strictly needed but it improves the
-			// performance of the next steps.
 			final double localHeightScoreTreshold = thresholdFactor/10.0;
 			final List<Peak> peaks = new ArrayList<Peak>();
-			for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
+			for (int i = 0; i < numberOfClasses; i++) {
 				if (localHeightScores[i] > localHeightScoreTreshold) {
 					peaks.add(new Peak(i, localHeightScores[i]));
 				}
@@ -104,32 +100,19 @@ public final class PeakDetector {
 			// If peaks are closer than the window size they are too close.
 			// We are starting from the one with the best local height score and
 			// remove the ones with lower scores (within the window).
-			for (int i = 0; i < peaks.size(); i++) {
-				final int firstPeakIndex = (int) peaks.get(i).getPosition();
-				for (int j = i + 1; j < peaks.size(); j++) {
-					final int secondPeakIndex = (int) peaks.get(j).getPosition();
-					if (Math.abs(firstPeakIndex - secondPeakIndex) < windowSize) {
-						peaks.remove(j);
-						// Removed a peak, so shift index j;
-						j--;
-					}
-				}
-			}
+			final List<Peak> filteredPeaks = suppress(peaks, numberOfClasses, windowSize, false);
 
 			// 4. SANITIZE RESULTS
 			// Correct the peak units. The caller expects position in <em>cents</em>
 			// and height in <em>number of annotations</em> and not position as a
 			// bin index and height as a local height score.
-			for (int i = 0; i < peaks.size(); i++) {
-				final Peak peak = peaks.get(i);
+			for (final Peak peak : filteredPeaks) {
 				final int peakIndex = (int) peak.getPosition();
-				final double position = histogram.getKeyForClass(peakIndex);
-				final double height = histogram.getCountForClass(peakIndex);
-				peak.setPosition(position);
-				peak.setHeight(height);
+				peak.setPosition(histogram.getKeyForClass(peakIndex));
+				peak.setHeight(counts[peakIndex]);
 			}
 
-			return peaks;
+			return filteredPeaks;
 		}
 	};
 	
@@ -139,62 +122,246 @@ public final class PeakDetector {
 		public List<Peak> detect(Histogram histogram, int windowSize,
 				int thresholdFactor) {
 			final double threshold = histogram.getMedian() * thresholdFactor / 10;
+			final long[] counts = counts(histogram);
 			
 			final List<Peak> peaks = new ArrayList<Peak>();
-			
-			for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
-				final double currentValue = histogram.getCountForClass(i);
-				final double previousValue = histogram.getCountForClass(i - 1);
-				final double nextValue = histogram.getCountForClass(i + 1);
-
-				final boolean isPeak = currentValue >= previousValue && currentValue >= nextValue && currentValue > threshold;
-				
-
-				// Don't bother calculating the local height score if it is not a
-				// peak. This is not strictly needed, only for performance.
-				if (isPeak) {
-					peaks.add(new Peak(i, currentValue));
+			for (int i = 0; i < counts.length; i++) {
+				if (isPeak(counts, i) && counts[i] > threshold) {
+					peaks.add(new Peak(i, counts[i]));
 				}
 			}
 			
 			Collections.sort(peaks);
 			Collections.reverse(peaks);
 			
-			for (int i = 0; i < peaks.size(); i++) {
-				final int firstPeakIndex = (int) peaks.get(i).getPosition();
-				for (int j = i + 1; j < peaks.size(); j++) {
-					final int secondPeakIndex = (int) peaks.get(j).getPosition();
-					int diff = Math.abs(firstPeakIndex - secondPeakIndex);
-					//wrapping code:
-					int halfSize = histogram.getNumberOfClasses() / 2;
-					if (diff > halfSize )
-						diff = halfSize - (diff % halfSize);
-					
-					if (diff < windowSize) {
-						peaks.remove(j);
-						// Removed a peak, so shift index j;
-						j--;
-					}
-				}
-			}
+			// Remove peaks that are too close to each other, the distance wraps
+			// around.
+			final List<Peak> filteredPeaks = suppress(peaks, counts.length, windowSize, true);
 
 			// 4. SANITIZE RESULTS
 			// Correct the peak units. The caller expects position in <em>cents</em>
-			// and height in <em>number of annotations</em> and not position as a
-			// bin index and height as a local height score.
-			for (int i = 0; i < peaks.size(); i++) {
-				final Peak peak = peaks.get(i);
+			// and not position as a bin index.
+			for (final Peak peak : filteredPeaks) {
 				final int peakIndex = (int) peak.getPosition();
-				final double position = histogram.getKeyForClass(peakIndex);
-				peak.setPosition(position);
+				peak.setPosition(histogram.getKeyForClass(peakIndex));
 			}
 			
-			return peaks;
+			return filteredPeaks;
 		}
 	};
-	
-	
 
+	/**
+	 * @return A copy of the counts of the histogram.
+	 */
+	private static long[] counts(final Histogram histogram) {
+		final long[] counts = new long[histogram.getNumberOfClasses()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = histogram.getCountForClass(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * @return True if the count at index is at least as high as both
+	 *         neighbours, the neighbours wrap around.
+	 */
+	private static boolean isPeak(final long[] counts, final int index) {
+		final int size = counts.length;
+		final long previousValue = counts[(index - 1 + size) % size];
+		final long nextValue = counts[(index + 1) % size];
+		return counts[index] >= previousValue && counts[index] >= nextValue;
+	}
+
+	/**
+	 * Removes peaks that are closer than the window size to a peak earlier in
+	 * the list. The list is traversed once: each peak that is kept blocks the
+	 * bins within the window, so this takes O(peaks * windowSize) instead of
+	 * O(peaks^2) removals.
+	 * 
+	 * @param peaks
+	 *            Peaks with a bin index as position, in order of importance.
+	 * @param numberOfClasses
+	 *            The number of bins.
+	 * @param windowSize
+	 *            Peaks closer than this number of bins are too close.
+	 * @param wrapped
+	 *            True if the distance between bins wraps around. The distance
+	 *            is then calculated as it was for {@link #ABSOLUTEHEIGHT}.
+	 * @return The peaks that are kept, in the same order.
+	 */
+	private static List<Peak> suppress(final List<Peak> peaks, final int numberOfClasses, final int windowSize,
+			final boolean wrapped) {
+		final List<Peak> filteredPeaks = new ArrayList<Peak>();
+		final boolean[] blocked = new boolean[numberOfClasses];
+		final int halfSize = numberOfClasses / 2;
+		final int reach = Math.min(windowSize, numberOfClasses);
+		for (final Peak peak : peaks) {
+			final int peakIndex = (int) peak.getPosition();
+			if (!blocked[peakIndex]) {
+				filteredPeaks.add(peak);
+				for (int offset = -reach; offset <= reach; offset++) {
+					int index = peakIndex + offset;
+					if (wrapped) {
+						index = (index % numberOfClasses + numberOfClasses) % numberOfClasses;
+					} else if (index < 0 || index >= numberOfClasses) {
+						continue;
+					}
+					int diff = Math.abs(peakIndex - index);
+					if (wrapped && diff > halfSize) {
+						diff = halfSize - (diff % halfSize);
+					}
+					if (diff < windowSize) {
+						blocked[index] = true;
+					}
+				}
+			}
+		}
+		return filteredPeaks;
+	}
+
+	/**
+	 * Calculates the local height score of
+	 * {@link PeakDetector#calculateLocalHeightScore(Histogram, int, int)} for
+	 * each bin in constant time. The sums of the counts and squared counts in a
+	 * window follow from prefix sums, and the windows where all values are
+	 * equal (where the standard deviation is zero) follow from a sliding
+	 * minimum and maximum, computed with a monotone deque.
+	 */
+	private static final class WindowStatistics {
+		private final long[] counts;
+		private final int windowSize;
+		private final int halfWindow;
+		private final long[] sums;
+		private final double[] squaredSums;
+		private final boolean[] flat;
+		/**
+		 * True if the (wrapped) prefix sums of the squared counts are exact.
+		 */
+		private final boolean exactSquaredSums;
+
+		private WindowStatistics(final long[] counts, final int windowSize) {
+			assert windowSize % 2 != 0 : "Window size should be odd";
+			assert windowSize >= 3 : "Window size should be minimum 3: a center value and one before and after.";
+			this.counts = counts;
+			this.windowSize = windowSize;
+			halfWindow = (windowSize - 1) / 2;
+			final int size = counts.length;
+			sums = new long[size + 1];
+			squaredSums = new double[size + 1];
+			for (int i = 0; i < size; i++) {
+				sums[i + 1] = sums[i] + counts[i];
+				squaredSums[i + 1] = squaredSums[i] + (double) counts[i] * counts[i];
+			}
+			flat = flatWindows();
+			exactSquaredSums = squaredSums[size] * (2 + windowSize / size) < MAX_EXACT;
+		}
+
+		/**
+		 * @return For each bin, true if all values in the window around it are
+		 *         equal. An even window size adds a zero to the values, as
+		 *         calculateLocalHeightScore does.
+		 */
+		private boolean[] flatWindows() {
+			final int size = counts.length;
+			final boolean[] flatWindows = new boolean[size];
+			final int length = 2 * halfWindow + 1;
+			// Indexes in the sequence of bins from -halfWindow to size +
+			// halfWindow - 1, the window of bin i ends at i + halfWindow.
+			final int[] maxima = new int[size + length];
+			final int[] minima = new int[size + length];
+			int maxHead = 0;
+			int maxTail = 0;
+			int minHead = 0;
+			int minTail = 0;
+			for (int position = 0; position < size + length - 1; position++) {
+				final long value = count(position - halfWindow);
+				while (maxTail > maxHead && count(maxima[maxTail - 1] - halfWindow) <= value) {
+					maxTail--;
+				}
+				maxima[maxTail++] = position;
+				while (minTail > minHead && count(minima[minTail - 1] - halfWindow) >= value) {
+					minTail--;
+				}
+				minima[minTail++] = position;
+				final int first = position - length + 1;
+				if (first >= 0) {
+					if (maxima[maxHead] < first) {
+						maxHead++;
+					}
+					if (minima[minHead] < first) {
+						minHead++;
+					}
+					final long max = count(maxima[maxHead] - halfWindow);
+					final long min = count(minima[minHead] - halfWindow);
+					final boolean padded = length < windowSize;
+					flatWindows[first] = max == min && (!padded || max == 0);
+				}
+			}
+			return flatWindows;
+		}
+
+		private long count(final int index) {
+			final int size = counts.length;
+			return counts[(index % size + size) % size];
+		}
+
+		/**
+		 * @return The sum of the counts in the (circular) range [from, to].
+		 */
+		private long sum(final int from, final int to) {
+			return prefix(sums, to + 1) - prefix(sums, from);
+		}
+
+		private double squaredSum(final int from, final int to) {
+			return prefix(squaredSums, to + 1) - prefix(squaredSums, from);
+		}
+
+		private long prefix(final long[] prefixSums, final int index) {
+			final int size = counts.length;
+			final int wraps = (int) Math.floor(index / (double) size);
+			return wraps * prefixSums[size] + prefixSums[index - wraps * size];
+		}
+
+		private double prefix(final double[] prefixSums, final int index) {
+			final int size = counts.length;
+			final int wraps = (int) Math.floor(index / (double) size);
+			return wraps * prefixSums[size] + prefixSums[index - wraps * size];
+		}
+
+		private double localHeightScore(final int index) {
+			if (flat[index]) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			final int from = index - halfWindow;
+			final int to = index + halfWindow;
+			final long sum = sum(from, to);
+			final double squaredSum = squaredSum(from, to);
+			// The score (count - mean) / standardDeviation, with the bias
+			// corrected variance of StatUtils.variance, equals
+			// height / sqrt(deviations * windowSize / (windowSize - 1)) with
+			// height = windowSize * count - sum and
+			// deviations = windowSize * squaredSum - sum^2. If the squares of
+			// both fit exactly in a double, the score is calculated from one
+			// correctly rounded division so equal scores are equal doubles and
+			// ties are sorted by position.
+			final double height = (double) windowSize * counts[index] - sum;
+			final double deviations = windowSize * squaredSum - (double) sum * sum;
+			final double numerator = height * height * (windowSize - 1);
+			final double denominator = deviations * windowSize;
+			final double localHeightScore;
+			if (exactSquaredSums && windowSize * squaredSum < MAX_EXACT && numerator < MAX_EXACT) {
+				localHeightScore = Math.signum(height) * Math.sqrt(numerator / denominator);
+			} else {
+				localHeightScore = height / Math.sqrt(Math.max(0, deviations) * windowSize / (windowSize - 1));
+			}
+			return localHeightScore;
+		}
+	}
+
+	/**
+	 * Integers below this value are exact as doubles.
+	 */
+	private static final double MAX_EXACT = 9007199254740992.0;
 	/**
 	 * Create a histogram with peak information. Instead of triangular peaks it
 	 * creates a histogram (with the same resolution (bin widths) as the
@@ -215,8 +382,85 @@ public final class PeakDetector {
 		return PitchClassHistogram.createToneScale(peakPositionsDouble);
 	}
 	
+	/**
+	 * Detects peaks with the {@link #ABSOLUTEHEIGHT} strategy. The results are
+	 * cached for each histogram until its counts change, so detecting peaks
+	 * again with parameters that were used before (e.g. while a slider is
+	 * dragged back and forth) does not repeat the detection.
+	 * 
+	 * @param histogram
+	 *            The histogram to detect peaks for
+	 * @param windowSize
+	 *            The windowSize in number of bins.
+	 * @param thresholdFactor
+	 *            A number between 0 and 100 that determines a threshold.
+	 * @return A list of peaks in the histogram
+	 */
 	public static List<Peak> detect(final Histogram histogram, final int windowSize, final int thresholdFactor){
-		return ABSOLUTEHEIGHT.detect(histogram, windowSize, thresholdFactor);
+		final long modificationCount = histogram.getModificationCount();
+		final Long parameters = Long.valueOf(((long) windowSize << 32) | (thresholdFactor & 0xFFFFFFFFL));
+		List<Peak> peaks;
+		synchronized (CACHE) {
+			DetectionCache cache = CACHE.get(histogram);
+			if (cache == null || cache.modificationCount != modificationCount) {
+				cache = new DetectionCache(modificationCount);
+				CACHE.put(histogram, cache);
+			}
+			peaks = cache.get(parameters);
+		}
+		if (peaks == null) {
+			peaks = ABSOLUTEHEIGHT.detect(histogram, windowSize, thresholdFactor);
+			synchronized (CACHE) {
+				final DetectionCache cache = CACHE.get(histogram);
+				if (cache != null && cache.modificationCount == modificationCount) {
+					cache.put(parameters, copy(peaks));
+				}
+			}
+		} else {
+			peaks = copy(peaks);
+		}
+		return peaks;
+	}
+
+	/**
+	 * The maximum number of cached results for each histogram.
+	 */
+	private static final int CACHED_DETECTIONS = 128;
+
+	/**
+	 * Cached peaks for each histogram. The histograms are weakly referenced so
+	 * the cache does not keep them alive.
+	 */
+	private static final Map<Histogram, DetectionCache> CACHE = new WeakHashMap<Histogram, DetectionCache>();
+
+	/**
+	 * The least recently used results of peak detection on one version of a
+	 * histogram, keyed by window size and threshold.
+	 */
+	private static final class DetectionCache extends LinkedHashMap<Long, List<Peak>> {
+		private static final long serialVersionUID = -1475425786522049873L;
+		private final long modificationCount;
+
+		private DetectionCache(final long histogramModificationCount) {
+			super(16, 0.75f, true);
+			modificationCount = histogramModificationCount;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Long, List<Peak>> eldest) {
+			return size() > CACHED_DETECTIONS;
+		}
+	}
+
+	/**
+	 * Peaks are mutable, so the cache hands out copies.
+	 */
+	private static List<Peak> copy(final List<Peak> peaks) {
+		final List<Peak> copies = new ArrayList<Peak>(peaks.size());
+		for (final Peak peak : peaks) {
+			copies.add(new Peak(peak.getPosition(), peak.getHeight()));
+		}
+		return copies;
 	}
 
 	
@@ -286,44 +530,31 @@ public final class PeakDetector {
 	 * @return A list of peaks equal in size as the requested number of peaks.
 	 */
 	public static List<Peak> detectNumberOfPeaks(final Histogram histogram, final int numberOfPeaks) {
-		final List<Peak> peaks = new ArrayList<Peak>();
-
-		// 1. Calculate a list of peaks for each window size.
-		HashMap<Integer, List<Peak>> peaksPerWindowSize = new HashMap<Integer, List<Peak>>();
-		for (int i = 3; i < histogram.getNumberOfClasses() / 2; i += 2) {
-			peaksPerWindowSize.put(i, detect(histogram, i,15));
-		}
-
-		// 2. Count the number of times each peak occurs (for each window size).
-		HashMap<Double, Integer> peakPositionCount = new HashMap<Double, Integer>();
+		// 1. Count the number of times each peak occurs (for each window size).
+		final Map<Double, Integer> peakPositionCount = new HashMap<Double, Integer>();
 		for (int i = 5; i < histogram.getNumberOfClasses() / 2; i += 2) {
-			for (Peak p : peaksPerWindowSize.get(i)) {
-				Double key = p.getPosition();
-				if (peakPositionCount.containsKey(key)) {
-					int current = peakPositionCount.get(key);
-					peakPositionCount.put(key, current + 1);
-				} else {
-					peakPositionCount.put(key, 1);
-				}
+			for (final Peak p : detect(histogram, i, 15)) {
+				final Double key = p.getPosition();
+				final Integer current = peakPositionCount.get(key);
+				peakPositionCount.put(key, current == null ? 1 : current + 1);
 			}
 		}
 
-		// 3. Order a list by the number of times a peak occurs (descending).
-		List<Map.Entry<Double, Integer>> entryList = new Vector<Map.Entry<Double, Integer>>(
-				peakPositionCount.entrySet());
-		Collections.sort(entryList, new Comparator<Map.Entry<Double, Integer>>() {
-			public int compare(final Entry<Double, Integer> firstEntry,
-					final Entry<Double, Integer> secondEntry) {
-				final Integer firstEntryCount = firstEntry.getValue();
-				final Integer secondEntryCount = secondEntry.getValue();
-				return secondEntryCount.compareTo(firstEntryCount);
+		// 2. Order the positions by the number of times a peak occurs
+		// (descending), equally frequent peaks by position.
+		final List<Double> positions = new ArrayList<Double>(peakPositionCount.keySet());
+		Collections.sort(positions, new Comparator<Double>() {
+			public int compare(final Double first, final Double second) {
+				final int countComparison = peakPositionCount.get(second).compareTo(peakPositionCount.get(first));
+				return countComparison == 0 ? first.compareTo(second) : countComparison;
 			}
 		});
 
-		// 4. Adds the requested number of peaks to the list.
-		for (int i = 0; i < numberOfPeaks; i++) {
-			double positionOfPeak = entryList.get(i).getKey();
-			double heightOfPeak = histogram.getCount(positionOfPeak);
+		// 3. Adds the requested number of peaks to the list.
+		final List<Peak> peaks = new ArrayList<Peak>();
+		for (int i = 0; i < numberOfPeaks && i < positions.size(); i++) {
+			final double positionOfPeak = positions.get(i);
+			final double heightOfPeak = histogram.getCount(positionOfPeak);
 			peaks.add(new Peak(positionOfPeak, heightOfPeak));
 		}
 
@@ -331,44 +562,29 @@ public final class PeakDetector {
 	}
 
 	public static List<Peak> detect(final Histogram histogram) {
-		List<Peak> peaks = new ArrayList<Peak>();
+		final int maxWindowSize = histogram.getNumberOfClasses() / 5;
 
-		// 1. Calculate a list of peaks for each window size.
-		HashMap<Integer, List<Peak>> peaksPerWindowSize = new HashMap<Integer, List<Peak>>();
-		for (int i = 3; i < histogram.getNumberOfClasses() / 5; i += 2) {
-			peaksPerWindowSize.put(i, detect(histogram, i,15));
-		}
-
-		// 2. Count the number of times each number of detected peaks occurs
+		// 1. Count the number of times each number of detected peaks occurs
 		// (for each window size).
-		HashMap<Integer, Integer> peakPositionCount = new HashMap<Integer, Integer>();
-		for (int i = 5; i < histogram.getNumberOfClasses() / 5; i += 2) {
-			Integer key = peaksPerWindowSize.get(i).size();
-			if (peakPositionCount.containsKey(key)) {
-				int current = peakPositionCount.get(key);
-				peakPositionCount.put(key, current + 1);
-			} else {
-				peakPositionCount.put(key, 1);
-			}
+		final int[] numberOfPeaksCount = new int[histogram.getNumberOfClasses() + 1];
+		for (int i = 5; i < maxWindowSize; i += 2) {
+			numberOfPeaksCount[detect(histogram, i, 15).size()]++;
 		}
 
-		// 3. Order the entries descending
-		List<Map.Entry<Integer, Integer>> entryList = new Vector<Map.Entry<Integer, Integer>>(
-				peakPositionCount.entrySet());
-		Collections.sort(entryList, new Comparator<Map.Entry<Integer, Integer>>() {
-			public int compare(final Entry<Integer, Integer> firstEntry,
-					final Entry<Integer, Integer> secondEntry) {
-				final Integer firstEntryCount = firstEntry.getValue();
-				final Integer secondEntryCount = secondEntry.getValue();
-				return secondEntryCount.compareTo(firstEntryCount);
+		// 2. Find the most likely number of peaks
+		int mostLikelyNumberOfPeaks = 0;
+		for (int i = 1; i < numberOfPeaksCount.length; i++) {
+			if (numberOfPeaksCount[i] > numberOfPeaksCount[mostLikelyNumberOfPeaks]) {
+				mostLikelyNumberOfPeaks = i;
 			}
-		});
+		}
 
-		// 4. find the first peak list with the most likely number of peaks
-		Integer mostLikelyNumberOfPeaks = entryList.get(0).getKey();
-		for (int i = 3; i < histogram.getNumberOfClasses() / 5; i += 2) {
-			if (peaksPerWindowSize.get(i).size() == mostLikelyNumberOfPeaks) {
-				peaks = peaksPerWindowSize.get(i);
+		// 3. find the first peak list with the most likely number of peaks
+		List<Peak> peaks = new ArrayList<Peak>();
+		for (int i = 3; i < maxWindowSize; i += 2) {
+			final List<Peak> windowPeaks = detect(histogram, i, 15);
+			if (windowPeaks.size() == mostLikelyNumberOfPeaks) {
+				peaks = windowPeaks;
 				break;
 			}
 		}